@@ -0,0 +1,68 @@
+package ch.bzz.backend.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Configuration of the thread pools used to process uploaded XML files concurrently
+ *
+ * The ingest executor parses files. It has a fixed number of threads and a bounded queue.
+ * If the queue is full, the submitting thread parses the file itself, so large uploads
+ * slow down the caller instead of piling up unbounded work in memory.
+ *
+ * The reconstruction pool rebuilds absolute meter values per sensor
+ * (energyscope.ingest.parallel-reconstruction).
+ */
+@Configuration
+@Slf4j
+public class IngestConfig {
+
+    /**
+     * Number of threads per pool, 0 uses the number of available processors
+     */
+    @Value("${energyscope.ingest.parallelism:0}")
+    private int parallelism;
+
+    /**
+     * Maximum number of files waiting to be parsed
+     */
+    @Value("${energyscope.ingest.queue-capacity:256}")
+    private int queueCapacity;
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService ingestExecutor() {
+        int threads = getThreads();
+        log.info("Creating ingest executor with {} threads and a queue capacity of {}", threads, queueCapacity);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "ingest-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ForkJoinPool reconstructionPool() {
+        int threads = getThreads();
+        log.info("Creating reconstruction pool with parallelism {}", threads);
+        return new ForkJoinPool(threads);
+    }
+
+    private int getThreads() {
+        return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,79 @@
+package ch.bzz.backend.controller;
+
+import ch.bzz.backend.util.SeriesTimestamps;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+/**
+ * Writes a series as parallel arrays: "delta", "ts" (epoch milliseconds) and "value"
+ *
+ * The points of a series are collected with add and written with writeSeries into the current
+ * JSON object. The stored timestamps are UTC (SDAT files are in UTC), so they are converted to
+ * epoch milliseconds without applying a local time zone. With delta encoding the first timestamp
+ * is absolute and every further one is the difference to the previous timestamp, which is a
+ * constant 900000 for 15 minute values.
+ * The buffers are reused for the next series, so an instance must only be used by one thread.
+ */
+public class ColumnarSeriesWriter {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final JsonGenerator generator;
+    private final boolean delta;
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @param generator The generator to write to
+     * @param delta true to delta-encode the timestamps
+     */
+    public ColumnarSeriesWriter(JsonGenerator generator, boolean delta) {
+        this.generator = generator;
+        this.delta = delta;
+    }
+
+    /**
+     * Add a data point to the current series
+     * @param ts The timestamp of the data point
+     * @param value The value of the data point
+     */
+    public void add(LocalDateTime ts, double value) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        timestamps[size] = SeriesTimestamps.encode(ts);
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Write the fields of the current series, ordered by timestamp, and start a new series
+     */
+    public void writeSeries() throws IOException {
+        SeriesTimestamps.sort(timestamps, values, size);
+
+        generator.writeBooleanField("delta", delta);
+
+        generator.writeArrayFieldStart("ts");
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            generator.writeNumber(delta ? timestamps[i] - previous : timestamps[i]);
+            previous = timestamps[i];
+        }
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("value");
+        for (int i = 0; i < size; i++) {
+            generator.writeNumber(values[i]);
+        }
+        generator.writeEndArray();
+
+        size = 0;
+    }
+}
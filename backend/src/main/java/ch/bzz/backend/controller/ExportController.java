@@ -6,28 +6,39 @@ import ch.bzz.backend.model.StromzaehlerDaten;
 import ch.bzz.backend.model.Messwert;
 import ch.bzz.backend.service.EnergyDataService;
 import ch.bzz.backend.service.LocalStorageService;
+import ch.bzz.backend.service.LttbDownsampler;
+import ch.bzz.backend.service.SeriesAlgebra;
+import ch.bzz.backend.service.TimeSeries;
 import ch.bzz.backend.service.XmlParserService;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.time.LocalDateTime;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
 
 /**
  * Controller for exporting data in different formats
@@ -40,165 +51,212 @@ public class ExportController {
     private final LocalStorageService localStorageService;
     private final EnergyDataService energyDataService;
     private final XmlParserService xmlParserService;
+    private final ObjectMapper objectMapper;
 
     /**
      * Export energy data as JSON
+     * The data points are written to the response while they are read from the database
      * @param meterId Optional meter ID to filter data
-     * @return JSON representation of energy data
+     * @param response The response the JSON representation of energy data is written to
      */
     @GetMapping("/json")
-    public ResponseEntity<List<Map<String, Object>>> exportJson(@RequestParam(value = "meterId", required = false) String meterId) {
-        List<EnergyData> energyDataList;
-
-        if (meterId != null && !meterId.isEmpty()) {
-            energyDataList = energyDataService.getEnergyDataByMeterId(meterId);
-        } else {
-            energyDataList = energyDataService.getAllEnergyData();
+    public void exportJson(@RequestParam(value = "meterId", required = false) String meterId,
+                           HttpServletResponse response) throws IOException {
+        // The sensors are written in HashMap order, like the previous map based response
+        Set<String> sensorIds = new HashSet<>();
+        for (String sensorId : energyDataService.getMeterIds()) {
+            if (meterId == null || meterId.isEmpty() || meterId.equals(sensorId)) {
+                sensorIds.add(sensorId);
+            }
         }
 
-        List<Map<String, Object>> jsonData = convertToJsonFormat(energyDataList);
-        return ResponseEntity.ok(jsonData);
+        try (JsonGenerator generator = createJsonGenerator(response)) {
+            JsonDataPointWriter writer = new JsonDataPointWriter(generator);
+
+            generator.writeStartArray();
+            for (String sensorId : sensorIds) {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("data");
+                try {
+                    energyDataService.forEachMeasurementPoint(sensorId, point -> {
+                        try {
+                            writer.writeDataPoint(point.getTimestamp(), point.getValue());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                generator.writeEndArray();
+                generator.writeStringField("sensorId", sensorId);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
     }
 
     /**
      * Export energy data as CSV
+     * The rows are written to the response while they are read from the database
      * @param meterId Optional meter ID to filter data
-     * @return CSV representation of energy data
+     * @param response The response the CSV representation of energy data is written to
      */
     @GetMapping("/csv")
-    public ResponseEntity<String> exportCsv(@RequestParam(value = "meterId", required = false) String meterId) {
-        List<EnergyData> energyDataList;
-
-        if (meterId != null && !meterId.isEmpty()) {
-            energyDataList = energyDataService.getEnergyDataByMeterId(meterId);
-        } else {
-            energyDataList = energyDataService.getAllEnergyData();
+    public void exportCsv(@RequestParam(value = "meterId", required = false) String meterId,
+                          HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.formData()
+                .name("attachment")
+                .filename(meterId != null ? meterId + ".csv" : "energy_data.csv")
+                .build()
+                .toString());
+
+        Writer csv = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+        csv.write("timestamp,value\n");
+        try {
+            energyDataService.forEachMeasurementPoint(meterId, point -> {
+                try {
+                    csv.append(point.getTimestamp().toString()).append(",")
+                       .append(Double.toString(point.getValue())).append("\n");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
-
-        String csvData = convertToCsvFormat(energyDataList);
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.TEXT_PLAIN);
-        headers.setContentDispositionFormData("attachment", 
-            meterId != null ? meterId + ".csv" : "energy_data.csv");
-
-        return new ResponseEntity<>(csvData, headers, HttpStatus.OK);
+        csv.flush();
     }
 
     /**
      * Export all measurements grouped by type for a specific meter ID as JSON
      * This endpoint returns production, consumption, and net values in one call
      * @param meterId The meter ID to search for
-     * @return JSON representation of measurements grouped by type
+     * @param maxPoints Optional maximum number of points per series, the series are downsampled (LTTB)
+     * @param response The response the JSON representation of measurements grouped by type is written to
      */
     @GetMapping("/json/measurements")
-    public ResponseEntity<Map<String, List<Map<String, Object>>>> exportMeasurementsByType(
-            @RequestParam("meterId") String meterId) {
+    public void exportMeasurementsByType(@RequestParam("meterId") String meterId,
+                                         @RequestParam(value = "maxPoints", required = false) Integer maxPoints,
+                                         HttpServletResponse response) throws IOException {
         Map<EnergyData.DataType, List<Measurement>> measurementsByType = 
-                energyDataService.getAllMeasurementsByMeterIdGroupedByType(meterId);
+                energyDataService.getAllMeasurementsByMeterIdGroupedByType(meterId, maxPoints);
 
-        Map<String, List<Map<String, Object>>> result = new HashMap<>();
+        Map<String, List<Measurement>> result = new HashMap<>();
 
-        // Convert production measurements
+        // Add production measurements
         List<Measurement> productionMeasurements = measurementsByType.get(EnergyData.DataType.PRODUCTION);
         if (productionMeasurements != null && !productionMeasurements.isEmpty()) {
-            result.put("production", convertMeasurementsToJsonFormat(productionMeasurements));
+            result.put("production", productionMeasurements);
         }
 
-        // Convert consumption measurements
+        // Add consumption measurements
         List<Measurement> consumptionMeasurements = measurementsByType.get(EnergyData.DataType.CONSUMPTION);
         if (consumptionMeasurements != null && !consumptionMeasurements.isEmpty()) {
-            result.put("consumption", convertMeasurementsToJsonFormat(consumptionMeasurements));
+            result.put("consumption", consumptionMeasurements);
         }
 
-        // Convert net measurements
+        // Add net measurements
         List<Measurement> netMeasurements = measurementsByType.get(null);
         if (netMeasurements != null && !netMeasurements.isEmpty()) {
-            result.put("net", convertMeasurementsToJsonFormat(netMeasurements));
+            result.put("net", netMeasurements);
         }
 
-        return ResponseEntity.ok(result);
+        try (JsonGenerator generator = createJsonGenerator(response)) {
+            JsonDataPointWriter writer = new JsonDataPointWriter(generator);
+
+            generator.writeStartObject();
+            for (Map.Entry<String, List<Measurement>> entry : result.entrySet()) {
+                generator.writeArrayFieldStart(entry.getKey());
+                for (Measurement measurement : entry.getValue()) {
+                    writer.writeDataPoint(measurement.getTimestamp(), measurement.getMyvalue());
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+        }
     }
 
     /**
-     * Convert energy data to JSON format as specified in the requirements
-     * @param energyDataList List of energy data
-     * @return List of maps representing JSON data
+     * Export energy data as columnar JSON for charts
+     * Every sensor is one object with parallel ts (epoch milliseconds, UTC) and value arrays
+     * @param meterId Optional meter ID to filter data
+     * @param delta true to delta-encode the timestamps
+     * @param response The response the columnar JSON representation of energy data is written to
      */
-    private List<Map<String, Object>> convertToJsonFormat(List<EnergyData> energyDataList) {
-        Map<String, List<Map<String, Object>>> groupedData = new HashMap<>();
-
-        for (EnergyData energyData : energyDataList) {
-            String sensorId = energyData.getMeterId();
+    @GetMapping("/columnar")
+    public void exportColumnar(@RequestParam(value = "meterId", required = false) String meterId,
+                               @RequestParam(value = "delta", defaultValue = "false") boolean delta,
+                               HttpServletResponse response) throws IOException {
+        List<String> sensorIds = energyDataService.getMeterIds();
+        if (meterId != null && !meterId.isEmpty()) {
+            sensorIds = sensorIds.contains(meterId) ? List.of(meterId) : List.of();
+        }
 
-            if (!groupedData.containsKey(sensorId)) {
-                groupedData.put(sensorId, new ArrayList<>());
-            }
+        try (JsonGenerator generator = createJsonGenerator(response)) {
+            ColumnarSeriesWriter writer = new ColumnarSeriesWriter(generator, delta);
 
-            for (Measurement measurement : energyData.getMeasurements()) {
-                Map<String, Object> dataPoint = new HashMap<>();
-                dataPoint.put("ts", measurement.getTimestamp().toString());
-                dataPoint.put("value", measurement.getMyvalue());
+            generator.writeStartArray();
+            for (String sensorId : sensorIds) {
+                energyDataService.forEachMeasurementPoint(sensorId,
+                        point -> writer.add(point.getTimestamp(), point.getValue()));
 
-                groupedData.get(sensorId).add(dataPoint);
+                generator.writeStartObject();
+                generator.writeStringField("sensorId", sensorId);
+                writer.writeSeries();
+                generator.writeEndObject();
             }
+            generator.writeEndArray();
         }
-
-        List<Map<String, Object>> result = new ArrayList<>();
-        for (Map.Entry<String, List<Map<String, Object>>> entry : groupedData.entrySet()) {
-            Map<String, Object> sensorData = new HashMap<>();
-            sensorData.put("sensorId", entry.getKey());
-            sensorData.put("data", entry.getValue());
-            result.add(sensorData);
-        }
-
-        return result;
     }
 
     /**
-     * Convert energy data to CSV format as specified in the requirements
-     * @param energyDataList List of energy data
-     * @return CSV string
+     * Export all measurements grouped by type for a specific meter ID as columnar JSON for charts
+     * Production, consumption, and net values are objects with parallel ts (epoch milliseconds, UTC) and value arrays
+     * @param meterId The meter ID to search for
+     * @param delta true to delta-encode the timestamps
+     * @param maxPoints Optional maximum number of points per series, the series are downsampled (LTTB)
+     * @param response The response the columnar JSON representation of measurements grouped by type is written to
      */
-    private String convertToCsvFormat(List<EnergyData> energyDataList) {
-        StringBuilder csv = new StringBuilder("timestamp,value\n");
-
-        // Group by meter ID
-        Map<String, List<EnergyData>> groupedByMeterId = energyDataList.stream()
-                .collect(Collectors.groupingBy(EnergyData::getMeterId));
-
-        for (Map.Entry<String, List<EnergyData>> entry : groupedByMeterId.entrySet()) {
-            List<EnergyData> meterData = entry.getValue();
-
-            // Flatten measurements for this meter
-            for (EnergyData data : meterData) {
-                for (Measurement measurement : data.getMeasurements()) {
-                    csv.append(measurement.getTimestamp()).append(",")
-                       .append(measurement.getMyvalue()).append("\n");
-                }
-            }
+    @GetMapping("/columnar/measurements")
+    public void exportColumnarMeasurementsByType(@RequestParam("meterId") String meterId,
+                                                 @RequestParam(value = "delta", defaultValue = "false") boolean delta,
+                                                 @RequestParam(value = "maxPoints", required = false) Integer maxPoints,
+                                                 HttpServletResponse response) throws IOException {
+        Map<EnergyData.DataType, List<Measurement>> measurementsByType =
+                energyDataService.getAllMeasurementsByMeterIdGroupedByType(meterId, maxPoints);
+
+        try (JsonGenerator generator = createJsonGenerator(response)) {
+            ColumnarSeriesWriter writer = new ColumnarSeriesWriter(generator, delta);
+
+            generator.writeStartObject();
+            writeColumnarSeries(generator, writer, "production", measurementsByType.get(EnergyData.DataType.PRODUCTION));
+            writeColumnarSeries(generator, writer, "consumption", measurementsByType.get(EnergyData.DataType.CONSUMPTION));
+            writeColumnarSeries(generator, writer, "net", measurementsByType.get(null));
+            generator.writeEndObject();
         }
-
-        return csv.toString();
     }
 
     /**
-     * Convert measurements to JSON format
-     * @param measurements List of measurements
-     * @return List of maps representing JSON data
+     * Write a non-empty list of measurements as a columnar series field
+     * @param generator The generator to write to
+     * @param writer The columnar writer of the generator
+     * @param name The field name of the series
+     * @param measurements The measurements of the series, may be null
      */
-    private List<Map<String, Object>> convertMeasurementsToJsonFormat(List<Measurement> measurements) {
-        List<Map<String, Object>> result = new ArrayList<>();
+    private void writeColumnarSeries(JsonGenerator generator, ColumnarSeriesWriter writer, String name,
+                                     List<Measurement> measurements) throws IOException {
+        if (measurements == null || measurements.isEmpty()) {
+            return;
+        }
 
         for (Measurement measurement : measurements) {
-            Map<String, Object> dataPoint = new HashMap<>();
-            dataPoint.put("ts", measurement.getTimestamp().toString());
-            dataPoint.put("value", measurement.getMyvalue());
-
-            result.add(dataPoint);
+            writer.add(measurement.getTimestamp(), measurement.getMyvalue());
         }
-
-        return result;
+        generator.writeObjectFieldStart(name);
+        writer.writeSeries();
+        generator.writeEndObject();
     }
 
     /**
@@ -206,10 +264,13 @@ public class ExportController {
      * This endpoint maps data from sdat files to edm files and returns the mapped data
      * when the timestamp is correct
      * 
-     * @return JSON representation of mapped data
+     * @param maxPoints Optional maximum number of points per series, the series are downsampled (LTTB)
+     * @param response The response the JSON representation of mapped data is written to
      */
     @GetMapping("/json/mapped-data")
-    public ResponseEntity<Map<String, List<Map<String, Object>>>> exportMappedData() {
+    public void exportMappedData(@RequestParam(value = "maxPoints", required = false) Integer maxPoints,
+                                 HttpServletResponse response) throws IOException {
+        Map<String, List<Messwert>> result = new HashMap<>();
         try {
             // Load the sdat and edm files
             String sdatFilePath = "src/main/resources/data/20220331_093121_12X-0000001216-O_E66_12X-LIPPUNEREM-T_ESLEVU373852_-1312619674.xml";
@@ -219,7 +280,8 @@ public class ExportController {
             File edmFile = new File(edmFilePath);
 
             if (!sdatFile.exists() || !edmFile.exists()) {
-                return ResponseEntity.notFound().build();
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
             }
 
             // Create input streams for the files
@@ -230,112 +292,102 @@ public class ExportController {
             // Process the files using the XmlParserService
             Map<String, StromzaehlerDaten> mappedData = xmlParserService.processMultipleFiles(inputStreams);
 
-            // Convert the mapped data to a format that the frontend can use
-            Map<String, List<Map<String, Object>>> result = new HashMap<>();
+            // Group the mapped data the way the frontend uses it
 
             for (Map.Entry<String, StromzaehlerDaten> entry : mappedData.entrySet()) {
                 String meterId = entry.getKey();
                 StromzaehlerDaten stromzaehlerDaten = entry.getValue();
 
-                List<Map<String, Object>> dataPoints = new ArrayList<>();
-
                 // Group measurements by type
                 Map<EnergyData.DataType, List<Messwert>> measurementsByType = new HashMap<>();
                 measurementsByType.put(EnergyData.DataType.PRODUCTION, new ArrayList<>());
                 measurementsByType.put(EnergyData.DataType.CONSUMPTION, new ArrayList<>());
 
                 // Populate type maps
-                for (Map.Entry<LocalDateTime, Messwert> messwertEntry : stromzaehlerDaten.getAllMesswerte().entrySet()) {
-                    Messwert messwert = messwertEntry.getValue();
-                    EnergyData.DataType type = messwert.getType();
+                for (int i = 0; i < stromzaehlerDaten.size(); i++) {
+                    EnergyData.DataType type = stromzaehlerDaten.typeAt(i);
 
                     if (type != null) {
-                        measurementsByType.get(type).add(messwert);
+                        measurementsByType.get(type).add(stromzaehlerDaten.messwertAt(i));
                     }
                 }
 
-                // Convert production measurements
+                // Add production measurements
                 List<Messwert> productionMeasurements = measurementsByType.get(EnergyData.DataType.PRODUCTION);
                 if (productionMeasurements != null && !productionMeasurements.isEmpty()) {
-                    List<Map<String, Object>> productionDataPoints = convertMesswerteToJsonFormat(productionMeasurements);
-                    result.put("production", productionDataPoints);
+                    result.put("production", productionMeasurements);
                 }
 
-                // Convert consumption measurements
+                // Add consumption measurements
                 List<Messwert> consumptionMeasurements = measurementsByType.get(EnergyData.DataType.CONSUMPTION);
                 if (consumptionMeasurements != null && !consumptionMeasurements.isEmpty()) {
-                    List<Map<String, Object>> consumptionDataPoints = convertMesswerteToJsonFormat(consumptionMeasurements);
-                    result.put("consumption", consumptionDataPoints);
+                    result.put("consumption", consumptionMeasurements);
                 }
 
-                // Calculate and convert net measurements
+                // Calculate and add net measurements
                 if (productionMeasurements != null && !productionMeasurements.isEmpty() &&
                     consumptionMeasurements != null && !consumptionMeasurements.isEmpty()) {
 
-                    // Create a map of timestamp to production measurement
-                    Map<LocalDateTime, Messwert> productionByTimestamp = new HashMap<>();
-                    for (Messwert messwert : productionMeasurements) {
-                        productionByTimestamp.put(messwert.getTimestamp(), messwert);
-                    }
-
-                    // Create a map of timestamp to consumption measurement
-                    Map<LocalDateTime, Messwert> consumptionByTimestamp = new HashMap<>();
-                    for (Messwert messwert : consumptionMeasurements) {
-                        consumptionByTimestamp.put(messwert.getTimestamp(), messwert);
+                    // Merge-join the series ordered by timestamp for timestamps that exist in both
+                    TimeSeries netAbsolute = SeriesAlgebra.subtract(
+                            TimeSeries.of(productionMeasurements, Messwert::getTimestamp, Messwert::getAbsoluteValue),
+                            TimeSeries.of(consumptionMeasurements, Messwert::getTimestamp, Messwert::getAbsoluteValue));
+                    TimeSeries netRelative = SeriesAlgebra.subtract(
+                            TimeSeries.of(productionMeasurements, Messwert::getTimestamp, Messwert::getRelativeValue),
+                            TimeSeries.of(consumptionMeasurements, Messwert::getTimestamp, Messwert::getRelativeValue));
+
+                    // Create a new measurement for every net value
+                    String unit = productionMeasurements.get(0).getUnit();
+                    List<Messwert> netMeasurements = new ArrayList<>(netAbsolute.size());
+                    for (int i = 0; i < netAbsolute.size(); i++) {
+                        netMeasurements.add(Messwert.builder()
+                                .timestamp(netAbsolute.timestampAt(i))
+                                .absoluteValue(netAbsolute.valueAt(i))
+                                .relativeValue(netRelative.valueAt(i))
+                                .unit(unit)
+                                .type(null) // No specific type for net values
+                                .build());
                     }
 
-                    // Calculate net values for timestamps that exist in both maps
-                    List<Messwert> netMeasurements = new ArrayList<>();
-                    for (Map.Entry<LocalDateTime, Messwert> prodEntry : productionByTimestamp.entrySet()) {
-                        LocalDateTime timestamp = prodEntry.getKey();
-                        Messwert production = prodEntry.getValue();
-
-                        if (consumptionByTimestamp.containsKey(timestamp)) {
-                            Messwert consumption = consumptionByTimestamp.get(timestamp);
-
-                            // Create a new measurement for the net value
-                            Messwert netMesswert = Messwert.builder()
-                                    .timestamp(timestamp)
-                                    .absoluteValue(production.getAbsoluteValue() - consumption.getAbsoluteValue())
-                                    .relativeValue(production.getRelativeValue() - consumption.getRelativeValue())
-                                    .unit(production.getUnit())
-                                    .type(null) // No specific type for net values
-                                    .build();
-
-                            netMeasurements.add(netMesswert);
-                        }
-                    }
-
-                    // Convert net measurements
+                    // Add net measurements
                     if (!netMeasurements.isEmpty()) {
-                        List<Map<String, Object>> netDataPoints = convertMesswerteToJsonFormat(netMeasurements);
-                        result.put("net", netDataPoints);
+                        result.put("net", netMeasurements);
                     }
                 }
             }
 
-            return ResponseEntity.ok(result);
         } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return;
         }
-    }
 
-    /**
-     * Convert Messwert objects to JSON format
-     * @param messwerte List of Messwert objects
-     * @return List of maps representing JSON data
-     */
-    private List<Map<String, Object>> convertMesswerteToJsonFormat(List<Messwert> messwerte) {
-        List<Map<String, Object>> result = new ArrayList<>();
+        if (maxPoints != null) {
+            result.replaceAll((name, messwerte) ->
+                    LttbDownsampler.downsample(messwerte, maxPoints, Messwert::getTimestamp, Messwert::getAbsoluteValue));
+        }
 
-        for (Messwert messwert : messwerte) {
-            Map<String, Object> dataPoint = new HashMap<>();
-            dataPoint.put("ts", messwert.getTimestamp().toString());
-            dataPoint.put("value", messwert.getAbsoluteValue());
+        try (JsonGenerator generator = createJsonGenerator(response)) {
+            JsonDataPointWriter writer = new JsonDataPointWriter(generator);
 
-            result.add(dataPoint);
+            generator.writeStartObject();
+            for (Map.Entry<String, List<Messwert>> entry : result.entrySet()) {
+                generator.writeArrayFieldStart(entry.getKey());
+                for (Messwert messwert : entry.getValue()) {
+                    writer.writeDataPoint(messwert.getTimestamp(), messwert.getAbsoluteValue());
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
         }
+    }
 
-        return result;
+    /**
+     * Create a JSON generator writing to the response
+     * @param response The response to write to
+     * @return The generator, closing it completes the response body
+     */
+    private JsonGenerator createJsonGenerator(HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        return objectMapper.createGenerator(response.getOutputStream(), JsonEncoding.UTF8);
     }
 }
@@ -0,0 +1,94 @@
+package ch.bzz.backend.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+/**
+ * Writes {"value":..., "ts":"..."} data points straight to a JsonGenerator
+ *
+ * The output is the same as serializing a HashMap with the keys "ts" (LocalDateTime.toString())
+ * and "value", which the export endpoints used before, but no map or timestamp string is
+ * allocated per point. The timestamp is formatted into a reused buffer, so an instance must
+ * only be used by one thread.
+ */
+public class JsonDataPointWriter {
+
+    /**
+     * Longest timestamp written from the buffer: yyyy-MM-ddTHH:mm:ss.nnnnnnnnn
+     */
+    private static final int MAX_TIMESTAMP_LENGTH = 29;
+
+    private final JsonGenerator generator;
+    private final char[] timestamp = new char[MAX_TIMESTAMP_LENGTH];
+
+    public JsonDataPointWriter(JsonGenerator generator) {
+        this.generator = generator;
+    }
+
+    /**
+     * Write one data point object
+     * The fields are written in the order of the previous HashMap based responses
+     * @param ts The timestamp of the data point
+     * @param value The value of the data point
+     */
+    public void writeDataPoint(LocalDateTime ts, double value) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("value", value);
+        generator.writeFieldName("ts");
+        writeTimestamp(ts);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Write a timestamp as a JSON string in the format of LocalDateTime.toString()
+     * @param ts The timestamp
+     */
+    public void writeTimestamp(LocalDateTime ts) throws IOException {
+        int year = ts.getYear();
+        if (year < 0 || year > 9999) {
+            // Signed or expanded years are rare, use the JDK formatting
+            generator.writeString(ts.toString());
+            return;
+        }
+
+        int length = 0;
+        length = appendDigits(year, 4, length);
+        timestamp[length++] = '-';
+        length = appendDigits(ts.getMonthValue(), 2, length);
+        timestamp[length++] = '-';
+        length = appendDigits(ts.getDayOfMonth(), 2, length);
+        timestamp[length++] = 'T';
+        length = appendDigits(ts.getHour(), 2, length);
+        timestamp[length++] = ':';
+        length = appendDigits(ts.getMinute(), 2, length);
+
+        int second = ts.getSecond();
+        int nano = ts.getNano();
+        if (second > 0 || nano > 0) {
+            timestamp[length++] = ':';
+            length = appendDigits(second, 2, length);
+            if (nano > 0) {
+                timestamp[length++] = '.';
+                if (nano % 1_000_000 == 0) {
+                    length = appendDigits(nano / 1_000_000, 3, length);
+                } else if (nano % 1000 == 0) {
+                    length = appendDigits(nano / 1000, 6, length);
+                } else {
+                    length = appendDigits(nano, 9, length);
+                }
+            }
+        }
+
+        generator.writeString(timestamp, 0, length);
+    }
+
+    private int appendDigits(int value, int digits, int offset) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            timestamp[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + digits;
+    }
+}
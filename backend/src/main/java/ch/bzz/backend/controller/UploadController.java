@@ -1,9 +1,12 @@
 package ch.bzz.backend.controller;
 
+import ch.bzz.backend.model.AggregatedMeasurements;
 import ch.bzz.backend.model.EnergyData;
 import ch.bzz.backend.model.Measurement;
 import ch.bzz.backend.model.StromzaehlerDaten;
+import ch.bzz.backend.service.AggregationService;
 import ch.bzz.backend.service.EnergyDataService;
+import ch.bzz.backend.service.IngestionLogService;
 import ch.bzz.backend.service.LocalStorageService;
 import ch.bzz.backend.service.XmlParserService;
 import lombok.RequiredArgsConstructor;
@@ -31,6 +34,8 @@ public class UploadController {
     private final XmlParserService xmlParserService;
     private final LocalStorageService localStorageService;
     private final EnergyDataService energyDataService;
+    private final AggregationService aggregationService;
+    private final IngestionLogService ingestionLogService;
 
     /**
      * Endpoint for uploading and parsing XML files
@@ -43,7 +48,10 @@ public class UploadController {
             // Parse the XML file
             List<EnergyData> energyDataList = xmlParserService.parseXml(file.getInputStream());
 
-            // Save the parsed data to both local storage and database
+            // Log the parsed data before saving it, so it is replayed into the database after a restart
+            ingestionLogService.append(energyDataList);
+
+            // Queue the parsed data for local storage (written in the background) and save it to the database
             localStorageService.saveEnergyData(energyDataList);
             energyDataList = energyDataService.saveEnergyData(energyDataList);
 
@@ -64,7 +72,7 @@ public class UploadController {
             // Parse the XML file to StromzaehlerDaten
             Map<String, StromzaehlerDaten> stromzaehlerDatenMap = xmlParserService.parseXmlToStromzaehlerDaten(file.getInputStream());
 
-            // Save the parsed data to local storage
+            // Queue the parsed data for local storage, written in the background
             stromzaehlerDatenMap = localStorageService.saveStromzaehlerDaten(stromzaehlerDatenMap);
 
             return ResponseEntity.ok(stromzaehlerDatenMap);
@@ -114,13 +122,15 @@ public class UploadController {
      * Endpoint for retrieving all measurements grouped by type for a specific meter ID
      * This endpoint returns production, consumption, and net values in one call
      * @param meterId The meter ID to search for
+     * @param maxPoints Optional maximum number of measurements per series, the series are downsampled (LTTB)
      * @return Map of data types to lists of measurements
      */
     @GetMapping("/energy-data/meter/measurements")
     public ResponseEntity<Map<EnergyData.DataType, List<Measurement>>> getMeasurementsByMeterIdGroupedByType(
-            @RequestParam("meterId") String meterId) {
+            @RequestParam("meterId") String meterId,
+            @RequestParam(value = "maxPoints", required = false) Integer maxPoints) {
         Map<EnergyData.DataType, List<Measurement>> measurements = 
-                energyDataService.getAllMeasurementsByMeterIdGroupedByType(meterId);
+                energyDataService.getAllMeasurementsByMeterIdGroupedByType(meterId, maxPoints);
         return ResponseEntity.ok(measurements);
     }
 
@@ -158,4 +168,33 @@ public class UploadController {
                 meterId, type, start, end);
         return ResponseEntity.ok(measurements);
     }
+
+    /**
+     * Endpoint for retrieving the aggregated production, consumption, and net values of a meter
+     * @param meterId The meter ID to aggregate
+     * @param startTime The start of the timestamp range (ISO format)
+     * @param endTime The end of the timestamp range (ISO format)
+     * @param bucket The bucket size (15m, 1h, 1d, 1w, or 1M)
+     * @param function The aggregate function (sum, avg, min, max, first, last, or count)
+     * @return The aggregated series, or 400 for an unknown bucket or function
+     */
+    @GetMapping("/energy-data/meter/measurements/aggregate")
+    public ResponseEntity<AggregatedMeasurements> getAggregatedMeasurements(
+            @RequestParam("meterId") String meterId,
+            @RequestParam("startTime") String startTime,
+            @RequestParam("endTime") String endTime,
+            @RequestParam(value = "bucket", defaultValue = "1h") String bucket,
+            @RequestParam(value = "function", defaultValue = "sum") String function) {
+        AggregationService.Bucket aggregationBucket;
+        AggregationService.Function aggregationFunction;
+        try {
+            aggregationBucket = AggregationService.Bucket.fromCode(bucket);
+            aggregationFunction = AggregationService.Function.fromName(function);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        LocalDateTime start = LocalDateTime.parse(startTime, DateTimeFormatter.ISO_DATE_TIME);
+        LocalDateTime end = LocalDateTime.parse(endTime, DateTimeFormatter.ISO_DATE_TIME);
+        return ResponseEntity.ok(aggregationService.aggregate(meterId, start, end, aggregationBucket, aggregationFunction));
+    }
 }
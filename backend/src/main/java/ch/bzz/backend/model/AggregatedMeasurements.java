@@ -0,0 +1,57 @@
+package ch.bzz.backend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Production, consumption, and net values of a meter aggregated per time bucket
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AggregatedMeasurements {
+    private String meterId;
+
+    /**
+     * The bucket size, e.g. 1h
+     */
+    private String bucket;
+
+    /**
+     * The aggregate function, e.g. sum
+     */
+    private String function;
+
+    @Builder.Default
+    private List<Value> production = new ArrayList<>();
+
+    @Builder.Default
+    private List<Value> consumption = new ArrayList<>();
+
+    /**
+     * Production minus consumption for the buckets with both values
+     */
+    @Builder.Default
+    private List<Value> net = new ArrayList<>();
+
+    /**
+     * The aggregated value of a bucket
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Value {
+        /**
+         * The start of the bucket
+         */
+        private LocalDateTime timestamp;
+        private double value;
+    }
+}
@@ -13,19 +13,23 @@ import java.util.List;
  * Common model class for representing energy data
  * regardless of the source XML format
  * 
- * Note: The combination of meterId and timestamp should be unique
- * to prevent duplicate datasets. The EnergyDataService checks for
- * duplicates based on these fields when saving data.
+ * Note: The combination of meterId and timestamp is unique
+ * to prevent duplicate datasets. The EnergyDataService skips
+ * duplicates based on these fields when saving data. The unique
+ * constraint also serves as the index for the meter and time range
+ * queries of the EnergyDataRepository.
  */
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table(name = "energy_data")
+@Table(name = "energy_data", uniqueConstraints = @UniqueConstraint(
+        name = "uk_energy_data_meter_timestamp", columnNames = {"meter_id", "timestamp"}))
 public class EnergyData {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "energy_data_seq")
+    @SequenceGenerator(name = "energy_data_seq", sequenceName = "energy_data_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "meter_id")
@@ -16,10 +16,14 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table(name = "measurement")
+@Table(name = "measurement", indexes = {
+        // Range queries per meter, type and time (findByEnergyData_MeterIdAndTypeAndTimestampBetween)
+        @Index(name = "idx_measurement_energy_data_type_timestamp", columnList = "energy_data_id, type, timestamp")
+})
 public class Measurement {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "measurement_seq")
+    @SequenceGenerator(name = "measurement_seq", sequenceName = "measurement_seq", allocationSize = 500)
     private Long id;
 
     @Enumerated(EnumType.STRING)
@@ -0,0 +1,18 @@
+package ch.bzz.backend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Flat, read-only view of a measurement and the meter it belongs to
+ * Used to stream exports without loading the entities into the persistence context
+ */
+@Data
+@AllArgsConstructor
+public class MeasurementPoint {
+    private String meterId;
+    private LocalDateTime timestamp;
+    private double value;
+}
@@ -0,0 +1,152 @@
+package ch.bzz.backend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Precomputed aggregate of the measurements of a meter and type in a time bucket
+ *
+ * Rollups are maintained on ingest by the RollupService, so aggregate views read one row
+ * per bucket instead of every raw measurement.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "measurement_rollup", uniqueConstraints = @UniqueConstraint(
+        name = "uk_measurement_rollup_bucket",
+        columnNames = {"meter_id", "type", "resolution", "bucket_start"}))
+public class MeasurementRollup {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "measurement_rollup_seq")
+    @SequenceGenerator(name = "measurement_rollup_seq", sequenceName = "measurement_rollup_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "meter_id")
+    private String meterId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "type")
+    private EnergyData.DataType type;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "resolution")
+    private Resolution resolution;
+
+    @Column(name = "bucket_start")
+    private LocalDateTime bucketStart;
+
+    @Column(name = "value_sum")
+    private double sum;
+
+    @Column(name = "value_min")
+    private double min;
+
+    @Column(name = "value_max")
+    private double max;
+
+    @Column(name = "value_count")
+    private long count;
+
+    @Column(name = "first_timestamp")
+    private LocalDateTime firstTimestamp;
+
+    @Column(name = "first_value")
+    private double firstValue;
+
+    @Column(name = "last_timestamp")
+    private LocalDateTime lastTimestamp;
+
+    @Column(name = "last_value")
+    private double lastValue;
+
+    /**
+     * Size of the rollup buckets
+     */
+    public enum Resolution {
+        HOUR,
+        DAY,
+        MONTH;
+
+        /**
+         * @param timestamp A timestamp
+         * @return The start of the bucket containing the timestamp
+         */
+        public LocalDateTime bucketStart(LocalDateTime timestamp) {
+            switch (this) {
+                case HOUR:
+                    return timestamp.truncatedTo(ChronoUnit.HOURS);
+                case DAY:
+                    return timestamp.truncatedTo(ChronoUnit.DAYS);
+                default:
+                    return timestamp.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+            }
+        }
+    }
+
+    /**
+     * Add a measurement value to the aggregate
+     * @param timestamp The timestamp of the value
+     * @param value The value
+     */
+    public void add(LocalDateTime timestamp, double value) {
+        if (count == 0) {
+            min = value;
+            max = value;
+            firstTimestamp = timestamp;
+            firstValue = value;
+            lastTimestamp = timestamp;
+            lastValue = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            if (timestamp.isBefore(firstTimestamp)) {
+                firstTimestamp = timestamp;
+                firstValue = value;
+            }
+            if (!timestamp.isBefore(lastTimestamp)) {
+                lastTimestamp = timestamp;
+                lastValue = value;
+            }
+        }
+        sum += value;
+        count++;
+    }
+
+    /**
+     * Merge another aggregate of the same bucket into this one
+     * @param other The aggregate to merge
+     */
+    public void merge(MeasurementRollup other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            min = other.min;
+            max = other.max;
+            firstTimestamp = other.firstTimestamp;
+            firstValue = other.firstValue;
+            lastTimestamp = other.lastTimestamp;
+            lastValue = other.lastValue;
+        } else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            if (other.firstTimestamp.isBefore(firstTimestamp)) {
+                firstTimestamp = other.firstTimestamp;
+                firstValue = other.firstValue;
+            }
+            if (!other.lastTimestamp.isBefore(lastTimestamp)) {
+                lastTimestamp = other.lastTimestamp;
+                lastValue = other.lastValue;
+            }
+        }
+        sum += other.sum;
+        count += other.count;
+    }
+}
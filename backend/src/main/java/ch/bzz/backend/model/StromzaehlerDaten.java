@@ -1,61 +1,304 @@
 package ch.bzz.backend.model;
 
-import lombok.Data;
+import ch.bzz.backend.util.SortedSeries;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import lombok.Getter;
+import lombok.Setter;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.TreeMap;
 
 /**
  * Represents data for a single electricity meter (Stromzähler)
- * using a TreeMap to store Messwert objects as suggested by Roger Bünzli.
+ * with Messwert objects ordered by timestamp as suggested by Roger Bünzli.
+ *
+ * The measurements are stored column-wise: timestamps and absolute values in a SortedSeries,
+ * relative values, types, and units in arrays kept parallel to it (see SortedSeries.Columns), the
+ * type and unit of every measurement as a one byte index into the per-series list of types and
+ * units (usually a single entry). A measurement takes 26 bytes instead of a tree node, a Messwert,
+ * and a LocalDateTime. Messwert objects returned by this class are copies, changes to them are
+ * not written back.
  */
-@Data
+@JsonPropertyOrder({"meterId", "messwerte", "allMesswerte"})
 public class StromzaehlerDaten {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final EnergyData.DataType[] TYPES = EnergyData.DataType.values();
+
     /**
      * The ID of the electricity meter
      */
+    @Getter
+    @Setter
     private String meterId;
-    
+
+    /**
+     * Relative values of every measurement, parallel to the absolute values
+     */
+    private double[] relativeValues = new double[INITIAL_CAPACITY];
+
+    /**
+     * Type ordinal + 1 of every measurement, 0 if the measurement has no type
+     */
+    private byte[] types = new byte[INITIAL_CAPACITY];
+
+    /**
+     * Index + 1 into the units of every measurement, 0 if the measurement has no unit
+     */
+    private byte[] unitIndexes = new byte[INITIAL_CAPACITY];
+    private final List<String> units = new ArrayList<>(1);
+
     /**
-     * TreeMap to store measurement values with timestamp as key
-     * This ensures no duplicate timestamps can exist
+     * Timestamps and absolute values, a timestamp occurs at most once
      */
-    private TreeMap<LocalDateTime, Messwert> messwerte;
-    
+    private final SortedSeries absoluteValues = new SortedSeries(INITIAL_CAPACITY, new Columns());
+
     /**
-     * Constructor to initialize the TreeMap
+     * Constructor to initialize an empty series
      */
     public StromzaehlerDaten(String meterId) {
         this.meterId = meterId;
-        this.messwerte = new TreeMap<>();
     }
-    
+
     /**
-     * Adds a measurement to the TreeMap
+     * Adds a measurement
      * If a measurement with the same timestamp already exists, it will be replaced
-     * 
+     *
      * @param messwert The measurement to add
      */
     public void addMesswert(Messwert messwert) {
-        messwerte.put(messwert.getTimestamp(), messwert);
+        byte type = typeCode(messwert.getType());
+        byte unit = unitCode(messwert.getUnit());
+        int index = absoluteValues.put(messwert.getTimestamp(), messwert.getAbsoluteValue());
+        relativeValues[index] = messwert.getRelativeValue();
+        types[index] = type;
+        unitIndexes[index] = unit;
+    }
+
+    /**
+     * Adds all measurements of another series in a single merge pass
+     * Measurements of the other series replace measurements with the same timestamp
+     *
+     * @param other The series to add
+     * @return The number of measurements added (not replaced)
+     */
+    public int addAll(StromzaehlerDaten other) {
+        if (other.size() == 0) {
+            return 0;
+        }
+
+        // Translate the units of the other series to the units of this series
+        byte[] unitMapping = new byte[other.units.size() + 1];
+        for (int i = 0; i < other.units.size(); i++) {
+            unitMapping[i + 1] = unitCode(other.units.get(i));
+        }
+
+        return absoluteValues.putAll(other.absoluteValues, (otherIndex, index) -> {
+            relativeValues[index] = other.relativeValues[otherIndex];
+            types[index] = other.types[otherIndex];
+            unitIndexes[index] = unitMapping[other.unitIndexes[otherIndex] & 0xFF];
+        });
     }
-    
+
     /**
      * Gets a measurement by timestamp
-     * 
+     *
      * @param timestamp The timestamp to look for
-     * @return The measurement with the given timestamp, or null if not found
+     * @return A copy of the measurement with the given timestamp, or null if not found
      */
     public Messwert getMesswert(LocalDateTime timestamp) {
-        return messwerte.get(timestamp);
+        int index = indexOf(timestamp);
+        return index >= 0 ? messwertAt(index) : null;
     }
-    
+
     /**
-     * Gets all measurements in the TreeMap
-     * 
-     * @return The TreeMap containing all measurements
+     * Gets all measurements ordered by timestamp
+     * Creates a Messwert for every measurement, prefer the index based accessors for large series
+     *
+     * @return A new TreeMap containing copies of all measurements
      */
     public TreeMap<LocalDateTime, Messwert> getAllMesswerte() {
+        TreeMap<LocalDateTime, Messwert> messwerte = new TreeMap<>();
+        for (int i = 0; i < size(); i++) {
+            Messwert messwert = messwertAt(i);
+            messwerte.put(messwert.getTimestamp(), messwert);
+        }
         return messwerte;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return A new TreeMap containing copies of all measurements, see getAllMesswerte
+     */
+    public TreeMap<LocalDateTime, Messwert> getMesswerte() {
+        return getAllMesswerte();
+    }
+
+    /**
+     * Replaces all measurements
+     *
+     * @param messwerte The new measurements
+     */
+    public void setMesswerte(Map<LocalDateTime, Messwert> messwerte) {
+        absoluteValues.clear();
+        units.clear();
+        for (Messwert messwert : messwerte.values()) {
+            addMesswert(messwert);
+        }
+    }
+
+    /**
+     * @return The number of measurements
+     */
+    public int size() {
+        return absoluteValues.size();
+    }
+
+    /**
+     * @param timestamp A timestamp
+     * @return The index of the measurement with the timestamp, or a negative value if there is none
+     */
+    public int indexOf(LocalDateTime timestamp) {
+        return absoluteValues.indexOf(timestamp);
+    }
+
+    /**
+     * @param index The index of a measurement, in timestamp order
+     * @return A copy of the measurement
+     */
+    public Messwert messwertAt(int index) {
+        return Messwert.builder()
+                .timestamp(timestampAt(index))
+                .absoluteValue(absoluteValues.valueAt(index))
+                .relativeValue(relativeValues[index])
+                .unit(unitAt(index))
+                .type(typeAt(index))
+                .build();
+    }
+
+    /**
+     * @param index The index of a measurement, in timestamp order
+     * @return The timestamp of the measurement
+     */
+    public LocalDateTime timestampAt(int index) {
+        return absoluteValues.timestampAt(index);
+    }
+
+    /**
+     * @param index The index of a measurement, in timestamp order
+     * @return The absolute value of the measurement
+     */
+    public double absoluteValueAt(int index) {
+        return absoluteValues.valueAt(index);
+    }
+
+    /**
+     * @param index The index of a measurement, in timestamp order
+     * @return The relative value of the measurement
+     */
+    public double relativeValueAt(int index) {
+        Objects.checkIndex(index, size());
+        return relativeValues[index];
+    }
+
+    /**
+     * @param index The index of a measurement, in timestamp order
+     * @param relativeValue The new relative value of the measurement
+     */
+    public void setRelativeValueAt(int index, double relativeValue) {
+        Objects.checkIndex(index, size());
+        relativeValues[index] = relativeValue;
+    }
+
+    /**
+     * @param index The index of a measurement, in timestamp order
+     * @return The type of the measurement, or null
+     */
+    public EnergyData.DataType typeAt(int index) {
+        Objects.checkIndex(index, size());
+        return types[index] == 0 ? null : TYPES[types[index] - 1];
+    }
+
+    /**
+     * @param index The index of a measurement, in timestamp order
+     * @return The unit of the measurement, or null
+     */
+    public String unitAt(int index) {
+        Objects.checkIndex(index, size());
+        return unitIndexes[index] == 0 ? null : units.get((unitIndexes[index] & 0xFF) - 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StromzaehlerDaten)) {
+            return false;
+        }
+        StromzaehlerDaten other = (StromzaehlerDaten) o;
+        int size = size();
+        if (!Objects.equals(meterId, other.meterId) || !absoluteValues.equals(other.absoluteValues)
+                || !Arrays.equals(relativeValues, 0, size, other.relativeValues, 0, size)
+                || !Arrays.equals(types, 0, size, other.types, 0, size)) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (!Objects.equals(unitAt(i), other.unitAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hashCode(meterId) + absoluteValues.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "StromzaehlerDaten(meterId=" + meterId + ", size=" + size() + ", units=" + units + ")";
+    }
+
+    /**
+     * Keeps the relative values, types, and units parallel to the absolute values
+     */
+    private class Columns implements SortedSeries.Columns {
+        @Override
+        public void resize(int capacity) {
+            relativeValues = Arrays.copyOf(relativeValues, capacity);
+            types = Arrays.copyOf(types, capacity);
+            unitIndexes = Arrays.copyOf(unitIndexes, capacity);
+        }
+
+        @Override
+        public void move(int from, int to, int length) {
+            System.arraycopy(relativeValues, from, relativeValues, to, length);
+            System.arraycopy(types, from, types, to, length);
+            System.arraycopy(unitIndexes, from, unitIndexes, to, length);
+        }
+    }
+
+    private byte typeCode(EnergyData.DataType type) {
+        return type == null ? 0 : (byte) (type.ordinal() + 1);
+    }
+
+    private byte unitCode(String unit) {
+        if (unit == null) {
+            return 0;
+        }
+        int index = units.indexOf(unit);
+        if (index < 0) {
+            if (units.size() == 255) {
+                throw new IllegalStateException("Too many different units for meter " + meterId);
+            }
+            units.add(unit);
+            index = units.size() - 1;
+        }
+        return (byte) (index + 1);
+    }
+}
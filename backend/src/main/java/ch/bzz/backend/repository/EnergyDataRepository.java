@@ -1,10 +1,14 @@
 package ch.bzz.backend.repository;
 
 import ch.bzz.backend.model.EnergyData;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -36,4 +40,48 @@ public interface EnergyDataRepository extends JpaRepository<EnergyData, Long> {
      * @return List of energy data for the specified meter and timestamp range
      */
     List<EnergyData> findByMeterIdAndTimestampBetween(String meterId, LocalDateTime startTime, LocalDateTime endTime);
-}
\ No newline at end of file
+
+    /**
+     * Find all energy data with their measurements in a single query
+     * @return List of all energy data with initialized measurements
+     */
+    @EntityGraph(attributePaths = "measurements")
+    @Query("SELECT e FROM EnergyData e")
+    List<EnergyData> findAllWithMeasurements();
+
+    /**
+     * Find energy data by meter ID with their measurements in a single query
+     * @param meterId The meter ID to search for
+     * @return List of energy data for the specified meter with initialized measurements
+     */
+    @EntityGraph(attributePaths = "measurements")
+    List<EnergyData> findWithMeasurementsByMeterId(String meterId);
+
+    /**
+     * Find energy data by meter ID and timestamp range with their measurements in a single query
+     * @param meterId The meter ID to search for
+     * @param startTime The start of the timestamp range
+     * @param endTime The end of the timestamp range
+     * @return List of energy data for the specified meter and timestamp range with initialized measurements
+     */
+    @EntityGraph(attributePaths = "measurements")
+    List<EnergyData> findWithMeasurementsByMeterIdAndTimestampBetween(
+            String meterId, LocalDateTime startTime, LocalDateTime endTime);
+
+    /**
+     * Find which of the given timestamps already exist for a meter
+     * @param meterId The meter ID to search for
+     * @param timestamps The timestamps to check
+     * @return The timestamps that already have energy data for the specified meter
+     */
+    @Query("SELECT e.timestamp FROM EnergyData e WHERE e.meterId = :meterId AND e.timestamp IN :timestamps")
+    List<LocalDateTime> findExistingTimestamps(@Param("meterId") String meterId,
+                                               @Param("timestamps") Collection<LocalDateTime> timestamps);
+
+    /**
+     * Find all meter IDs, in the order they were first saved
+     * @return List of distinct meter IDs
+     */
+    @Query("SELECT e.meterId FROM EnergyData e GROUP BY e.meterId ORDER BY MIN(e.id)")
+    List<String> findMeterIds();
+}
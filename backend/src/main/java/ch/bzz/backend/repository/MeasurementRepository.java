@@ -2,11 +2,18 @@ package ch.bzz.backend.repository;
 
 import ch.bzz.backend.model.Measurement;
 import ch.bzz.backend.model.EnergyData;
+import ch.bzz.backend.model.MeasurementPoint;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Repository for Measurement entities
@@ -36,6 +43,13 @@ public interface MeasurementRepository extends JpaRepository<Measurement, Long>
      */
     List<Measurement> findByEnergyDataAndType(EnergyData energyData, EnergyData.DataType type);
     
+    /**
+     * Find measurements by energy data's meter ID
+     * @param meterId The meter ID to search for
+     * @return List of measurements for the specified meter ID
+     */
+    List<Measurement> findByEnergyData_MeterId(String meterId);
+    
     /**
      * Find measurements by energy data's meter ID and type
      * @param meterId The meter ID to search for
@@ -54,4 +68,41 @@ public interface MeasurementRepository extends JpaRepository<Measurement, Long>
      */
     List<Measurement> findByEnergyData_MeterIdAndTypeAndTimestampBetween(
             String meterId, EnergyData.DataType type, LocalDateTime startTime, LocalDateTime endTime);
-}
\ No newline at end of file
+
+    /**
+     * Stream all measurements as flat points, ordered by meter
+     * The rows are read with a cursor, the caller must close the stream inside a transaction
+     * @return Stream of measurement points
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT new ch.bzz.backend.model.MeasurementPoint(e.meterId, m.timestamp, m.myvalue) "
+            + "FROM Measurement m JOIN m.energyData e ORDER BY e.meterId, e.id, m.id")
+    Stream<MeasurementPoint> streamAllPoints();
+
+    /**
+     * Stream the measurements of a meter as flat points
+     * The rows are read with a cursor, the caller must close the stream inside a transaction
+     * @param meterId The meter ID to search for
+     * @return Stream of measurement points for the specified meter ID
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT new ch.bzz.backend.model.MeasurementPoint(e.meterId, m.timestamp, m.myvalue) "
+            + "FROM Measurement m JOIN m.energyData e WHERE e.meterId = :meterId ORDER BY e.id, m.id")
+    Stream<MeasurementPoint> streamPointsByMeterId(@Param("meterId") String meterId);
+
+    /**
+     * Aggregate the measurements of a meter per type and timestamp in the database
+     * Every row contains type, timestamp, sum, min, max, count, and average of the values
+     * @param meterId The meter ID to search for
+     * @param startTime The start of the timestamp range
+     * @param endTime The end of the timestamp range
+     * @return List of aggregated rows ordered by timestamp
+     */
+    @Query("SELECT m.type, m.timestamp, SUM(m.myvalue), MIN(m.myvalue), MAX(m.myvalue), COUNT(m), AVG(m.myvalue) "
+            + "FROM Measurement m JOIN m.energyData e "
+            + "WHERE e.meterId = :meterId AND m.type IS NOT NULL AND m.timestamp BETWEEN :startTime AND :endTime "
+            + "GROUP BY m.type, m.timestamp ORDER BY m.timestamp")
+    List<Object[]> aggregateByMeterIdAndTimestamp(@Param("meterId") String meterId,
+                                                  @Param("startTime") LocalDateTime startTime,
+                                                  @Param("endTime") LocalDateTime endTime);
+}
@@ -0,0 +1,40 @@
+package ch.bzz.backend.repository;
+
+import ch.bzz.backend.model.EnergyData;
+import ch.bzz.backend.model.MeasurementRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Repository for MeasurementRollup entities
+ */
+@Repository
+public interface MeasurementRollupRepository extends JpaRepository<MeasurementRollup, Long> {
+
+    /**
+     * Find the rollups of a meter and resolution in a bucket range, all types
+     * @param meterId The meter ID to search for
+     * @param resolution The bucket size
+     * @param startTime The first bucket start
+     * @param endTime The last bucket start
+     * @return List of rollups for the specified meter, resolution, and bucket range
+     */
+    List<MeasurementRollup> findByMeterIdAndResolutionAndBucketStartBetween(
+            String meterId, MeasurementRollup.Resolution resolution, LocalDateTime startTime, LocalDateTime endTime);
+
+    /**
+     * Find the rollups of a meter, type, and resolution in a bucket range, ordered by bucket
+     * @param meterId The meter ID to search for
+     * @param type The type to search for (PRODUCTION or CONSUMPTION)
+     * @param resolution The bucket size
+     * @param startTime The first bucket start
+     * @param endTime The last bucket start
+     * @return List of rollups for the specified meter, type, resolution, and bucket range
+     */
+    List<MeasurementRollup> findByMeterIdAndTypeAndResolutionAndBucketStartBetweenOrderByBucketStart(
+            String meterId, EnergyData.DataType type, MeasurementRollup.Resolution resolution,
+            LocalDateTime startTime, LocalDateTime endTime);
+}
@@ -0,0 +1,234 @@
+package ch.bzz.backend.service;
+
+import ch.bzz.backend.model.AggregatedMeasurements;
+import ch.bzz.backend.model.EnergyData;
+import ch.bzz.backend.model.MeasurementRollup;
+import ch.bzz.backend.repository.MeasurementRepository;
+import ch.bzz.backend.repository.MeasurementRollupRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Service aggregating the measurements of a meter into time buckets
+ *
+ * Hourly, daily, and monthly buckets are read from the rollups, weekly buckets are merged from
+ * the daily rollups, and 15 minute buckets (the native resolution of the meters) are grouped by
+ * timestamp in the database. Raw measurements are never loaded into memory.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class AggregationService {
+
+    private final MeasurementRepository measurementRepository;
+    private final MeasurementRollupRepository measurementRollupRepository;
+
+    /**
+     * Size of the aggregation buckets
+     */
+    public enum Bucket {
+        QUARTER_HOUR("15m"),
+        HOUR("1h"),
+        DAY("1d"),
+        WEEK("1w"),
+        MONTH("1M");
+
+        private final String code;
+
+        Bucket(String code) {
+            this.code = code;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        /**
+         * @param code The code of the bucket, e.g. 1h
+         * @return The bucket with the code
+         * @throws IllegalArgumentException if there is no bucket with the code
+         */
+        public static Bucket fromCode(String code) {
+            for (Bucket bucket : values()) {
+                if (bucket.code.equals(code)) {
+                    return bucket;
+                }
+            }
+            throw new IllegalArgumentException("Unknown bucket: " + code);
+        }
+
+        /**
+         * @param timestamp A timestamp
+         * @return The start of the bucket containing the timestamp, weeks start on Monday
+         */
+        public LocalDateTime bucketStart(LocalDateTime timestamp) {
+            switch (this) {
+                case QUARTER_HOUR:
+                    LocalDateTime hour = timestamp.truncatedTo(ChronoUnit.HOURS);
+                    return hour.plusMinutes(timestamp.getMinute() / 15 * 15L);
+                case HOUR:
+                    return MeasurementRollup.Resolution.HOUR.bucketStart(timestamp);
+                case DAY:
+                    return MeasurementRollup.Resolution.DAY.bucketStart(timestamp);
+                case WEEK:
+                    return timestamp.truncatedTo(ChronoUnit.DAYS)
+                            .with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                default:
+                    return MeasurementRollup.Resolution.MONTH.bucketStart(timestamp);
+            }
+        }
+    }
+
+    /**
+     * Aggregate function applied to the values of a bucket
+     */
+    public enum Function {
+        SUM,
+        AVG,
+        MIN,
+        MAX,
+        FIRST,
+        LAST,
+        COUNT;
+
+        /**
+         * @param name The name of the function, case-insensitive
+         * @return The function with the name
+         * @throws IllegalArgumentException if there is no function with the name
+         */
+        public static Function fromName(String name) {
+            return valueOf(name.toUpperCase());
+        }
+
+        /**
+         * @param rollup The aggregate of a bucket
+         * @return The value of the function for the bucket
+         */
+        public double apply(MeasurementRollup rollup) {
+            switch (this) {
+                case SUM:
+                    return rollup.getSum();
+                case AVG:
+                    return rollup.getSum() / rollup.getCount();
+                case MIN:
+                    return rollup.getMin();
+                case MAX:
+                    return rollup.getMax();
+                case FIRST:
+                    return rollup.getFirstValue();
+                case LAST:
+                    return rollup.getLastValue();
+                default:
+                    return rollup.getCount();
+            }
+        }
+    }
+
+    /**
+     * Aggregate the production and consumption of a meter and compute the net value per bucket
+     * @param meterId The meter ID to aggregate
+     * @param startTime The start of the timestamp range, the bucket containing it is included
+     * @param endTime The end of the timestamp range, the bucket containing it is included
+     * @param bucket The bucket size
+     * @param function The aggregate function
+     * @return The production, consumption, and net series ordered by bucket start
+     */
+    @Transactional(readOnly = true)
+    public AggregatedMeasurements aggregate(String meterId, LocalDateTime startTime, LocalDateTime endTime,
+                                            Bucket bucket, Function function) {
+        Map<EnergyData.DataType, TreeMap<LocalDateTime, MeasurementRollup>> buckets = switch (bucket) {
+            case QUARTER_HOUR -> aggregateQuarterHours(meterId, startTime, endTime);
+            case HOUR -> readRollups(meterId, MeasurementRollup.Resolution.HOUR, startTime, endTime, bucket);
+            case DAY -> readRollups(meterId, MeasurementRollup.Resolution.DAY, startTime, endTime, bucket);
+            case WEEK -> readRollups(meterId, MeasurementRollup.Resolution.DAY,
+                    bucket.bucketStart(startTime), bucket.bucketStart(endTime).plusDays(6), bucket);
+            case MONTH -> readRollups(meterId, MeasurementRollup.Resolution.MONTH, startTime, endTime, bucket);
+        };
+
+        AggregatedMeasurements result = AggregatedMeasurements.builder()
+                .meterId(meterId)
+                .bucket(bucket.getCode())
+                .function(function.name().toLowerCase())
+                .build();
+
+        TreeMap<LocalDateTime, MeasurementRollup> production = buckets.get(EnergyData.DataType.PRODUCTION);
+        TreeMap<LocalDateTime, MeasurementRollup> consumption = buckets.get(EnergyData.DataType.CONSUMPTION);
+        production.forEach((start, rollup) ->
+                result.getProduction().add(new AggregatedMeasurements.Value(start, function.apply(rollup))));
+        consumption.forEach((start, rollup) ->
+                result.getConsumption().add(new AggregatedMeasurements.Value(start, function.apply(rollup))));
+        production.forEach((start, rollup) -> {
+            MeasurementRollup consumed = consumption.get(start);
+            if (consumed != null) {
+                result.getNet().add(new AggregatedMeasurements.Value(
+                        start, function.apply(rollup) - function.apply(consumed)));
+            }
+        });
+
+        log.info("Aggregated meter {} into {} production and {} consumption buckets of {}",
+                meterId, production.size(), consumption.size(), bucket.getCode());
+        return result;
+    }
+
+    /**
+     * Read the rollups of both types with one query and merge them into the requested buckets
+     */
+    private Map<EnergyData.DataType, TreeMap<LocalDateTime, MeasurementRollup>> readRollups(
+            String meterId, MeasurementRollup.Resolution resolution, LocalDateTime startTime, LocalDateTime endTime,
+            Bucket bucket) {
+        Map<EnergyData.DataType, TreeMap<LocalDateTime, MeasurementRollup>> buckets = createBuckets();
+        for (MeasurementRollup rollup : measurementRollupRepository.findByMeterIdAndResolutionAndBucketStartBetween(
+                meterId, resolution, resolution.bucketStart(startTime), resolution.bucketStart(endTime))) {
+            if (rollup.getType() == null) {
+                continue;
+            }
+            buckets.get(rollup.getType())
+                    .computeIfAbsent(bucket.bucketStart(rollup.getBucketStart()), start -> new MeasurementRollup())
+                    .merge(rollup);
+        }
+        return buckets;
+    }
+
+    /**
+     * Group the raw measurements by type and timestamp in the database
+     * Values with the same timestamp are combined, first and last are their average
+     */
+    private Map<EnergyData.DataType, TreeMap<LocalDateTime, MeasurementRollup>> aggregateQuarterHours(
+            String meterId, LocalDateTime startTime, LocalDateTime endTime) {
+        Map<EnergyData.DataType, TreeMap<LocalDateTime, MeasurementRollup>> buckets = createBuckets();
+        for (Object[] row : measurementRepository.aggregateByMeterIdAndTimestamp(
+                meterId, Bucket.QUARTER_HOUR.bucketStart(startTime), endTime)) {
+            LocalDateTime timestamp = (LocalDateTime) row[1];
+            double average = ((Number) row[6]).doubleValue();
+            MeasurementRollup rollup = MeasurementRollup.builder()
+                    .sum(((Number) row[2]).doubleValue())
+                    .min(((Number) row[3]).doubleValue())
+                    .max(((Number) row[4]).doubleValue())
+                    .count(((Number) row[5]).longValue())
+                    .firstTimestamp(timestamp)
+                    .firstValue(average)
+                    .lastTimestamp(timestamp)
+                    .lastValue(average)
+                    .build();
+            buckets.get((EnergyData.DataType) row[0])
+                    .computeIfAbsent(Bucket.QUARTER_HOUR.bucketStart(timestamp), start -> new MeasurementRollup())
+                    .merge(rollup);
+        }
+        return buckets;
+    }
+
+    private Map<EnergyData.DataType, TreeMap<LocalDateTime, MeasurementRollup>> createBuckets() {
+        return Map.of(EnergyData.DataType.PRODUCTION, new TreeMap<>(),
+                EnergyData.DataType.CONSUMPTION, new TreeMap<>());
+    }
+}
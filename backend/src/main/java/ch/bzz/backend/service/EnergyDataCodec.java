@@ -0,0 +1,156 @@
+package ch.bzz.backend.service;
+
+import ch.bzz.backend.model.EnergyData;
+import ch.bzz.backend.model.Measurement;
+import ch.bzz.backend.util.SeriesTimestamps;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+
+/**
+ * Binary encoding of energy data, shared by the segment store and the ingestion log
+ *
+ * Layout of an entry, all numbers big-endian: long id, long timestamp, int measurement count, and
+ * per measurement: long id, byte type (ordinal + 1, 0 for none), long timestamp, double value,
+ * string identifier, string unit. The meter ID is not part of an entry. Timestamps are encoded
+ * with SeriesTimestamps, Long.MIN_VALUE stands for null. Strings are a short byte length (-1 for
+ * null) and UTF-8 bytes.
+ */
+final class EnergyDataCodec {
+
+    private static final long NULL = Long.MIN_VALUE;
+    private static final EnergyData.DataType[] TYPES = EnergyData.DataType.values();
+
+    private EnergyDataCodec() {
+    }
+
+    /**
+     * Run a writer on a buffer, growing the buffer until everything the writer puts fits
+     * @param buffer The buffer to write to
+     * @param writer Puts data into the buffer, it is run again from the same position after growing
+     * @return The buffer, or a larger copy of it
+     */
+    static ByteBuffer put(ByteBuffer buffer, Consumer<ByteBuffer> writer) {
+        while (true) {
+            int start = buffer.position();
+            try {
+                writer.accept(buffer);
+                return buffer;
+            } catch (BufferOverflowException e) {
+                // Grow the buffer and write again
+                buffer.position(start);
+                buffer.flip();
+                buffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, 1024)).put(buffer);
+            }
+        }
+    }
+
+    /**
+     * @param buffer The buffer to write to, a BufferOverflowException is thrown if it is too small
+     * @param energyData The energy data to write, without its meter ID
+     */
+    static void writeEnergyData(ByteBuffer buffer, EnergyData energyData) {
+        buffer.putLong(energyData.getId() == null ? NULL : energyData.getId());
+        buffer.putLong(encode(energyData.getTimestamp()));
+        buffer.putInt(energyData.getMeasurements().size());
+        for (Measurement measurement : energyData.getMeasurements()) {
+            buffer.putLong(measurement.getId() == null ? NULL : measurement.getId());
+            buffer.put(measurement.getType() == null ? 0 : (byte) (measurement.getType().ordinal() + 1));
+            buffer.putLong(encode(measurement.getTimestamp()));
+            buffer.putDouble(measurement.getMyvalue());
+            writeString(buffer, measurement.getIdentifier());
+            writeString(buffer, measurement.getUnit());
+        }
+    }
+
+    /**
+     * @param buffer The buffer positioned at an entry, a BufferUnderflowException is thrown if it is incomplete
+     * @param meterId The meter ID of the entry
+     * @return The decoded energy data
+     * @throws IllegalArgumentException If the entry has an unknown measurement type or a negative count
+     */
+    static EnergyData readEnergyData(ByteBuffer buffer, String meterId) {
+        EnergyData energyData = EnergyData.builder()
+                .id(readId(buffer))
+                .meterId(meterId)
+                .timestamp(decode(buffer.getLong()))
+                .build();
+        int measurementCount = buffer.getInt();
+        if (measurementCount < 0) {
+            throw new IllegalArgumentException("Negative measurement count " + measurementCount);
+        }
+        for (int i = 0; i < measurementCount; i++) {
+            Long id = readId(buffer);
+            byte type = buffer.get();
+            if (type < 0 || type > TYPES.length) {
+                throw new IllegalArgumentException("Unknown measurement type " + type);
+            }
+            LocalDateTime timestamp = decode(buffer.getLong());
+            double value = buffer.getDouble();
+            energyData.addMeasurement(Measurement.builder()
+                    .id(id)
+                    .type(type == 0 ? null : TYPES[type - 1])
+                    .timestamp(timestamp)
+                    .myvalue(value)
+                    .identifier(readString(buffer))
+                    .unit(readString(buffer))
+                    .build());
+        }
+        return energyData;
+    }
+
+    /**
+     * @param buffer The buffer to write to
+     * @param value The string, may be null
+     * @throws IllegalArgumentException If the string is longer than Short.MAX_VALUE bytes
+     */
+    static void writeString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("String too long to encode: " + bytes.length + " bytes");
+        }
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    /**
+     * @param buffer The buffer positioned at a string
+     * @return The string, may be null
+     */
+    static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param timestamp A timestamp, may be null
+     * @return The encoded timestamp, Long.MIN_VALUE for null
+     */
+    static long encode(LocalDateTime timestamp) {
+        return timestamp == null ? NULL : SeriesTimestamps.encode(timestamp);
+    }
+
+    /**
+     * @param timestamp An encoded timestamp
+     * @return The timestamp, null for Long.MIN_VALUE
+     */
+    static LocalDateTime decode(long timestamp) {
+        return timestamp == NULL ? null : SeriesTimestamps.decode(timestamp);
+    }
+
+    private static Long readId(ByteBuffer buffer) {
+        long id = buffer.getLong();
+        return id == NULL ? null : id;
+    }
+}
@@ -0,0 +1,506 @@
+package ch.bzz.backend.service;
+
+import ch.bzz.backend.model.EnergyData;
+import ch.bzz.backend.util.SeriesTimestamps;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary store of energy data, partitioned by meter and month
+ *
+ * Every meter has a directory with one segment file per month (e.g. 2024-01.seg) and a manifest
+ * with the first and last timestamp of every segment (see SegmentManifest). A lookup by meter only
+ * opens the directory of the meter, a lookup by time range only the segments whose range overlaps.
+ * The manifest is written before the segments, so its ranges always include the records; if it is
+ * missing it is rebuilt from the segments.
+ *
+ * A segment starts with a header (magic, version, meter ID) followed by one record per energy
+ * data entry. Records are only appended, a later record with the same timestamp replaces an
+ * earlier one when the segment is read. Segments are read through a memory-mapped FileChannel and
+ * decoded directly from the mapped buffer, records outside the requested range are skipped by
+ * their timestamp without being decoded. Records with a wrong checksum are skipped as well.
+ *
+ * A crash while appending can only cut off the end of a segment. An incomplete header is read as
+ * an empty segment, an incomplete last record is ignored; both are truncated before the next
+ * append. A corrupt record before the end is never truncated, appending to its segment fails.
+ *
+ * Record layout, all numbers big-endian: int length of the energy data, int CRC32 of the energy
+ * data, followed by the energy data encoded by EnergyDataCodec. The segment header holds the
+ * meter ID. Segments of version 1 have no checksums, they are still read and are rewritten in the
+ * current version before the first append.
+ */
+@Slf4j
+public final class EnergyDataSegmentStore {
+
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String MANIFEST_FILE = "manifest.idx";
+
+    private static final int MAGIC = 0x45534547; // "ESEG"
+    private static final int VERSION = 2;
+    private static final int VERSION_WITHOUT_CHECKSUMS = 1;
+
+    private final Path directory;
+
+    /**
+     * Segments checked for an incomplete header or last record since the store was created
+     */
+    private final Set<Path> checkedSegments = new HashSet<>();
+
+    /**
+     * Manifests of the meters by meter ID, loaded on first use
+     */
+    private final Map<String, SegmentManifest> manifests = new ConcurrentHashMap<>();
+
+    /**
+     * The header of a segment
+     */
+    private record SegmentHeader(int version, String meterId) {
+    }
+
+    /**
+     * @param directory The directory of the meter directories, created if it does not exist
+     * @throws IOException If the directory cannot be created or a segment of the earlier layout
+     *                     (one segment per meter) cannot be moved to monthly segments
+     */
+    public EnergyDataSegmentStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        migrateMeterSegments();
+    }
+
+    /**
+     * Append energy data to the monthly segments of their meters, with one write per segment
+     * Energy data without meter ID or timestamp cannot be assigned to a segment and is skipped
+     * @param energyDataList The energy data to append
+     * @throws IOException If a segment or manifest cannot be written
+     */
+    public void append(Collection<EnergyData> energyDataList) throws IOException {
+        append(energyDataList, false);
+    }
+
+    /**
+     * Append energy data to the monthly segments of their meters, with one write per segment
+     * Energy data without meter ID or timestamp cannot be assigned to a segment and is skipped
+     * @param energyDataList The energy data to append
+     * @param fsync Whether the segments and manifests are forced to the storage device before returning
+     * @throws IOException If a segment or manifest cannot be written
+     */
+    public synchronized void append(Collection<EnergyData> energyDataList, boolean fsync) throws IOException {
+        Map<String, Map<YearMonth, List<EnergyData>>> byMeter = new LinkedHashMap<>();
+        for (EnergyData energyData : energyDataList) {
+            if (energyData.getMeterId() == null || energyData.getTimestamp() == null) {
+                log.warn("Skipping energy data without meter ID or timestamp: {} {}",
+                        energyData.getMeterId(), energyData.getTimestamp());
+                continue;
+            }
+            byMeter.computeIfAbsent(energyData.getMeterId(), meterId -> new TreeMap<>())
+                    .computeIfAbsent(YearMonth.from(energyData.getTimestamp()), month -> new ArrayList<>())
+                    .add(energyData);
+        }
+
+        for (Map.Entry<String, Map<YearMonth, List<EnergyData>>> entry : byMeter.entrySet()) {
+            String meterId = entry.getKey();
+            SegmentManifest manifest = manifest(meterId);
+            Path meterDirectory = meterDirectory(meterId);
+            boolean created = !Files.isDirectory(meterDirectory);
+            Files.createDirectories(meterDirectory);
+
+            // Widen the manifest before appending, so its ranges always include the records
+            Map<YearMonth, long[]> timestamps = new HashMap<>();
+            entry.getValue().forEach((month, partition) -> timestamps.put(month,
+                    partition.stream().mapToLong(energyData -> encode(energyData.getTimestamp())).toArray()));
+            SegmentManifest included = manifest.include(timestamps);
+            if (included != manifest) {
+                included.write(meterDirectory.resolve(MANIFEST_FILE), fsync);
+                manifests.put(meterId, included);
+            }
+
+            for (Map.Entry<YearMonth, List<EnergyData>> partition : entry.getValue().entrySet()) {
+                Path segment = meterDirectory.resolve(partition.getKey() + SEGMENT_SUFFIX);
+                created |= !Files.exists(segment);
+                appendToSegment(segment, meterId, partition.getValue(), fsync);
+            }
+
+            // New files and directories are only durable once their directory entries are
+            if (fsync && created) {
+                SegmentManifest.forceDirectory(meterDirectory);
+                SegmentManifest.forceDirectory(directory);
+            }
+        }
+    }
+
+    /**
+     * Read the energy data of a meter
+     * @param meterId The meter ID
+     * @return The energy data ordered by timestamp, the last appended entry of a timestamp wins
+     * @throws IOException If a segment cannot be read
+     */
+    public List<EnergyData> read(String meterId) throws IOException {
+        return read(meterId, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Read the energy data of a meter in a time range, only the segments overlapping the range are opened
+     * @param meterId The meter ID
+     * @param startTime The start of the timestamp range, inclusive
+     * @param endTime The end of the timestamp range, inclusive
+     * @return The energy data ordered by timestamp, the last appended entry of a timestamp wins
+     * @throws IOException If a segment cannot be read
+     */
+    public List<EnergyData> read(String meterId, LocalDateTime startTime, LocalDateTime endTime) throws IOException {
+        return read(meterId, SeriesTimestamps.encode(startTime), SeriesTimestamps.encode(endTime));
+    }
+
+    /**
+     * Read the energy data of all meters
+     * @return The energy data grouped by meter, ordered by timestamp within a meter
+     * @throws IOException If a segment cannot be read
+     */
+    public List<EnergyData> readAll() throws IOException {
+        List<EnergyData> result = new ArrayList<>();
+        for (String meterId : getMeterIds()) {
+            result.addAll(read(meterId));
+        }
+        return result;
+    }
+
+    /**
+     * @return The IDs of the meters with a directory
+     * @throws IOException If the directory cannot be listed
+     */
+    public List<String> getMeterIds() throws IOException {
+        List<String> meterIds = new ArrayList<>();
+        try (DirectoryStream<Path> meterDirectories = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path meterDirectory : meterDirectories) {
+                meterIds.add(URLDecoder.decode(meterDirectory.getFileName().toString(), StandardCharsets.UTF_8));
+            }
+        }
+        meterIds.sort(null);
+        return meterIds;
+    }
+
+    private List<EnergyData> read(String meterId, long startTimestamp, long endTimestamp) throws IOException {
+        List<EnergyData> result = new ArrayList<>();
+        Path meterDirectory = meterDirectory(meterId);
+        for (SegmentManifest.Partition partition : manifest(meterId).getPartitions(startTimestamp, endTimestamp)) {
+            Path segment = meterDirectory.resolve(partition.month() + SEGMENT_SUFFIX);
+            if (Files.exists(segment)) {
+                result.addAll(readSegment(segment, startTimestamp, endTimestamp));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The meter ID is URL encoded, dots and asterisks as well, so every ID is a valid directory name
+     */
+    private Path meterDirectory(String meterId) {
+        return directory.resolve(URLEncoder.encode(meterId, StandardCharsets.UTF_8)
+                .replace(".", "%2E")
+                .replace("*", "%2A"));
+    }
+
+    private SegmentManifest manifest(String meterId) throws IOException {
+        SegmentManifest manifest = manifests.get(meterId);
+        if (manifest != null) {
+            return manifest;
+        }
+        synchronized (this) {
+            manifest = manifests.get(meterId);
+            if (manifest == null) {
+                manifest = loadManifest(meterId);
+                if (manifest != SegmentManifest.EMPTY) {
+                    manifests.put(meterId, manifest);
+                }
+            }
+            return manifest;
+        }
+    }
+
+    private SegmentManifest loadManifest(String meterId) throws IOException {
+        Path meterDirectory = meterDirectory(meterId);
+        if (!Files.isDirectory(meterDirectory)) {
+            return SegmentManifest.EMPTY;
+        }
+        Path file = meterDirectory.resolve(MANIFEST_FILE);
+        if (Files.exists(file)) {
+            try {
+                return SegmentManifest.read(file);
+            } catch (IOException | DateTimeException e) {
+                log.warn("Rebuilding unreadable manifest {}", file, e);
+            }
+        }
+
+        // Rebuild the manifest from the timestamps in the segments
+        Map<YearMonth, long[]> timestamps = new HashMap<>();
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(meterDirectory, "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : segments) {
+                String fileName = segment.getFileName().toString();
+                try {
+                    YearMonth month = YearMonth.parse(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+                    timestamps.put(month, readSegment(segment, Long.MIN_VALUE, Long.MAX_VALUE).stream()
+                            .mapToLong(energyData -> encode(energyData.getTimestamp()))
+                            .toArray());
+                } catch (DateTimeParseException e) {
+                    log.warn("Ignoring segment {} without month", segment);
+                }
+            }
+        }
+        SegmentManifest manifest = SegmentManifest.EMPTY.include(timestamps);
+        manifest.write(file, false);
+        log.info("Rebuilt manifest {} with {} segments", file, manifest.getPartitions().size());
+        return manifest;
+    }
+
+    /**
+     * Move the segments of the earlier layout, one segment per meter in the store directory, to monthly segments
+     */
+    private void migrateMeterSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            files.forEach(segments::add);
+        }
+        for (Path segment : segments) {
+            List<EnergyData> energyDataList = readSegment(segment, Long.MIN_VALUE, Long.MAX_VALUE);
+            append(energyDataList);
+            Files.delete(segment);
+            log.info("Moved {} energy data entries of {} to monthly segments", energyDataList.size(), segment);
+        }
+    }
+
+    private void appendToSegment(Path segment, String meterId, List<EnergyData> energyDataList, boolean fsync)
+            throws IOException {
+        if (!checkedSegments.contains(segment)) {
+            checkSegment(segment, meterId);
+            checkedSegments.add(segment);
+        }
+        try (FileChannel channel = FileChannel.open(segment,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            if (channel.size() == 0) {
+                buffer = writeHeader(buffer, meterId);
+            }
+            channel.position(channel.size());
+            for (EnergyData energyData : energyDataList) {
+                buffer = writeRecord(buffer, energyData);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+        }
+        log.debug("Appended {} energy data entries to {}", energyDataList.size(), segment);
+    }
+
+    /**
+     * Truncate what a crash left of the last append to a segment, and rewrite a segment without checksums
+     * @throws IOException If the segment is not an energy data segment or has a corrupt record before its end
+     */
+    private void checkSegment(Path segment, String meterId) throws IOException {
+        if (!Files.exists(segment)) {
+            return;
+        }
+        int version;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            SegmentHeader header = readHeader(buffer, segment);
+            if (header == null) {
+                log.warn("Truncating incomplete header of {}", segment);
+                channel.truncate(0);
+                return;
+            }
+            version = header.version();
+            if (version == VERSION) {
+                long end = findEndOfRecords(buffer, segment);
+                if (end < channel.size()) {
+                    log.warn("Truncating incomplete record at position {} of {}", end, segment);
+                    channel.truncate(end);
+                }
+                return;
+            }
+        }
+
+        // Rewrite the records of a segment without checksums, the last entry of a timestamp is enough
+        List<EnergyData> energyDataList = readSegment(segment, Long.MIN_VALUE, Long.MAX_VALUE);
+        ByteBuffer buffer = writeHeader(ByteBuffer.allocate(64 * 1024), meterId);
+        for (EnergyData energyData : energyDataList) {
+            buffer = writeRecord(buffer, energyData);
+        }
+        buffer.flip();
+        Path temporary = segment.resolveSibling(segment.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(temporary, segment, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Rewrote segment {} of version {} with {} energy data entries", segment, version, energyDataList.size());
+    }
+
+    /**
+     * @param buffer The segment positioned after its header
+     * @return The position after the last complete record
+     * @throws IOException If a record before the last one is corrupt
+     */
+    private long findEndOfRecords(ByteBuffer buffer, Path segment) throws IOException {
+        while (buffer.hasRemaining()) {
+            int position = buffer.position();
+            if (buffer.remaining() < 2 * Integer.BYTES) {
+                return position;
+            }
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length > buffer.remaining()) {
+                return position;
+            }
+            if (length < 2 * Long.BYTES) {
+                if (isZeroFilled(buffer.position(position))) {
+                    // The file was extended, but the data of the append did not reach the storage device
+                    return position;
+                }
+                throw new IOException("Corrupt record at position " + position + " of " + segment);
+            }
+            ByteBuffer energyData = buffer.slice(buffer.position(), length);
+            buffer.position(buffer.position() + length);
+            if (checksum(energyData) != checksum) {
+                if (buffer.hasRemaining()) {
+                    throw new IOException("Corrupt record at position " + position + " of " + segment);
+                }
+                return position;
+            }
+        }
+        return buffer.position();
+    }
+
+    private List<EnergyData> readSegment(Path segment, long startTimestamp, long endTimestamp) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            SegmentHeader header = readHeader(buffer, segment);
+            if (header == null) {
+                log.warn("Ignoring segment {} with an incomplete header", segment);
+                return new ArrayList<>();
+            }
+            boolean checksums = header.version() != VERSION_WITHOUT_CHECKSUMS;
+            int recordHeaderBytes = checksums ? 2 * Integer.BYTES : Integer.BYTES;
+
+            TreeMap<Long, EnergyData> byTimestamp = new TreeMap<>();
+            while (buffer.remaining() >= recordHeaderBytes) {
+                int position = buffer.position();
+                int length = buffer.getInt();
+                int checksum = checksums ? buffer.getInt() : 0;
+                if (length < 2 * Long.BYTES || length > buffer.remaining()) {
+                    log.warn("Ignoring incomplete record at position {} of {}", position, segment);
+                    break;
+                }
+                ByteBuffer energyData = buffer.slice(buffer.position(), length);
+                buffer.position(buffer.position() + length);
+                long timestamp = energyData.getLong(Long.BYTES);
+                if (timestamp < startTimestamp || timestamp > endTimestamp) {
+                    continue;
+                }
+                if (checksums && checksum(energyData) != checksum) {
+                    log.warn("Ignoring corrupt record at position {} of {}", position, segment);
+                    continue;
+                }
+                try {
+                    byTimestamp.put(timestamp, EnergyDataCodec.readEnergyData(energyData, header.meterId()));
+                } catch (RuntimeException e) {
+                    log.warn("Ignoring corrupt record at position {} of {}", position, segment);
+                }
+            }
+            return new ArrayList<>(byTimestamp.values());
+        }
+    }
+
+    /**
+     * @param buffer The segment, positioned after the header on return
+     * @return The header, null if the segment is too short for a complete header
+     * @throws IOException If the segment is not an energy data segment of a supported version
+     */
+    private SegmentHeader readHeader(ByteBuffer buffer, Path segment) throws IOException {
+        if (buffer.remaining() < 2 * Integer.BYTES + Short.BYTES) {
+            return null;
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not an energy data segment: " + segment);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION && version != VERSION_WITHOUT_CHECKSUMS) {
+            throw new IOException("Unsupported segment version " + version + ": " + segment);
+        }
+        if (buffer.getShort(buffer.position()) > buffer.remaining() - Short.BYTES) {
+            return null;
+        }
+        return new SegmentHeader(version, EnergyDataCodec.readString(buffer));
+    }
+
+    private ByteBuffer writeHeader(ByteBuffer buffer, String meterId) {
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        EnergyDataCodec.writeString(buffer, meterId);
+        return buffer;
+    }
+
+    private ByteBuffer writeRecord(ByteBuffer buffer, EnergyData energyData) {
+        return EnergyDataCodec.put(buffer, target -> {
+            int start = target.position();
+            target.putInt(0); // length and checksum, set below
+            target.putInt(0);
+            EnergyDataCodec.writeEnergyData(target, energyData);
+            int length = target.position() - start - 2 * Integer.BYTES;
+            target.putInt(start, length);
+            target.putInt(start + Integer.BYTES, checksum(target.slice(start + 2 * Integer.BYTES, length)));
+        });
+    }
+
+    private static int checksum(ByteBuffer energyData) {
+        CRC32 crc = new CRC32();
+        crc.update(energyData.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static boolean isZeroFilled(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            if (buffer.get() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long encode(LocalDateTime timestamp) {
+        return EnergyDataCodec.encode(timestamp);
+    }
+}
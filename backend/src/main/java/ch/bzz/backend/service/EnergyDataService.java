@@ -2,19 +2,28 @@ package ch.bzz.backend.service;
 
 import ch.bzz.backend.model.EnergyData;
 import ch.bzz.backend.model.Measurement;
+import ch.bzz.backend.model.MeasurementPoint;
 import ch.bzz.backend.repository.EnergyDataRepository;
 import ch.bzz.backend.repository.MeasurementRepository;
+import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Service for managing energy data in the database
@@ -24,57 +33,131 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class EnergyDataService {
 
+    /**
+     * Maximum number of timestamps per existence query (size of the IN list)
+     */
+    private static final int MAX_IN_PARAMETERS = 1000;
+
     private final EnergyDataRepository energyDataRepository;
     private final MeasurementRepository measurementRepository;
+    private final EntityManager entityManager;
+    private final RollupService rollupService;
+
+    /**
+     * Number of rows (energy data and measurements) written per JDBC batch,
+     * the persistence context is flushed and cleared after each batch
+     */
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:500}")
+    private int batchSize = 500;
 
     /**
      * Save energy data to the database
-     * Checks for duplicates based on meterId and timestamp
+     * Skips entries whose meterId and timestamp already exist in the database
+     * or earlier in the same list, and updates the measurement rollups
      * @param energyDataList List of energy data to save
      * @return The saved energy data list
      */
     @Transactional
     public List<EnergyData> saveEnergyData(List<EnergyData> energyDataList) {
-        List<EnergyData> uniqueEnergyDataList = new ArrayList<>();
-
+        // Group the incoming keys by meter, the first entry of a key wins
+        Map<String, Map<LocalDateTime, EnergyData>> byMeter = new LinkedHashMap<>();
+        int duplicates = 0;
         for (EnergyData energyData : energyDataList) {
-            // Check if energy data with same meterId and timestamp already exists
-            EnergyData existingData = energyDataRepository.findByMeterIdAndTimestamp(
-                    energyData.getMeterId(), energyData.getTimestamp());
+            Map<LocalDateTime, EnergyData> byTimestamp =
+                    byMeter.computeIfAbsent(energyData.getMeterId(), meterId -> new LinkedHashMap<>());
+            if (byTimestamp.putIfAbsent(energyData.getTimestamp(), energyData) != null) {
+                duplicates++;
+            }
+        }
+
+        // Remove the keys that already exist, one query per meter and chunk of timestamps
+        Set<EnergyData> existing = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Map.Entry<String, Map<LocalDateTime, EnergyData>> entry : byMeter.entrySet()) {
+            Map<LocalDateTime, EnergyData> byTimestamp = entry.getValue();
+            List<LocalDateTime> timestamps = new ArrayList<>(byTimestamp.keySet());
+
+            for (int from = 0; from < timestamps.size(); from += MAX_IN_PARAMETERS) {
+                List<LocalDateTime> chunk = timestamps.subList(from, Math.min(from + MAX_IN_PARAMETERS, timestamps.size()));
+                for (LocalDateTime timestamp : energyDataRepository.findExistingTimestamps(entry.getKey(), chunk)) {
+                    existing.add(byTimestamp.get(timestamp));
+                }
+            }
+        }
 
-            if (existingData == null) {
-                // No duplicate found, add to list to save
+        // Keep the input order
+        List<EnergyData> uniqueEnergyDataList = new ArrayList<>();
+        for (EnergyData energyData : energyDataList) {
+            EnergyData first = byMeter.get(energyData.getMeterId()).get(energyData.getTimestamp());
+            if (first == energyData && !existing.contains(energyData)) {
                 uniqueEnergyDataList.add(energyData);
-                log.info("Adding new energy data for meter {} at {}", 
-                        energyData.getMeterId(), energyData.getTimestamp());
+            }
+        }
+
+        duplicates += existing.size();
+        if (duplicates > 0) {
+            log.info("Skipping {} duplicate energy data entries", duplicates);
+        }
+        log.info("Adding {} new energy data entries", uniqueEnergyDataList.size());
+
+        List<EnergyData> saved = persistInBatches(uniqueEnergyDataList);
+        rollupService.addToRollups(saved);
+        return saved;
+    }
+
+    /**
+     * Persist new energy data with its measurements in JDBC batches
+     *
+     * The IDs come from pooled sequences, so Hibernate can collect the inserts and send them
+     * in batches of hibernate.jdbc.batch_size statements. The persistence context is flushed
+     * and cleared after each batch to keep the memory usage flat for large uploads.
+     * @param energyDataList List of new energy data to persist
+     * @return The persisted (detached) energy data list
+     */
+    private List<EnergyData> persistInBatches(List<EnergyData> energyDataList) {
+        int pendingRows = 0;
+        for (EnergyData energyData : energyDataList) {
+            if (energyData.getId() == null) {
+                entityManager.persist(energyData);
             } else {
-                log.info("Skipping duplicate energy data for meter {} at {}", 
-                        energyData.getMeterId(), energyData.getTimestamp());
+                entityManager.merge(energyData);
+            }
+            pendingRows += 1 + energyData.getMeasurements().size();
+
+            if (pendingRows >= batchSize) {
+                entityManager.flush();
+                entityManager.clear();
+                pendingRows = 0;
             }
         }
+        entityManager.flush();
+        entityManager.clear();
 
-        return energyDataRepository.saveAll(uniqueEnergyDataList);
+        log.info("Persisted {} energy data entries", energyDataList.size());
+        return energyDataList;
     }
 
     /**
      * Get all energy data from the database
+     * The measurements are loaded in the same query
      * @return List of all energy data
      */
     public List<EnergyData> getAllEnergyData() {
-        return energyDataRepository.findAll();
+        return energyDataRepository.findAllWithMeasurements();
     }
 
     /**
      * Get energy data by meter ID from the database
+     * The measurements are loaded in the same query
      * @param meterId The meter ID to search for
      * @return List of energy data for the specified meter
      */
     public List<EnergyData> getEnergyDataByMeterId(String meterId) {
-        return energyDataRepository.findByMeterId(meterId);
+        return energyDataRepository.findWithMeasurementsByMeterId(meterId);
     }
 
     /**
      * Get energy data by meter ID and timestamp range from the database
+     * The measurements are loaded in the same query
      * @param meterId The meter ID to search for
      * @param startTime The start of the timestamp range
      * @param endTime The end of the timestamp range
@@ -82,7 +165,30 @@ public class EnergyDataService {
      */
     public List<EnergyData> getEnergyDataByMeterIdAndTimestampRange(
             String meterId, LocalDateTime startTime, LocalDateTime endTime) {
-        return energyDataRepository.findByMeterIdAndTimestampBetween(meterId, startTime, endTime);
+        return energyDataRepository.findWithMeasurementsByMeterIdAndTimestampBetween(meterId, startTime, endTime);
+    }
+
+    /**
+     * Get all meter IDs from the database
+     * @return List of distinct meter IDs, in the order they were first saved
+     */
+    public List<String> getMeterIds() {
+        return energyDataRepository.findMeterIds();
+    }
+
+    /**
+     * Read measurements as flat points from the database, one row at a time
+     * Neither the entities nor the full result are held in memory
+     * @param meterId The meter ID to search for, null or empty for all meters
+     * @param action Called for every measurement point, ordered by meter
+     */
+    @Transactional(readOnly = true)
+    public void forEachMeasurementPoint(String meterId, Consumer<MeasurementPoint> action) {
+        try (Stream<MeasurementPoint> points = meterId != null && !meterId.isEmpty()
+                ? measurementRepository.streamPointsByMeterId(meterId)
+                : measurementRepository.streamAllPoints()) {
+            points.forEach(action);
+        }
     }
 
     /**
@@ -115,14 +221,23 @@ public class EnergyDataService {
      * @return Map of data types to lists of measurements
      */
     public Map<EnergyData.DataType, List<Measurement>> getAllMeasurementsByMeterIdGroupedByType(String meterId) {
-        List<EnergyData> energyDataList = energyDataRepository.findByMeterId(meterId);
+        return getAllMeasurementsByMeterIdGroupedByType(meterId, null);
+    }
 
+    /**
+     * Get all measurements grouped by type for a specific meter ID, downsampled for charts
+     * Every series (production, consumption, and net) is reduced to at most maxPoints
+     * measurements ordered by timestamp with LTTB downsampling
+     * @param meterId The meter ID to search for
+     * @param maxPoints The maximum number of measurements per series, null for all measurements
+     * @return Map of data types to lists of measurements
+     */
+    public Map<EnergyData.DataType, List<Measurement>> getAllMeasurementsByMeterIdGroupedByType(
+            String meterId, Integer maxPoints) {
         Map<EnergyData.DataType, List<Measurement>> result = new HashMap<>();
 
-        // Get all measurements for the meter ID
-        List<Measurement> allMeasurements = energyDataList.stream()
-                .flatMap(energyData -> energyData.getMeasurements().stream())
-                .collect(Collectors.toList());
+        // Get all measurements for the meter ID in a single query
+        List<Measurement> allMeasurements = measurementRepository.findByEnergyData_MeterId(meterId);
 
         // Group measurements by type
         Map<EnergyData.DataType, List<Measurement>> groupedByType = allMeasurements.stream()
@@ -138,39 +253,36 @@ public class EnergyDataService {
         if (groupedByType.containsKey(EnergyData.DataType.PRODUCTION) && 
             groupedByType.containsKey(EnergyData.DataType.CONSUMPTION)) {
 
-            // Create a map of timestamp to production measurement
-            Map<LocalDateTime, Measurement> productionByTimestamp = groupedByType.get(EnergyData.DataType.PRODUCTION)
-                    .stream()
-                    .collect(Collectors.toMap(Measurement::getTimestamp, m -> m, (m1, m2) -> m1));
-
-            // Create a map of timestamp to consumption measurement
-            Map<LocalDateTime, Measurement> consumptionByTimestamp = groupedByType.get(EnergyData.DataType.CONSUMPTION)
-                    .stream()
-                    .collect(Collectors.toMap(Measurement::getTimestamp, m -> m, (m1, m2) -> m1));
-
-            // Calculate net values for timestamps that exist in both maps
-            List<Measurement> netMeasurements = productionByTimestamp.entrySet().stream()
-                    .filter(entry -> consumptionByTimestamp.containsKey(entry.getKey()))
-                    .map(entry -> {
-                        LocalDateTime timestamp = entry.getKey();
-                        Measurement production = entry.getValue();
-                        Measurement consumption = consumptionByTimestamp.get(timestamp);
-
-                        // Create a new measurement for the net value
-                        return Measurement.builder()
-                                .type(null) // No specific type for net values
-                                .identifier("NET")
-                                .myvalue(production.getMyvalue() - consumption.getMyvalue())
-                                .timestamp(timestamp)
-                                .unit(production.getUnit())
-                                .build();
-                    })
-                    .collect(Collectors.toList());
+            List<Measurement> productionMeasurements = groupedByType.get(EnergyData.DataType.PRODUCTION);
+
+            // Merge-join the series ordered by timestamp for timestamps that exist in both
+            TimeSeries net = SeriesAlgebra.subtract(
+                    TimeSeries.of(productionMeasurements, Measurement::getTimestamp, Measurement::getMyvalue),
+                    TimeSeries.of(groupedByType.get(EnergyData.DataType.CONSUMPTION),
+                            Measurement::getTimestamp, Measurement::getMyvalue));
+
+            // Create a new measurement for every net value
+            String unit = productionMeasurements.get(0).getUnit();
+            List<Measurement> netMeasurements = new ArrayList<>(net.size());
+            for (int i = 0; i < net.size(); i++) {
+                netMeasurements.add(Measurement.builder()
+                        .type(null) // No specific type for net values
+                        .identifier("NET")
+                        .myvalue(net.valueAt(i))
+                        .timestamp(net.timestampAt(i))
+                        .unit(unit)
+                        .build());
+            }
 
             // Add net measurements to the result
             result.put(null, netMeasurements); // Using null as the key for net values
         }
 
+        if (maxPoints != null) {
+            result.replaceAll((type, measurements) ->
+                    LttbDownsampler.downsample(measurements, maxPoints, Measurement::getTimestamp, Measurement::getMyvalue));
+        }
+
         return result;
     }
 }
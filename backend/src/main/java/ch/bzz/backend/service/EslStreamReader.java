@@ -0,0 +1,170 @@
+package ch.bzz.backend.service;
+
+import ch.bzz.backend.model.ESLBillingData;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Streaming (StAX) reader for ESL format XML files (ESLBillingData)
+ *
+ * The document is read in a single forward pass. Every ValueRow is reported to a
+ * {@link Handler} as soon as it has been read and is not kept by the reader, so
+ * memory use does not grow with the number of meters or time periods in the file.
+ *
+ * ESL format structure:
+ * - Root element: ESLBillingData
+ * - Contains Meter elements with factoryNo attribute
+ * - Each Meter contains TimePeriod elements with end attribute
+ * - Each TimePeriod contains ValueRow elements with obis, value, valueTimeStamp and status attributes
+ */
+@Slf4j
+public class EslStreamReader {
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ISO_DATE_TIME;
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    /**
+     * Callback interface receiving the content of an ESL document while it is read
+     */
+    public interface Handler {
+
+        /**
+         * Called when a TimePeriod with a valid end time starts
+         * @param meterId The factoryNo of the meter the time period belongs to
+         * @param end The end of the time period
+         */
+        default void startTimePeriod(String meterId, LocalDateTime end) {
+        }
+
+        /**
+         * Called for every ValueRow with a valid value
+         * @param meterId The factoryNo of the meter the value belongs to
+         * @param timestamp The valueTimeStamp of the row if present, otherwise the end of the time period
+         * @param row The value row
+         */
+        void valueRow(String meterId, LocalDateTime timestamp, ESLBillingData.ValueRow row);
+
+        /**
+         * Called after the last ValueRow of a TimePeriod with a valid end time has been read
+         * @param meterId The factoryNo of the meter the time period belongs to
+         * @param end The end of the time period
+         */
+        default void endTimePeriod(String meterId, LocalDateTime end) {
+        }
+    }
+
+    /**
+     * Read an ESL document and report its value rows to the given handler
+     *
+     * Time periods with an invalid end time and value rows with an invalid value
+     * or valueTimeStamp are skipped with a warning.
+     *
+     * @param inputStream The input stream containing the XML data
+     * @param handler The handler receiving the time periods and value rows
+     * @throws XMLStreamException If the document is not well-formed XML
+     */
+    public void read(InputStream inputStream, Handler handler) throws XMLStreamException {
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(inputStream);
+        try {
+            read(reader, handler);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void read(XMLStreamReader reader, Handler handler) throws XMLStreamException {
+        String meterId = null;
+        LocalDateTime periodEnd = null;
+        int rowCount = 0;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+
+                if (name.equals("Meter")) {
+                    meterId = getAttribute(reader, "factoryNo");
+                    log.debug("Processing meter with ID: {}", meterId);
+                } else if (name.equals("TimePeriod") && meterId != null) {
+                    String endTimeStr = getAttribute(reader, "end");
+                    try {
+                        periodEnd = LocalDateTime.parse(endTimeStr, DATE_TIME_FORMATTER);
+                        handler.startTimePeriod(meterId, periodEnd);
+                    } catch (DateTimeParseException e) {
+                        log.warn("Error processing time period with end time {}", endTimeStr, e);
+                        periodEnd = null;
+                    }
+                } else if (name.equals("ValueRow") && periodEnd != null) {
+                    ESLBillingData.ValueRow row = readValueRow(reader);
+                    if (row != null) {
+                        LocalDateTime timestamp = row.getValueTimeStamp() != null ? row.getValueTimeStamp() : periodEnd;
+                        handler.valueRow(meterId, timestamp, row);
+                        rowCount++;
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                String name = reader.getLocalName();
+
+                if (name.equals("TimePeriod")) {
+                    if (periodEnd != null) {
+                        handler.endTimePeriod(meterId, periodEnd);
+                    }
+                    periodEnd = null;
+                } else if (name.equals("Meter")) {
+                    meterId = null;
+                }
+            }
+        }
+
+        log.debug("Read {} value rows from ESL document", rowCount);
+    }
+
+    private ESLBillingData.ValueRow readValueRow(XMLStreamReader reader) {
+        String obis = getAttribute(reader, "obis");
+        String valueStr = getAttribute(reader, "value");
+
+        ESLBillingData.ValueRow row = new ESLBillingData.ValueRow();
+        row.setObis(obis);
+        row.setStatus(reader.getAttributeValue(null, "status"));
+
+        try {
+            row.setValue(Double.parseDouble(valueStr));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value format for OBIS {}: {}", obis, valueStr, e);
+            return null;
+        }
+
+        String valueTimeStr = reader.getAttributeValue(null, "valueTimeStamp");
+        if (valueTimeStr != null) {
+            try {
+                row.setValueTimeStamp(LocalDateTime.parse(valueTimeStr, DATE_TIME_FORMATTER));
+            } catch (DateTimeParseException e) {
+                log.warn("Error processing value row with OBIS {}", obis, e);
+                return null;
+            }
+        }
+
+        return row;
+    }
+
+    private String getAttribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        return value != null ? value : "";
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
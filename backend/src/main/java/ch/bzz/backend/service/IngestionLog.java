@@ -0,0 +1,401 @@
+package ch.bzz.backend.service;
+
+import ch.bzz.backend.model.EnergyData;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, checksummed log of batches of parsed energy data
+ *
+ * Every batch is one record. Records are only appended and written with a single write, so after
+ * a crash the log ends with at most one incomplete record. The log is read back sequentially, the
+ * checksums are verified and the records decoded in parallel, and the batches are handed to the
+ * consumer in log order. An incomplete or corrupt last record is what a crash left of the last
+ * append, it is truncated before the next append. A corrupt record before the end fails the read,
+ * so the records after it are never truncated. An append that fails (e.g. on a full disk) truncates
+ * what it wrote, so the records of later appends never follow a torn one.
+ *
+ * With fsync, appends are group committed: an append returns once its record was forced to the
+ * storage device, but concurrent appends wait for one force that covers all their records, so the
+ * number of forces does not grow with the number of concurrent uploads. If a force fails, the
+ * records after the last forced one are truncated and all appends waiting for them fail.
+ *
+ * File layout, all numbers big-endian: int magic, int version, then per record: int payload
+ * length, int CRC32 of the payload, and the payload: int entry count and per entry the meter ID
+ * (a string as in EnergyDataCodec) and the energy data encoded by EnergyDataCodec.
+ *
+ * Instances are not thread-safe, except append, which may be called concurrently.
+ */
+@Slf4j
+public final class IngestionLog implements AutoCloseable {
+
+    private static final int MAGIC = 0x45574C47; // "EWLG"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+
+    private final Path file;
+    private final boolean fsync;
+    private final ChannelOpener channelOpener;
+    private FileChannel channel;
+    private IOException failure;
+    /**
+     * Number of failed forces, an append fails if a force failed after it wrote its record
+     */
+    private long forceFailures;
+
+    /**
+     * Held while forcing, appends waiting for it are covered by the running force
+     */
+    private final Object forceLock = new Object();
+    /**
+     * Position up to which the log was forced, guarded by forceLock
+     */
+    private long forced;
+
+    /**
+     * A decoded record and its position, energy data null if the record is corrupt
+     */
+    private record DecodedRecord(List<EnergyData> energyData, long start, long end) {
+    }
+
+    /**
+     * Opens the channel of the log file, replaced in tests to inject write errors
+     */
+    @FunctionalInterface
+    interface ChannelOpener {
+        FileChannel open(Path file, OpenOption... options) throws IOException;
+    }
+
+    /**
+     * @param file The log file, created with its directory if it does not exist
+     * @param fsync Whether every append is forced to the storage device before it returns, concurrent
+     *              appends share one force
+     */
+    public IngestionLog(Path file, boolean fsync) {
+        this(file, fsync, FileChannel::open);
+    }
+
+    IngestionLog(Path file, boolean fsync, ChannelOpener channelOpener) {
+        this.file = file;
+        this.fsync = fsync;
+        this.channelOpener = channelOpener;
+    }
+
+    /**
+     * Read the log and open it for appending, must be called once before append
+     * @param executor Decodes the records, in parallel if it has several threads
+     * @param batchSize The minimum number of energy data entries handed to the consumer at once
+     *                  (except for the last batch), consecutive records are combined
+     * @param consumer Receives the energy data in log order, null to only check the log
+     * @return The number of energy data entries read
+     * @throws IOException If the log cannot be read or opened, or has a corrupt record before its end
+     */
+    public long open(Executor executor, int batchSize, Consumer<List<EnergyData>> consumer) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        if (!Files.exists(file) || Files.size(file) < HEADER_BYTES) {
+            // New log, or a crash while writing the header
+            channel = channelOpener.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            force();
+            forced = channel.position();
+            return 0;
+        }
+
+        long[] validEnd = {HEADER_BYTES};
+        long entries = read(executor, batchSize, consumer, validEnd);
+        channel = channelOpener.open(file, StandardOpenOption.WRITE);
+        if (channel.size() > validEnd[0]) {
+            log.warn("Truncating {} bytes after the last complete record of {}", channel.size() - validEnd[0], file);
+            channel.truncate(validEnd[0]);
+            force();
+        }
+        channel.position(validEnd[0]);
+        forced = validEnd[0];
+        return entries;
+    }
+
+    /**
+     * Append a batch of energy data as one record
+     * @param energyDataList The energy data, with meter IDs
+     * @throws IOException If the record cannot be written, what was written of it is truncated
+     * @throws IllegalStateException If the log is not open
+     */
+    public void append(List<EnergyData> energyDataList) throws IOException {
+        // Encode outside the lock, concurrent appends only wait for each other's writes
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        buffer.position(RECORD_HEADER_BYTES);
+        buffer.putInt(energyDataList.size());
+        for (EnergyData energyData : energyDataList) {
+            buffer = EnergyDataCodec.put(buffer, target -> {
+                EnergyDataCodec.writeString(target, energyData.getMeterId());
+                EnergyDataCodec.writeEnergyData(target, energyData);
+            });
+        }
+        int length = buffer.position() - RECORD_HEADER_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), RECORD_HEADER_BYTES, length);
+        buffer.putInt(0, length);
+        buffer.putInt(Integer.BYTES, (int) crc.getValue());
+        buffer.flip();
+
+        long end;
+        long forceFailuresBefore;
+        synchronized (this) {
+            if (channel == null) {
+                throw new IllegalStateException("Ingestion log " + file + " is not open");
+            }
+            if (failure != null) {
+                throw new IOException("Ingestion log " + file + " could not be truncated after a failed append,"
+                        + " restart to recover", failure);
+            }
+            long start = channel.position();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                rollBack(start, e);
+                throw e;
+            }
+            end = channel.position();
+            forceFailuresBefore = forceFailures;
+        }
+        if (fsync) {
+            forceTo(end, forceFailuresBefore);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Read the records sequentially and decode them on the executor, a bounded number at a time
+     */
+    private long read(Executor executor, int batchSize, Consumer<List<EnergyData>> consumer, long[] validEnd)
+            throws IOException {
+        long fileSize = Files.size(file);
+        Deque<CompletableFuture<DecodedRecord>> decoding = new ArrayDeque<>();
+        List<EnergyData> batch = new ArrayList<>();
+        long entries = 0;
+        boolean corrupt = false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 20))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an ingestion log: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported ingestion log version " + version + ": " + file);
+            }
+
+            long position = HEADER_BYTES;
+            while (!corrupt && position + RECORD_HEADER_BYTES <= fileSize) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                long end = position + RECORD_HEADER_BYTES + length;
+                if (length >= 0 && end > fileSize) {
+                    log.warn("Incomplete record at position {} of {}", position, file);
+                    break;
+                }
+                if (length < Integer.BYTES) {
+                    if (!isZeroFilled(in)) {
+                        throw corruptRecord(position);
+                    }
+                    // The file was extended, but the data of the append did not reach the storage device
+                    log.warn("Incomplete record at position {} of {}", position, file);
+                    break;
+                }
+                byte[] payload = new byte[length];
+                try {
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    log.warn("Incomplete record at position {} of {}", position, file);
+                    break;
+                }
+                long start = position;
+                decoding.add(CompletableFuture.supplyAsync(() -> decode(payload, checksum, start, end), executor));
+                position = end;
+
+                // Hand the decoded records on in order, keeping a bounded number in memory
+                while (decoding.size() > 64 || (!decoding.isEmpty() && decoding.peek().isDone())) {
+                    DecodedRecord record = decoding.poll().join();
+                    if (record.energyData() == null) {
+                        corrupt = checkLastRecord(record, fileSize);
+                        break;
+                    }
+                    validEnd[0] = record.end();
+                    entries += record.energyData().size();
+                    batch = handOn(batch, record.energyData(), batchSize, consumer);
+                }
+            }
+        }
+
+        while (!corrupt && !decoding.isEmpty()) {
+            DecodedRecord record = decoding.poll().join();
+            if (record.energyData() == null) {
+                corrupt = checkLastRecord(record, fileSize);
+                break;
+            }
+            validEnd[0] = record.end();
+            entries += record.energyData().size();
+            batch = handOn(batch, record.energyData(), batchSize, consumer);
+        }
+        if (corrupt) {
+            log.warn("Corrupt last record at position {} of {}", validEnd[0], file);
+        }
+        if (consumer != null && !batch.isEmpty()) {
+            consumer.accept(batch);
+        }
+        log.info("Read {} energy data entries from {}", entries, file);
+        return entries;
+    }
+
+    private List<EnergyData> handOn(List<EnergyData> batch, List<EnergyData> energyData, int batchSize,
+                                    Consumer<List<EnergyData>> consumer) {
+        if (consumer == null) {
+            return batch;
+        }
+        batch.addAll(energyData);
+        if (batch.size() < batchSize) {
+            return batch;
+        }
+        consumer.accept(batch);
+        return new ArrayList<>();
+    }
+
+    /**
+     * A corrupt last record is what a crash left of the last append, a corrupt record before it is not
+     * @return true
+     * @throws IOException If the corrupt record is not the last one
+     */
+    private boolean checkLastRecord(DecodedRecord record, long fileSize) throws IOException {
+        if (record.end() < fileSize) {
+            throw corruptRecord(record.start());
+        }
+        return true;
+    }
+
+    private IOException corruptRecord(long position) {
+        return new IOException("Corrupt record at position " + position + " of ingestion log " + file
+                + ", the records after it are kept; repair or move the log to continue");
+    }
+
+    private static boolean isZeroFilled(DataInputStream in) throws IOException {
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private DecodedRecord decode(byte[] payload, int checksum, long start, long end) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum) {
+            return new DecodedRecord(null, start, end);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        try {
+            int count = buffer.getInt();
+            List<EnergyData> energyDataList = new ArrayList<>(Math.min(Math.max(count, 0), 1024));
+            for (int i = 0; i < count; i++) {
+                String meterId = EnergyDataCodec.readString(buffer);
+                energyDataList.add(EnergyDataCodec.readEnergyData(buffer, meterId));
+            }
+            return new DecodedRecord(energyDataList, start, end);
+        } catch (RuntimeException e) {
+            // A checksum collision, or a record written by a different version
+            return new DecodedRecord(null, start, end);
+        }
+    }
+
+    /**
+     * Group commit: force the log, unless a force that covers the record ending at end succeeded while
+     * waiting for the lock. A force covers all records written before it started.
+     * @throws IOException If the force fails, or a force failed and truncated the record in the meantime
+     */
+    private void forceTo(long end, long forceFailuresBefore) throws IOException {
+        synchronized (forceLock) {
+            if (forced >= end) {
+                return;
+            }
+            FileChannel forcing;
+            long target;
+            synchronized (this) {
+                if (forceFailures != forceFailuresBefore) {
+                    throw new IOException("Forcing ingestion log " + file + " failed, the record was truncated");
+                }
+                if (channel == null) {
+                    throw new IllegalStateException("Ingestion log " + file + " is not open");
+                }
+                forcing = channel;
+                target = channel.position();
+            }
+            try {
+                forcing.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    // The records after the last forced one belong to appends waiting for a force, they all fail
+                    forceFailures++;
+                    if (channel != null) {
+                        rollBack(forced, e);
+                    }
+                }
+                throw e;
+            }
+            forced = target;
+        }
+    }
+
+    /**
+     * Truncate what a failed append wrote, if that fails as well, further appends are rejected: the
+     * torn record stays the last one and is truncated when the log is opened again
+     */
+    private void rollBack(long position, IOException appendFailure) {
+        try {
+            channel.truncate(position);
+            channel.position(position);
+            log.warn("Append to {} failed, truncated the log to position {}", file, position);
+        } catch (IOException e) {
+            appendFailure.addSuppressed(e);
+            failure = appendFailure;
+            log.error("Append to {} failed and the log could not be truncated, rejecting further appends", file, e);
+        }
+    }
+
+    private void force() throws IOException {
+        if (fsync) {
+            channel.force(false);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ch.bzz.backend.service;
+
+import ch.bzz.backend.model.EnergyData;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Service for the ingestion log of uploaded energy data
+ *
+ * Every parsed upload is appended to an IngestionLog before it is saved to the database. The
+ * database is in memory, so on startup the log is replayed into it: the records are decoded in
+ * parallel on the ingest executor and saved in log order, in batches of
+ * energyscope.ingest.wal.replay-batch-size entries. Since saving keeps the first entry per meter
+ * and timestamp, the replay rebuilds the same data as the original uploads. A log with a corrupt
+ * record before its end fails the startup, instead of losing the uploads logged after it.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class IngestionLogService {
+
+    private final EnergyDataService energyDataService;
+    private final Executor ingestExecutor;
+
+    /**
+     * Whether parsed uploads are logged at all
+     */
+    @Value("${energyscope.ingest.wal.enabled:true}")
+    private boolean enabled = true;
+
+    /**
+     * The log file
+     */
+    @Value("${energyscope.ingest.wal.file:data/wal/ingest.log}")
+    private String file = "data/wal/ingest.log";
+
+    /**
+     * Whether the log is replayed into the database on startup
+     */
+    @Value("${energyscope.ingest.wal.replay:true}")
+    private boolean replay = true;
+
+    /**
+     * Whether every append is forced to the storage device before the upload is saved, concurrent
+     * appends share one force
+     */
+    @Value("${energyscope.ingest.wal.fsync:true}")
+    private boolean fsync = true;
+
+    /**
+     * Number of energy data entries saved to the database at once during the replay
+     */
+    @Value("${energyscope.ingest.wal.replay-batch-size:20000}")
+    private int replayBatchSize = 20000;
+
+    private IngestionLog ingestionLog;
+
+    /**
+     * Open the log and replay it into the database
+     */
+    @PostConstruct
+    public void open() {
+        if (!enabled) {
+            log.info("Ingestion log disabled");
+            return;
+        }
+        IngestionLog opened = new IngestionLog(Paths.get(file), fsync);
+        long startNanos = System.nanoTime();
+        try {
+            long entries = opened.open(ingestExecutor, replayBatchSize,
+                    replay ? energyDataService::saveEnergyData : null);
+            log.info("Opened ingestion log {} with {} energy data entries{} in {} ms", file, entries,
+                    replay ? " replayed" : "", (System.nanoTime() - startNanos) / 1_000_000);
+        } catch (IOException e) {
+            throw new IllegalStateException("Error opening ingestion log " + file, e);
+        }
+        ingestionLog = opened;
+    }
+
+    /**
+     * Append parsed energy data to the log, does nothing if the log is disabled
+     * @param energyDataList The parsed energy data
+     * @throws UncheckedIOException If the energy data cannot be logged
+     */
+    public void append(List<EnergyData> energyDataList) {
+        if (ingestionLog == null || energyDataList.isEmpty()) {
+            return;
+        }
+        try {
+            ingestionLog.append(energyDataList);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error appending to ingestion log " + file, e);
+        }
+    }
+
+    /**
+     * Close the log
+     */
+    @PreDestroy
+    public void close() {
+        if (ingestionLog != null) {
+            try {
+                ingestionLog.close();
+            } catch (IOException e) {
+                log.error("Error closing ingestion log {}", file, e);
+            }
+        }
+    }
+}
@@ -1,162 +1,292 @@
 package ch.bzz.backend.service;
 
 import ch.bzz.backend.model.EnergyData;
+import ch.bzz.backend.model.Measurement;
 import ch.bzz.backend.model.StromzaehlerDaten;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * Service for storing data locally in JSON files
+ * Service for storing data locally
+ *
+ * Energy data is appended to binary segment files partitioned by meter and month (see EnergyDataSegmentStore),
+ * StromzaehlerDaten is stored in JSON files. Energy data in the JSON files of earlier versions
+ * is migrated into the segments on startup.
+ *
+ * Saving only queues a copy of the data, a background thread writes the queued saves in batches
+ * (see WriteBehindQueue, configured with energyscope.storage.write-behind.*). Use flush to wait
+ * until the saves are durable.
  */
 @Service
 @Slf4j
 public class LocalStorageService {
 
-    private static final String STORAGE_DIR = "data";
-    private static final String ENERGY_DATA_DIR = STORAGE_DIR + "/energy-data";
-    private static final String STROMZAEHLER_DIR = STORAGE_DIR + "/stromzaehler";
     private static final ObjectMapper objectMapper = new ObjectMapper()
             .registerModule(new JavaTimeModule());
+    private static final long CLOSE_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * Maximum number of saves waiting to be written, further saves block until there is space
+     */
+    @Value("${energyscope.storage.write-behind.queue-capacity:1024}")
+    private int queueCapacity = 1024;
+
+    /**
+     * Maximum number of saves written in one batch
+     */
+    @Value("${energyscope.storage.write-behind.batch-size:64}")
+    private int batchSize = 64;
+
+    /**
+     * Time to wait for further saves to fill a batch, 0 writes as soon as a save is queued
+     */
+    @Value("${energyscope.storage.write-behind.linger-ms:0}")
+    private long lingerMillis = 0;
+
+    /**
+     * When written data is forced to the storage device, none or batch
+     */
+    @Value("${energyscope.storage.write-behind.fsync:batch}")
+    private String fsyncPolicy = "batch";
+
+    private final Path legacyEnergyDataDir;
+    private final Path stromzaehlerDir;
+    private final EnergyDataSegmentStore segmentStore;
+    private volatile WriteBehindQueue<PendingWrite> writeQueue;
+
+    /**
+     * A queued save, either energy data or the StromzaehlerDaten of a meter and its file
+     */
+    private record PendingWrite(List<EnergyData> energyData, Path stromzaehlerFile,
+                                StromzaehlerDaten stromzaehlerDaten) {
+    }
 
     /**
      * Initialize storage directories
      */
     public LocalStorageService() {
+        this(Paths.get("data"));
+    }
+
+    /**
+     * Initialize storage directories below a base directory and migrate JSON energy data
+     * The writer is not started, call startWriter before saving
+     * @param storageDir The base directory of the local storage
+     */
+    LocalStorageService(Path storageDir) {
+        this.legacyEnergyDataDir = storageDir.resolve("energy-data");
+        this.stromzaehlerDir = storageDir.resolve("stromzaehler");
+        try {
+            this.segmentStore = new EnergyDataSegmentStore(storageDir.resolve("segments"));
+        } catch (IOException e) {
+            throw new IllegalStateException("Error creating energy data segment directory", e);
+        }
         createDirectories();
+        migrateJsonEnergyData();
+    }
+
+    /**
+     * Start the background thread writing the queued saves
+     */
+    @PostConstruct
+    public void startWriter() {
+        WriteBehindQueue.FsyncPolicy policy = WriteBehindQueue.FsyncPolicy.fromName(fsyncPolicy);
+        writeQueue = new WriteBehindQueue<>("local-storage-writer", this::writeBatch,
+                queueCapacity, batchSize, lingerMillis, policy);
+        log.info("Started local storage writer with a queue capacity of {}, batches of {}, linger {} ms, fsync {}",
+                queueCapacity, batchSize, lingerMillis, policy);
     }
 
     /**
-     * Save energy data to local storage
+     * Write the queued saves and stop the background thread
+     */
+    @PreDestroy
+    public void stopWriter() {
+        if (writeQueue != null) {
+            writeQueue.close(CLOSE_TIMEOUT_MILLIS);
+        }
+    }
+
+    /**
+     * Queue energy data to be saved to local storage
+     * A copy is queued, so the energy data can be changed (e.g. saved to the database) right away
      * @param energyDataList List of energy data to save
-     * @return The saved energy data list
+     * @return The queued energy data list, use flush to wait until it is written
      */
     public List<EnergyData> saveEnergyData(List<EnergyData> energyDataList) {
-        createDirectories();
-        
-        List<EnergyData> savedList = new ArrayList<>();
+        List<EnergyData> copies = new ArrayList<>(energyDataList.size());
         for (EnergyData energyData : energyDataList) {
-            try {
-                // Generate a unique filename based on timestamp and meter ID
-                String filename = generateFilename(energyData.getMeterId(), energyData.getTimestamp());
-                Path filePath = Paths.get(ENERGY_DATA_DIR, filename + ".json");
-                
-                // Write the energy data to a JSON file
-                objectMapper.writeValue(filePath.toFile(), energyData);
-                
-                savedList.add(energyData);
-                log.info("Saved energy data to {}", filePath);
-            } catch (IOException e) {
-                log.error("Error saving energy data", e);
-            }
+            copies.add(copyOf(energyData));
         }
-        
-        return savedList;
+        writeQueue().submit(new PendingWrite(copies, null, null));
+        log.debug("Queued {} energy data entries", copies.size());
+        return new ArrayList<>(energyDataList);
     }
 
     /**
-     * Save StromzaehlerDaten to local storage
+     * Queue StromzaehlerDaten to be saved to local storage
+     * A copy is queued, so the StromzaehlerDaten can be changed right away
      * @param stromzaehlerDatenMap Map of meter IDs to StromzaehlerDaten
-     * @return The saved StromzaehlerDaten map
+     * @return The queued StromzaehlerDaten map, use flush to wait until it is written
      */
     public Map<String, StromzaehlerDaten> saveStromzaehlerDaten(Map<String, StromzaehlerDaten> stromzaehlerDatenMap) {
-        createDirectories();
-        
         Map<String, StromzaehlerDaten> savedMap = new HashMap<>();
         for (Map.Entry<String, StromzaehlerDaten> entry : stromzaehlerDatenMap.entrySet()) {
-            try {
-                String meterId = entry.getKey();
-                StromzaehlerDaten stromzaehlerDaten = entry.getValue();
-                
-                // Generate a unique filename based on meter ID and current timestamp
-                String filename = meterId + "_" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-                Path filePath = Paths.get(STROMZAEHLER_DIR, filename + ".json");
-                
-                // Write the StromzaehlerDaten to a JSON file
-                objectMapper.writeValue(filePath.toFile(), stromzaehlerDaten);
-                
-                savedMap.put(meterId, stromzaehlerDaten);
-                log.info("Saved StromzaehlerDaten to {}", filePath);
-            } catch (IOException e) {
-                log.error("Error saving StromzaehlerDaten", e);
-            }
+            String meterId = entry.getKey();
+            StromzaehlerDaten copy = new StromzaehlerDaten(entry.getValue().getMeterId());
+            copy.addAll(entry.getValue());
+
+            // Generate a unique filename based on meter ID and current timestamp
+            String filename = meterId + "_" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+            writeQueue().submit(new PendingWrite(null, stromzaehlerDir.resolve(filename + ".json"), copy));
+            savedMap.put(meterId, entry.getValue());
         }
-        
         return savedMap;
     }
 
+    /**
+     * Wait for the durability of the saves queued so far
+     * @return A future completing when all saves queued before are written, and forced to the storage
+     * device unless energyscope.storage.write-behind.fsync is none; exceptionally if a save failed
+     * since the previous flush
+     */
+    public CompletableFuture<Void> flush() {
+        return writeQueue().flush();
+    }
+
     /**
      * Get all energy data from local storage
-     * @return List of all energy data
+     * @return List of all energy data, grouped by meter and ordered by timestamp
      */
     public List<EnergyData> getAllEnergyData() {
-        List<EnergyData> energyDataList = new ArrayList<>();
-        
         try {
-            File dir = new File(ENERGY_DATA_DIR);
-            if (dir.exists() && dir.isDirectory()) {
-                File[] files = dir.listFiles((d, name) -> name.endsWith(".json"));
-                if (files != null) {
-                    for (File file : files) {
-                        try {
-                            EnergyData energyData = objectMapper.readValue(file, EnergyData.class);
-                            energyDataList.add(energyData);
-                        } catch (IOException e) {
-                            log.error("Error reading energy data from {}", file.getPath(), e);
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
+            return segmentStore.readAll();
+        } catch (IOException e) {
             log.error("Error getting all energy data", e);
+            return new ArrayList<>();
         }
-        
-        return energyDataList;
     }
 
     /**
      * Get energy data by meter ID from local storage
      * @param meterId The meter ID to search for
-     * @return List of energy data for the specified meter
+     * @return List of energy data for the specified meter, ordered by timestamp
      */
     public List<EnergyData> getEnergyDataByMeterId(String meterId) {
-        List<EnergyData> energyDataList = new ArrayList<>();
-        
         try {
-            File dir = new File(ENERGY_DATA_DIR);
-            if (dir.exists() && dir.isDirectory()) {
-                File[] files = dir.listFiles((d, name) -> name.endsWith(".json") && name.contains(meterId));
-                if (files != null) {
-                    for (File file : files) {
-                        try {
-                            EnergyData energyData = objectMapper.readValue(file, EnergyData.class);
-                            if (energyData.getMeterId().equals(meterId)) {
-                                energyDataList.add(energyData);
-                            }
-                        } catch (IOException e) {
-                            log.error("Error reading energy data from {}", file.getPath(), e);
-                        }
-                    }
+            return segmentStore.read(meterId);
+        } catch (IOException e) {
+            log.error("Error getting energy data by meter ID", e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Get energy data by meter ID and time range from local storage
+     * Only the monthly segments of the meter overlapping the range are read
+     * @param meterId The meter ID to search for
+     * @param startTime The start of the timestamp range, inclusive
+     * @param endTime The end of the timestamp range, inclusive
+     * @return List of energy data for the specified meter and range, ordered by timestamp
+     */
+    public List<EnergyData> getEnergyDataByMeterIdAndTimeRange(String meterId, LocalDateTime startTime,
+                                                               LocalDateTime endTime) {
+        try {
+            return segmentStore.read(meterId, startTime, endTime);
+        } catch (IOException e) {
+            log.error("Error getting energy data by meter ID and time range", e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Write a batch of queued saves, all energy data with a single append
+     */
+    private void writeBatch(List<PendingWrite> batch, boolean fsync) throws IOException {
+        List<EnergyData> energyDataList = new ArrayList<>();
+        List<PendingWrite> stromzaehlerWrites = new ArrayList<>();
+        for (PendingWrite write : batch) {
+            if (write.energyData() != null) {
+                energyDataList.addAll(write.energyData());
+            } else {
+                stromzaehlerWrites.add(write);
+            }
+        }
+
+        if (!energyDataList.isEmpty()) {
+            segmentStore.append(energyDataList, fsync);
+            log.info("Saved {} energy data entries", energyDataList.size());
+        }
+        if (stromzaehlerWrites.isEmpty()) {
+            return;
+        }
+        createDirectories();
+        for (PendingWrite write : stromzaehlerWrites) {
+            // Write the StromzaehlerDaten to a JSON file
+            ByteBuffer json = ByteBuffer.wrap(objectMapper.writeValueAsBytes(write.stromzaehlerDaten()));
+            try (FileChannel channel = FileChannel.open(write.stromzaehlerFile(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (json.hasRemaining()) {
+                    channel.write(json);
+                }
+                if (fsync) {
+                    channel.force(true);
                 }
             }
-        } catch (Exception e) {
-            log.error("Error getting energy data by meter ID", e);
+            log.info("Saved StromzaehlerDaten to {}", write.stromzaehlerFile());
+        }
+        if (fsync) {
+            SegmentManifest.forceDirectory(stromzaehlerDir);
         }
-        
-        return energyDataList;
+    }
+
+    private WriteBehindQueue<PendingWrite> writeQueue() {
+        WriteBehindQueue<PendingWrite> queue = writeQueue;
+        if (queue == null) {
+            throw new IllegalStateException("Local storage writer not started");
+        }
+        return queue;
+    }
+
+    private EnergyData copyOf(EnergyData energyData) {
+        EnergyData copy = EnergyData.builder()
+                .id(energyData.getId())
+                .meterId(energyData.getMeterId())
+                .timestamp(energyData.getTimestamp())
+                .build();
+        for (Measurement measurement : energyData.getMeasurements()) {
+            copy.addMeasurement(Measurement.builder()
+                    .id(measurement.getId())
+                    .type(measurement.getType())
+                    .identifier(measurement.getIdentifier())
+                    .myvalue(measurement.getMyvalue())
+                    .timestamp(measurement.getTimestamp())
+                    .unit(measurement.getUnit())
+                    .build());
+        }
+        return copy;
     }
 
     /**
@@ -164,20 +294,52 @@ public class LocalStorageService {
      */
     private void createDirectories() {
         try {
-            Files.createDirectories(Paths.get(ENERGY_DATA_DIR));
-            Files.createDirectories(Paths.get(STROMZAEHLER_DIR));
+            Files.createDirectories(stromzaehlerDir);
         } catch (IOException e) {
             log.error("Error creating storage directories", e);
         }
     }
 
     /**
-     * Generate a unique filename based on meter ID and timestamp
-     * @param meterId The meter ID
-     * @param timestamp The timestamp
-     * @return A unique filename
+     * Append the energy data of the JSON files of earlier versions to the segments
+     * The JSON directory is renamed afterwards, so the migration runs only once
      */
-    private String generateFilename(String meterId, LocalDateTime timestamp) {
-        return meterId + "_" + timestamp.format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+    private void migrateJsonEnergyData() {
+        if (!Files.isDirectory(legacyEnergyDataDir)) {
+            return;
+        }
+
+        List<EnergyData> energyDataList = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(legacyEnergyDataDir, "*.json")) {
+            for (Path file : files) {
+                try {
+                    energyDataList.add(objectMapper.readValue(file.toFile(), EnergyData.class));
+                } catch (IOException e) {
+                    log.error("Error reading energy data from {}", file, e);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error listing JSON energy data in {}", legacyEnergyDataDir, e);
+            return;
+        }
+
+        // Append in meter and timestamp order. Earlier versions wrote entries without a meter ID as
+        // null_<timestamp>.json, they are sorted first and skipped by the segment store
+        energyDataList.sort(Comparator
+                .comparing(EnergyData::getMeterId, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(EnergyData::getTimestamp, Comparator.nullsFirst(Comparator.naturalOrder())));
+        try {
+            segmentStore.append(energyDataList);
+            Path migrated = legacyEnergyDataDir.resolveSibling(legacyEnergyDataDir.getFileName() + ".migrated");
+            if (Files.exists(migrated)) {
+                migrated = legacyEnergyDataDir.resolveSibling(legacyEnergyDataDir.getFileName() + ".migrated-"
+                        + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss")));
+            }
+            Files.move(legacyEnergyDataDir, migrated);
+            log.info("Migrated {} JSON energy data entries to segments, moved JSON files to {}",
+                    energyDataList.size(), migrated);
+        } catch (IOException e) {
+            log.error("Error migrating JSON energy data from {}", legacyEnergyDataDir, e);
+        }
     }
-}
\ No newline at end of file
+}
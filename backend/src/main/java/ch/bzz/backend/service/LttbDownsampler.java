@@ -0,0 +1,101 @@
+package ch.bzz.backend.service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Largest-Triangle-Three-Buckets downsampling of time series for charts
+ *
+ * The first and the last point are always kept. The points in between are split into
+ * maxPoints - 2 buckets and from every bucket the point forming the largest triangle with the
+ * previously selected point and the average of the next bucket is kept. Peaks and the visual
+ * shape of the series survive, while the number of points is reduced to maxPoints.
+ */
+public final class LttbDownsampler {
+
+    /**
+     * Smallest number of points a series can be reduced to (first, one bucket, last)
+     */
+    public static final int MIN_POINTS = 3;
+
+    private LttbDownsampler() {
+    }
+
+    /**
+     * Downsample a time series, the points are ordered by timestamp first
+     * @param points The points of the series, in any order
+     * @param maxPoints The maximum number of points to keep, values below MIN_POINTS are raised to it
+     * @param timestamp Function returning the timestamp of a point
+     * @param value Function returning the value of a point
+     * @return The selected points ordered by timestamp, or the points ordered by timestamp if there
+     *         are no more than maxPoints
+     */
+    public static <T> List<T> downsample(List<T> points, int maxPoints,
+                                         Function<T, LocalDateTime> timestamp, ToDoubleFunction<T> value) {
+        List<T> sorted = new ArrayList<>(points);
+        sorted.sort(Comparator.comparing(timestamp));
+
+        int threshold = Math.max(maxPoints, MIN_POINTS);
+        int size = sorted.size();
+        if (size <= threshold) {
+            return sorted;
+        }
+
+        double[] x = new double[size];
+        double[] y = new double[size];
+        for (int i = 0; i < size; i++) {
+            T point = sorted.get(i);
+            x[i] = timestamp.apply(point).toEpochSecond(ZoneOffset.UTC);
+            y[i] = value.applyAsDouble(point);
+        }
+
+        List<T> sampled = new ArrayList<>(threshold);
+        sampled.add(sorted.get(0));
+
+        // Bucket size, the first and last point are not part of a bucket
+        double every = (double) (size - 2) / (threshold - 2);
+        int selected = 0;
+
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // Average of the next bucket (the last point for the last bucket)
+            int averageStart = (int) Math.floor((bucket + 1) * every) + 1;
+            int averageEnd = Math.min((int) Math.floor((bucket + 2) * every) + 1, size);
+            double averageX = 0;
+            double averageY = 0;
+            for (int i = averageStart; i < averageEnd; i++) {
+                averageX += x[i];
+                averageY += y[i];
+            }
+            int averageCount = averageEnd - averageStart;
+            averageX /= averageCount;
+            averageY /= averageCount;
+
+            // Point of the current bucket forming the largest triangle
+            int rangeStart = (int) Math.floor(bucket * every) + 1;
+            int rangeEnd = (int) Math.floor((bucket + 1) * every) + 1;
+            double selectedX = x[selected];
+            double selectedY = y[selected];
+            double maxArea = -1;
+            int next = rangeStart;
+            for (int i = rangeStart; i < rangeEnd; i++) {
+                double area = Math.abs((selectedX - averageX) * (y[i] - selectedY)
+                        - (selectedX - x[i]) * (averageY - selectedY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = i;
+                }
+            }
+
+            sampled.add(sorted.get(next));
+            selected = next;
+        }
+
+        sampled.add(sorted.get(size - 1));
+        return sampled;
+    }
+}
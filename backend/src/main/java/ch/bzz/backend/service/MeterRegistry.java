@@ -0,0 +1,162 @@
+package ch.bzz.backend.service;
+
+import ch.bzz.backend.model.EnergyData;
+import jakarta.annotation.PostConstruct;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the known meters and sensor IDs
+ *
+ * - Meters are the devices of ESL files (factoryNo), each meter is mapped to the sensor IDs
+ *   its consumption (Bezug) and production (Einspeisung) register values belong to
+ * - Sensor IDs are the series of the sensor data output, e.g. ID742 (consumption) and
+ *   ID735 (production) from the DocumentID of SDAT files, or the meter ID of an ESL meter
+ *
+ * The registry is populated from configuration at startup and from the uploaded documents.
+ * All lookups are O(1) and the registry can be read and written concurrently.
+ */
+@Component
+@Slf4j
+public class MeterRegistry {
+
+    /**
+     * Sensor ID used for consumption values of meters without an explicit mapping
+     */
+    @Getter
+    @Value("${energyscope.meters.default-consumption-sensor:ID742}")
+    private String defaultConsumptionSensor = "ID742";
+
+    /**
+     * Sensor ID used for production values of meters without an explicit mapping
+     */
+    @Getter
+    @Value("${energyscope.meters.default-production-sensor:ID735}")
+    private String defaultProductionSensor = "ID735";
+
+    /**
+     * Explicit meter mappings, comma separated entries of meterId:consumptionSensor:productionSensor
+     */
+    @Value("${energyscope.meters.mappings:}")
+    private String configuredMappings = "";
+
+    private final Map<String, Meter> meters = new ConcurrentHashMap<>();
+    private final Set<String> sensorIds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * A meter and the sensor IDs its register values are mapped to
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static class Meter {
+        private final String meterId;
+        private final String consumptionSensorId;
+        private final String productionSensorId;
+    }
+
+    /**
+     * Register the default sensors and the meters configured in energyscope.meters.mappings
+     */
+    @PostConstruct
+    public void registerConfiguredMappings() {
+        registerSensor(defaultConsumptionSensor);
+        registerSensor(defaultProductionSensor);
+
+        for (String mapping : configuredMappings.split(",")) {
+            if (mapping.isBlank()) {
+                continue;
+            }
+
+            String[] parts = mapping.trim().split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Invalid meter mapping: " + mapping
+                        + ". Expected meterId:consumptionSensor:productionSensor");
+            }
+            registerMeter(parts[0], parts[1], parts[2]);
+        }
+        log.info("Registered {} configured meter(s)", meters.size());
+    }
+
+    /**
+     * Register a meter with explicit sensor IDs, replacing an existing mapping
+     * @param meterId The meter ID (factoryNo)
+     * @param consumptionSensorId The sensor ID for consumption values
+     * @param productionSensorId The sensor ID for production values
+     * @return The registered meter
+     */
+    public Meter registerMeter(String meterId, String consumptionSensorId, String productionSensorId) {
+        Meter meter = new Meter(meterId, consumptionSensorId, productionSensorId);
+        meters.put(meterId, meter);
+        sensorIds.add(meterId);
+        log.debug("Registered meter {} (consumption: {}, production: {})", meterId, consumptionSensorId, productionSensorId);
+        return meter;
+    }
+
+    /**
+     * Get a meter, registering it with the default sensor IDs if it is not known yet
+     * @param meterId The meter ID (factoryNo)
+     * @return The registered meter
+     */
+    public Meter registerMeter(String meterId) {
+        Meter meter = meters.get(meterId);
+        if (meter != null) {
+            return meter;
+        }
+        return meters.computeIfAbsent(meterId, id -> {
+            sensorIds.add(id);
+            log.info("Registered new meter {}", id);
+            return new Meter(id, defaultConsumptionSensor, defaultProductionSensor);
+        });
+    }
+
+    /**
+     * Get a registered meter
+     * @param meterId The meter ID (factoryNo)
+     * @return The meter, or null if it is not registered
+     */
+    public Meter getMeter(String meterId) {
+        return meters.get(meterId);
+    }
+
+    /**
+     * Register a sensor ID, e.g. from the DocumentID of an SDAT file
+     * @param sensorId The sensor ID
+     */
+    public void registerSensor(String sensorId) {
+        if (sensorIds.add(sensorId)) {
+            log.info("Registered new sensor {}", sensorId);
+        }
+    }
+
+    /**
+     * @param sensorId The sensor ID
+     * @return true if the sensor ID is registered
+     */
+    public boolean isSensor(String sensorId) {
+        return sensorIds.contains(sensorId);
+    }
+
+    /**
+     * @return All registered sensor IDs (read-only view)
+     */
+    public Set<String> getSensorIds() {
+        return Collections.unmodifiableSet(sensorIds);
+    }
+
+    /**
+     * Get the default sensor ID for a data type
+     * @param type The data type
+     * @return The default production or consumption sensor ID
+     */
+    public String getDefaultSensor(EnergyData.DataType type) {
+        return type == EnergyData.DataType.PRODUCTION ? defaultProductionSensor : defaultConsumptionSensor;
+    }
+}
@@ -0,0 +1,98 @@
+package ch.bzz.backend.service;
+
+import ch.bzz.backend.util.SortedSeries;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Intermediate form of an uploaded XML file for the sensor data pipeline
+ *
+ * Every file is classified and parsed exactly once into this form:
+ * - ESL files are reduced to the absolute meter values per sensor ID
+ * - SDAT files are reduced to their metering data series, with the observations sorted by sequence
+ *
+ * The ESL baseline stage and the SDAT cumulative stage of
+ * {@link XmlParserServiceImpl#processFilesToSensorData} then only work on these objects.
+ */
+@Getter
+@RequiredArgsConstructor
+public class ParsedSensorFile {
+
+    /**
+     * The original file name of the upload, used for logging
+     */
+    private final String fileName;
+
+    private final XmlFormatDetector.XmlFormat format;
+
+    /**
+     * Absolute meter values per sensor ID (ESL files only)
+     */
+    private final Map<String, SortedSeries> eslValues;
+
+    /**
+     * Metering data series in document order (SDAT files only)
+     */
+    private final List<SdatSeries> sdatSeries;
+
+    /**
+     * Create the intermediate form of an ESL file
+     * @param fileName The original file name
+     * @param eslValues The absolute meter values per sensor ID
+     * @return The parsed file
+     */
+    public static ParsedSensorFile esl(String fileName, Map<String, SortedSeries> eslValues) {
+        return new ParsedSensorFile(fileName, XmlFormatDetector.XmlFormat.ESL, eslValues, Collections.emptyList());
+    }
+
+    /**
+     * Create the intermediate form of an SDAT file
+     * @param fileName The original file name
+     * @param sdatSeries The metering data series in document order
+     * @return The parsed file
+     */
+    public static ParsedSensorFile sdat(String fileName, List<SdatSeries> sdatSeries) {
+        return new ParsedSensorFile(fileName, XmlFormatDetector.XmlFormat.SDAT, Collections.emptyMap(), sdatSeries);
+    }
+
+    /**
+     * The observations of a single rsm:MeteringData element, assigned to a sensor ID
+     *
+     * Sequences are sorted ascending and unique, volumes[i] belongs to sequences[i].
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static class SdatSeries {
+        private final String sensorId;
+        private final LocalDateTime startTime;
+
+        /**
+         * Resolution in minutes
+         */
+        private final int resolution;
+
+        private final int[] sequences;
+        private final double[] volumes;
+
+        /**
+         * @return The number of observations in this series
+         */
+        public int size() {
+            return sequences.length;
+        }
+
+        /**
+         * Calculate the timestamp of an observation
+         * @param index The index of the observation within this series
+         * @return The start time plus (sequence - 1) * resolution minutes
+         */
+        public LocalDateTime getTimestamp(int index) {
+            return startTime.plusMinutes((sequences[index] - 1) * resolution);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package ch.bzz.backend.service;
+
+import ch.bzz.backend.model.EnergyData;
+import ch.bzz.backend.model.Measurement;
+import ch.bzz.backend.model.MeasurementRollup;
+import ch.bzz.backend.repository.MeasurementRollupRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Service maintaining the hourly, daily, and monthly rollups of the measurements
+ *
+ * The rollups are updated incrementally with every saved batch of energy data, in the
+ * transaction that saves the measurements. Concurrent uploads of the same meter share buckets, so
+ * the rollups are not read and written back: the increments are added by an UPDATE in the
+ * database, which locks the row until the transaction ends, and a missing rollup is inserted. If a
+ * concurrent upload inserted it in the meantime, the increment is added to that row instead.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class RollupService {
+
+    /**
+     * Add an increment to an existing rollup, the expressions see the values before the update
+     */
+    private static final String ADD_TO_ROLLUP = "UPDATE measurement_rollup SET "
+            + "value_sum = value_sum + :sum, "
+            + "value_min = LEAST(value_min, :min), "
+            + "value_max = GREATEST(value_max, :max), "
+            + "value_count = value_count + :count, "
+            + "first_value = CASE WHEN :firstTimestamp < first_timestamp THEN :firstValue ELSE first_value END, "
+            + "first_timestamp = LEAST(first_timestamp, :firstTimestamp), "
+            + "last_value = CASE WHEN :lastTimestamp >= last_timestamp THEN :lastValue ELSE last_value END, "
+            + "last_timestamp = GREATEST(last_timestamp, :lastTimestamp) "
+            + "WHERE meter_id = :meterId AND type = :type AND resolution = :resolution AND bucket_start = :bucketStart";
+
+    private static final String INSERT_ROLLUP = "INSERT INTO measurement_rollup (id, meter_id, type, resolution, "
+            + "bucket_start, value_sum, value_min, value_max, value_count, first_timestamp, first_value, "
+            + "last_timestamp, last_value) VALUES (NEXT VALUE FOR measurement_rollup_seq, :meterId, :type, "
+            + ":resolution, :bucketStart, :sum, :min, :max, :count, :firstTimestamp, :firstValue, "
+            + ":lastTimestamp, :lastValue)";
+
+    /**
+     * Every transaction updates the rollups in this order, so concurrent uploads cannot deadlock
+     */
+    private static final Comparator<BucketKey> BUCKET_ORDER = Comparator.comparing(BucketKey::meterId)
+            .thenComparing(BucketKey::type)
+            .thenComparing(BucketKey::resolution)
+            .thenComparing(BucketKey::bucketStart);
+
+    private final MeasurementRollupRepository measurementRollupRepository;
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Key of a rollup bucket
+     */
+    private record BucketKey(String meterId, EnergyData.DataType type, MeasurementRollup.Resolution resolution,
+                             LocalDateTime bucketStart) {
+    }
+
+    /**
+     * Add the measurements of newly saved energy data to the rollups
+     * Must be called in the transaction saving the energy data
+     * @param energyDataList List of newly saved energy data
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void addToRollups(List<EnergyData> energyDataList) {
+        // Aggregate the new measurements per bucket
+        Map<BucketKey, MeasurementRollup> increments = new TreeMap<>(BUCKET_ORDER);
+        for (EnergyData energyData : energyDataList) {
+            if (energyData.getMeterId() == null) {
+                continue;
+            }
+            for (Measurement measurement : energyData.getMeasurements()) {
+                if (measurement.getType() == null || measurement.getTimestamp() == null) {
+                    continue;
+                }
+                for (MeasurementRollup.Resolution resolution : MeasurementRollup.Resolution.values()) {
+                    BucketKey key = new BucketKey(energyData.getMeterId(), measurement.getType(), resolution,
+                            resolution.bucketStart(measurement.getTimestamp()));
+                    increments.computeIfAbsent(key, this::createRollup)
+                            .add(measurement.getTimestamp(), measurement.getMyvalue());
+                }
+            }
+        }
+        if (increments.isEmpty()) {
+            return;
+        }
+
+        // Add to the existing rollups in one batch, then insert the missing ones
+        SqlParameterSource[] parameters = increments.values().stream()
+                .map(this::parametersOf)
+                .toArray(SqlParameterSource[]::new);
+        int[] updated = jdbcTemplate.batchUpdate(ADD_TO_ROLLUP, parameters);
+        int created = 0;
+        for (int i = 0; i < parameters.length; i++) {
+            if (updated[i] == 0 && insertOrAdd(parameters[i])) {
+                created++;
+            }
+        }
+
+        log.info("Updated {} and created {} measurement rollups", increments.size() - created, created);
+    }
+
+    /**
+     * Get the rollups of a meter and type
+     * @param meterId The meter ID to search for
+     * @param type The type to search for (PRODUCTION or CONSUMPTION)
+     * @param resolution The bucket size
+     * @param startTime The start of the timestamp range, the bucket containing it is included
+     * @param endTime The end of the timestamp range, the bucket containing it is included
+     * @return List of rollups ordered by bucket start
+     */
+    public List<MeasurementRollup> getRollups(String meterId, EnergyData.DataType type,
+                                              MeasurementRollup.Resolution resolution,
+                                              LocalDateTime startTime, LocalDateTime endTime) {
+        return measurementRollupRepository.findByMeterIdAndTypeAndResolutionAndBucketStartBetweenOrderByBucketStart(
+                meterId, type, resolution, resolution.bucketStart(startTime), resolution.bucketStart(endTime));
+    }
+
+    private MeasurementRollup createRollup(BucketKey key) {
+        return MeasurementRollup.builder()
+                .meterId(key.meterId())
+                .type(key.type())
+                .resolution(key.resolution())
+                .bucketStart(key.bucketStart())
+                .build();
+    }
+
+    /**
+     * Insert a rollup, or add it to the rollup a concurrent upload inserted since the update
+     * A failed statement does not roll back the transaction, so the update can be retried in it
+     * @return true if the rollup was inserted
+     */
+    private boolean insertOrAdd(SqlParameterSource parameters) {
+        while (true) {
+            try {
+                jdbcTemplate.update(INSERT_ROLLUP, parameters);
+                return true;
+            } catch (DuplicateKeyException e) {
+                if (jdbcTemplate.update(ADD_TO_ROLLUP, parameters) > 0) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private SqlParameterSource parametersOf(MeasurementRollup rollup) {
+        return new MapSqlParameterSource()
+                .addValue("meterId", rollup.getMeterId())
+                .addValue("type", rollup.getType().name())
+                .addValue("resolution", rollup.getResolution().name())
+                .addValue("bucketStart", rollup.getBucketStart())
+                .addValue("sum", rollup.getSum())
+                .addValue("min", rollup.getMin())
+                .addValue("max", rollup.getMax())
+                .addValue("count", rollup.getCount())
+                .addValue("firstTimestamp", rollup.getFirstTimestamp())
+                .addValue("firstValue", rollup.getFirstValue())
+                .addValue("lastTimestamp", rollup.getLastTimestamp())
+                .addValue("lastValue", rollup.getLastValue());
+    }
+}
@@ -0,0 +1,261 @@
+package ch.bzz.backend.service;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Streaming (StAX) reader for SDAT format XML files (ValidatedMeteredData)
+ *
+ * The document is read in a single forward pass. Every rsm:MeteringData element
+ * and each of its rsm:Observation elements is reported to a {@link Handler} as soon
+ * as it has been read, so no document tree is built and memory use does not grow
+ * with the number of observations in the file.
+ *
+ * Elements are matched by their local name, the rsm namespace prefix is not required.
+ */
+@Slf4j
+public class SdatStreamReader {
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ISO_DATE_TIME;
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    /**
+     * Header information of a single rsm:MeteringData element
+     *
+     * Fields that are missing or invalid in the document are left null, it is up to
+     * the handler to decide whether the block can be used.
+     */
+    @Data
+    public static class MeteringBlock {
+        /**
+         * Index of the block within the document (starting at 0)
+         */
+        private int index;
+
+        /**
+         * The first rsm:DocumentID of the document (e.g. eslevu156407_BR2294_ID735), empty if there is none
+         */
+        private String documentId = "";
+
+        /**
+         * The rsm:VSENationalID of the production or consumption metering point
+         */
+        private String meteringPointId = "";
+
+        private boolean production;
+        private boolean consumption;
+        private LocalDateTime startTime;
+        private LocalDateTime endTime;
+        private String startTimeText;
+        private String endTimeText;
+
+        /**
+         * Resolution in minutes
+         */
+        private Integer resolution;
+
+        /**
+         * The rsm:MeasureUnit of the product (e.g. KWH)
+         */
+        private String unit;
+    }
+
+    /**
+     * Callback interface receiving the content of an SDAT document while it is read
+     */
+    public interface Handler {
+
+        /**
+         * Called once per metering data block, before its first observation
+         * @param block The header information of the block
+         */
+        void startBlock(MeteringBlock block);
+
+        /**
+         * Called for every observation with a valid sequence and volume
+         * @param block The block the observation belongs to
+         * @param sequence The position (sequence number) of the observation, starting at 1
+         * @param volume The measured volume
+         */
+        void observation(MeteringBlock block, int sequence, double volume);
+
+        /**
+         * Called after the last observation of a block has been read
+         * @param block The block that has been completed
+         */
+        default void endBlock(MeteringBlock block) {
+        }
+    }
+
+    /**
+     * Read an SDAT document and report its content to the given handler
+     * @param inputStream The input stream containing the XML data
+     * @param handler The handler receiving the metering data blocks and observations
+     * @throws XMLStreamException If the document is not well-formed XML
+     */
+    public void read(InputStream inputStream, Handler handler) throws XMLStreamException {
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(inputStream);
+        try {
+            read(reader, handler);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void read(XMLStreamReader reader, Handler handler) throws XMLStreamException {
+        String documentId = null;
+        int blockCount = 0;
+
+        MeteringBlock block = null;
+        boolean blockStarted = false;
+        boolean inInterval = false;
+        boolean inResolution = false;
+        boolean inMeteringPoint = false;
+        boolean inProduct = false;
+        boolean inObservation = false;
+        String sequenceText = null;
+        String volumeText = null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+
+                if (name.equals("DocumentID")) {
+                    String text = reader.getElementText();
+                    // Only the first DocumentID (the one in the header) identifies the meter
+                    if (documentId == null) {
+                        documentId = text;
+                        log.debug("Found DocumentID: {}", documentId);
+                    }
+                } else if (name.equals("MeteringData")) {
+                    block = new MeteringBlock();
+                    block.setIndex(blockCount++);
+                    block.setDocumentId(documentId != null ? documentId : "");
+                    blockStarted = false;
+                } else if (block == null) {
+                    continue;
+                } else if (name.equals("Interval")) {
+                    inInterval = true;
+                } else if (inInterval && name.equals("StartDateTime")) {
+                    block.setStartTimeText(reader.getElementText());
+                    block.setStartTime(parseDateTime(block.getStartTimeText()));
+                } else if (inInterval && name.equals("EndDateTime")) {
+                    block.setEndTimeText(reader.getElementText());
+                    block.setEndTime(parseDateTime(block.getEndTimeText()));
+                } else if (name.equals("Resolution")) {
+                    if (inResolution) {
+                        // Nested rsm:Resolution element holding the value
+                        block.setResolution(parseInteger(reader.getElementText(), "resolution"));
+                    } else {
+                        inResolution = true;
+                    }
+                } else if (name.equals("ProductionMeteringPoint")) {
+                    block.setProduction(true);
+                    inMeteringPoint = true;
+                } else if (name.equals("ConsumptionMeteringPoint")) {
+                    block.setConsumption(true);
+                    inMeteringPoint = true;
+                } else if (inMeteringPoint && name.equals("VSENationalID")) {
+                    block.setMeteringPointId(reader.getElementText());
+                } else if (name.equals("Product")) {
+                    inProduct = true;
+                } else if (inProduct && name.equals("MeasureUnit")) {
+                    block.setUnit(reader.getElementText());
+                } else if (name.equals("Observation")) {
+                    if (!blockStarted) {
+                        handler.startBlock(block);
+                        blockStarted = true;
+                    }
+                    inObservation = true;
+                    sequenceText = null;
+                    volumeText = null;
+                } else if (inObservation && name.equals("Sequence")) {
+                    sequenceText = reader.getElementText();
+                } else if (inObservation && name.equals("Volume")) {
+                    volumeText = reader.getElementText();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && block != null) {
+                String name = reader.getLocalName();
+
+                if (name.equals("Observation")) {
+                    inObservation = false;
+                    Integer sequence = parseInteger(sequenceText, "sequence");
+                    Double volume = parseDouble(volumeText);
+                    if (sequence != null && volume != null) {
+                        handler.observation(block, sequence, volume);
+                    }
+                } else if (name.equals("Interval")) {
+                    inInterval = false;
+                } else if (name.equals("Resolution")) {
+                    inResolution = false;
+                } else if (name.equals("ProductionMeteringPoint") || name.equals("ConsumptionMeteringPoint")) {
+                    inMeteringPoint = false;
+                } else if (name.equals("Product")) {
+                    inProduct = false;
+                } else if (name.equals("MeteringData")) {
+                    if (!blockStarted) {
+                        handler.startBlock(block);
+                    }
+                    handler.endBlock(block);
+                    block = null;
+                }
+            }
+        }
+
+        log.debug("Read {} metering data blocks from SDAT document", blockCount);
+    }
+
+    private LocalDateTime parseDateTime(String text) {
+        try {
+            return LocalDateTime.parse(text, DATE_TIME_FORMATTER);
+        } catch (DateTimeParseException e) {
+            log.warn("Invalid date time format: {}", text, e);
+            return null;
+        }
+    }
+
+    private Integer parseInteger(String text, String fieldName) {
+        if (text == null) {
+            log.warn("Missing {} in observation", fieldName);
+            return null;
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            log.warn("Invalid {} format: {}", fieldName, text, e);
+            return null;
+        }
+    }
+
+    private Double parseDouble(String text) {
+        if (text == null) {
+            log.warn("Missing volume in observation");
+            return null;
+        }
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            log.warn("Invalid volume format: {}", text, e);
+            return null;
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
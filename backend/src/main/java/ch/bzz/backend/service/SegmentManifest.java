@@ -0,0 +1,171 @@
+package ch.bzz.backend.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Time ranges of the monthly segments of a meter
+ *
+ * A manifest lists every monthly segment of a meter with the first and last timestamp of its
+ * records, so a lookup by time range opens only the segments it needs. Instances are immutable,
+ * adding a range returns a new manifest.
+ *
+ * File layout, all numbers big-endian: int magic, int version, int partition count, and per
+ * partition: int year, byte month, long first timestamp, long last timestamp. Timestamps are
+ * encoded with SeriesTimestamps.
+ */
+final class SegmentManifest {
+
+    private static final int MAGIC = 0x454D414E; // "EMAN"
+    private static final int VERSION = 1;
+    private static final int PARTITION_BYTES = Integer.BYTES + Byte.BYTES + 2 * Long.BYTES;
+
+    static final SegmentManifest EMPTY = new SegmentManifest(new TreeMap<>());
+
+    /**
+     * Time range of the records of a monthly segment
+     */
+    record Partition(YearMonth month, long firstTimestamp, long lastTimestamp) {
+
+        boolean overlaps(long startTimestamp, long endTimestamp) {
+            return firstTimestamp <= endTimestamp && lastTimestamp >= startTimestamp;
+        }
+    }
+
+    private final TreeMap<YearMonth, Partition> partitions;
+
+    private SegmentManifest(TreeMap<YearMonth, Partition> partitions) {
+        this.partitions = partitions;
+    }
+
+    /**
+     * @return All partitions ordered by month
+     */
+    List<Partition> getPartitions() {
+        return Collections.unmodifiableList(new ArrayList<>(partitions.values()));
+    }
+
+    /**
+     * @param startTimestamp The encoded start of the range, inclusive
+     * @param endTimestamp The encoded end of the range, inclusive
+     * @return The partitions with records in the range, ordered by month
+     */
+    List<Partition> getPartitions(long startTimestamp, long endTimestamp) {
+        List<Partition> result = new ArrayList<>();
+        for (Partition partition : partitions.values()) {
+            if (partition.overlaps(startTimestamp, endTimestamp)) {
+                result.add(partition);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param timestamps The encoded timestamps of new records, grouped by month
+     * @return A manifest whose ranges include the timestamps, or this manifest if they already do
+     */
+    SegmentManifest include(Map<YearMonth, long[]> timestamps) {
+        TreeMap<YearMonth, Partition> result = null;
+        for (Map.Entry<YearMonth, long[]> entry : timestamps.entrySet()) {
+            if (entry.getValue().length == 0) {
+                continue;
+            }
+            Partition partition = partitions.get(entry.getKey());
+            long first = partition == null ? Long.MAX_VALUE : partition.firstTimestamp();
+            long last = partition == null ? Long.MIN_VALUE : partition.lastTimestamp();
+            for (long timestamp : entry.getValue()) {
+                first = Math.min(first, timestamp);
+                last = Math.max(last, timestamp);
+            }
+            if (partition == null || first != partition.firstTimestamp() || last != partition.lastTimestamp()) {
+                if (result == null) {
+                    result = new TreeMap<>(partitions);
+                }
+                result.put(entry.getKey(), new Partition(entry.getKey(), first, last));
+            }
+        }
+        return result == null ? this : new SegmentManifest(result);
+    }
+
+    /**
+     * Read a manifest
+     * @param file The manifest file
+     * @return The manifest
+     * @throws IOException If the file cannot be read or is not a manifest
+     */
+    static SegmentManifest read(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buffer.remaining() < 3 * Integer.BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a segment manifest: " + file);
+        }
+        int count = buffer.getInt();
+        if (count < 0 || buffer.remaining() != count * PARTITION_BYTES) {
+            throw new IOException("Incomplete segment manifest: " + file);
+        }
+        TreeMap<YearMonth, Partition> partitions = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            YearMonth month = YearMonth.of(buffer.getInt(), buffer.get());
+            partitions.put(month, new Partition(month, buffer.getLong(), buffer.getLong()));
+        }
+        return new SegmentManifest(partitions);
+    }
+
+    /**
+     * Write the manifest to a temporary file and move it over the manifest file
+     * @param file The manifest file
+     * @param fsync Whether the manifest and the move are forced to the storage device before returning
+     * @throws IOException If the file cannot be written
+     */
+    void write(Path file, boolean fsync) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(3 * Integer.BYTES + partitions.size() * PARTITION_BYTES);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(partitions.size());
+        for (Partition partition : partitions.values()) {
+            buffer.putInt(partition.month().getYear());
+            buffer.put((byte) partition.month().getMonthValue());
+            buffer.putLong(partition.firstTimestamp());
+            buffer.putLong(partition.lastTimestamp());
+        }
+        buffer.flip();
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (fsync) {
+                channel.force(true);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (fsync) {
+            forceDirectory(file.getParent());
+        }
+    }
+
+    /**
+     * Force the entries of a directory (created and moved files) to the storage device
+     * Not every platform can open a directory, there this is left to the file system
+     * @param directory The directory
+     */
+    static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories cannot be opened on Windows
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package ch.bzz.backend.service;
+
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * Operations combining two time series
+ *
+ * Both series are ordered by timestamp, so they are merge-joined in a single linear pass without
+ * hashing or boxing. The only allocations are the arrays of the result.
+ */
+public final class SeriesAlgebra {
+
+    private SeriesAlgebra() {
+    }
+
+    /**
+     * Combine the values of the timestamps present in both series
+     * @param left The left series
+     * @param right The right series
+     * @param operator Function combining the left and the right value
+     * @return The combined series, ordered by timestamp
+     */
+    public static TimeSeries join(TimeSeries left, TimeSeries right, DoubleBinaryOperator operator) {
+        long[] leftTimestamps = left.timestamps();
+        long[] rightTimestamps = right.timestamps();
+        double[] leftValues = left.values();
+        double[] rightValues = right.values();
+        int leftSize = left.size();
+        int rightSize = right.size();
+
+        int capacity = Math.min(leftSize, rightSize);
+        if (capacity == 0) {
+            return TimeSeries.empty();
+        }
+        long[] timestamps = new long[capacity];
+        double[] values = new double[capacity];
+        int size = 0;
+
+        int i = 0;
+        int j = 0;
+        while (i < leftSize && j < rightSize) {
+            long leftTimestamp = leftTimestamps[i];
+            long rightTimestamp = rightTimestamps[j];
+            if (leftTimestamp < rightTimestamp) {
+                i++;
+            } else if (leftTimestamp > rightTimestamp) {
+                j++;
+            } else {
+                timestamps[size] = leftTimestamp;
+                values[size] = operator.applyAsDouble(leftValues[i], rightValues[j]);
+                size++;
+                i++;
+                j++;
+            }
+        }
+        return new TimeSeries(timestamps, values, size);
+    }
+
+    /**
+     * Subtract the values of the right series from the left series, e.g. production minus consumption
+     * @param left The series to subtract from
+     * @param right The series to subtract
+     * @return The differences for the timestamps present in both series, ordered by timestamp
+     */
+    public static TimeSeries subtract(TimeSeries left, TimeSeries right) {
+        return join(left, right, (leftValue, rightValue) -> leftValue - rightValue);
+    }
+}
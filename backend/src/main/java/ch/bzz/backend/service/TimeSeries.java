@@ -0,0 +1,123 @@
+package ch.bzz.backend.service;
+
+import ch.bzz.backend.util.SeriesTimestamps;
+import ch.bzz.backend.util.SortedSeries;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Time series of double values stored in primitive arrays, ordered by timestamp
+ *
+ * The timestamps are encoded with SeriesTimestamps. Every timestamp occurs at most once. The
+ * points are held by a SortedSeries that is never changed, so instances are immutable. They are
+ * combined with the SeriesAlgebra.
+ */
+public final class TimeSeries {
+
+    private static final TimeSeries EMPTY = new TimeSeries(new long[0], new double[0], 0);
+
+    private final SortedSeries points;
+
+    /**
+     * @param timestamps The encoded timestamps, strictly ascending in the first size elements
+     * @param values The values, parallel to the timestamps
+     * @param size The number of points
+     */
+    TimeSeries(long[] timestamps, double[] values, int size) {
+        this.points = new SortedSeries(timestamps, values, size);
+    }
+
+    /**
+     * @return The series without points
+     */
+    public static TimeSeries empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Create a series from points in any order
+     * If a timestamp occurs more than once, the first point with the timestamp is kept
+     * @param points The points of the series
+     * @param timestamp Function returning the timestamp of a point
+     * @param value Function returning the value of a point
+     * @return The series ordered by timestamp
+     */
+    public static <T> TimeSeries of(List<T> points, Function<T, LocalDateTime> timestamp, ToDoubleFunction<T> value) {
+        int count = points.size();
+        long[] encoded = new long[count];
+        double[] decoded = new double[count];
+        boolean sorted = true;
+        for (int i = 0; i < count; i++) {
+            T point = points.get(i);
+            encoded[i] = SeriesTimestamps.encode(timestamp.apply(point));
+            decoded[i] = value.applyAsDouble(point);
+            sorted = sorted && (i == 0 || encoded[i - 1] < encoded[i]);
+        }
+        if (sorted) {
+            return new TimeSeries(encoded, decoded, count);
+        }
+
+        // The sort is stable, so the first point of a timestamp comes first and the others are dropped
+        SeriesTimestamps.sort(encoded, decoded, count);
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (size > 0 && encoded[size - 1] == encoded[i]) {
+                continue;
+            }
+            encoded[size] = encoded[i];
+            decoded[size] = decoded[i];
+            size++;
+        }
+        return new TimeSeries(encoded, decoded, size);
+    }
+
+    /**
+     * @return The number of points
+     */
+    public int size() {
+        return points.size();
+    }
+
+    /**
+     * @param index The index of a point
+     * @return The timestamp of the point
+     */
+    public LocalDateTime timestampAt(int index) {
+        return points.timestampAt(index);
+    }
+
+    /**
+     * @param index The index of a point
+     * @return The encoded timestamp of the point
+     */
+    public long epochMilliAt(int index) {
+        return points.epochMilliAt(index);
+    }
+
+    /**
+     * @param index The index of a point
+     * @return The value of the point
+     */
+    public double valueAt(int index) {
+        return points.valueAt(index);
+    }
+
+    /**
+     * @param timestamp A timestamp
+     * @return The index of the point with the timestamp, or a negative value if there is none
+     */
+    public int indexOf(LocalDateTime timestamp) {
+        return points.indexOf(timestamp);
+    }
+
+    long[] timestamps() {
+        return points.timestamps();
+    }
+
+    double[] values() {
+        return points.values();
+    }
+}
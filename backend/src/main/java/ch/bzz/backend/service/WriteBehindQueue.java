@@ -0,0 +1,267 @@
+package ch.bzz.backend.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue of writes that a background thread performs in batches
+ *
+ * Submitting a write only blocks while the queue is full, so callers are slowed down by the disk
+ * only when it cannot keep up. The writer thread takes up to batchSize writes at once, waiting up
+ * to lingerMillis for further writes to fill the batch, and hands them to the BatchWriter in
+ * submission order. With FsyncPolicy.BATCH the writes of a batch are forced to the storage device
+ * before their futures complete, with FsyncPolicy.NONE they complete once the operating system
+ * has accepted them.
+ *
+ * @param <T> The type of the writes
+ */
+@Slf4j
+public final class WriteBehindQueue<T> {
+
+    /**
+     * When written data is forced to the storage device
+     */
+    public enum FsyncPolicy {
+        /**
+         * Never, the operating system writes the data back on its own schedule
+         */
+        NONE,
+        /**
+         * After every batch, before the futures of its writes complete
+         */
+        BATCH;
+
+        /**
+         * @param name The name of the policy, case-insensitive
+         * @return The policy with the name
+         * @throws IllegalArgumentException if there is no policy with the name
+         */
+        public static FsyncPolicy fromName(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * Performs a batch of writes
+     */
+    @FunctionalInterface
+    public interface BatchWriter<T> {
+        /**
+         * @param batch The writes in submission order
+         * @param fsync Whether the written data must be forced to the storage device before returning
+         * @throws IOException If the batch cannot be written
+         */
+        void write(List<T> batch, boolean fsync) throws IOException;
+    }
+
+    /**
+     * A submitted write, or a barrier (write null) completing when all earlier writes are done
+     */
+    private record Pending<T>(T write, CompletableFuture<Void> done) {
+    }
+
+    private final Pending<T> stop = new Pending<>(null, new CompletableFuture<>());
+
+    private final BlockingQueue<Pending<T>> queue;
+    private final BatchWriter<T> writer;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final FsyncPolicy fsyncPolicy;
+    private final Thread thread;
+    private volatile boolean closed;
+    /**
+     * The first write failure not yet reported to a flush, only used by the writer thread
+     */
+    private Exception unreportedFailure;
+
+    /**
+     * Create the queue and start its writer thread
+     * @param name The name of the writer thread
+     * @param writer Performs the batches
+     * @param capacity The maximum number of writes waiting to be written
+     * @param batchSize The maximum number of writes per batch
+     * @param lingerMillis The time to wait for further writes to fill a batch, 0 to write immediately
+     * @param fsyncPolicy When written data is forced to the storage device
+     */
+    public WriteBehindQueue(String name, BatchWriter<T> writer, int capacity, int batchSize, long lingerMillis,
+                            FsyncPolicy fsyncPolicy) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = writer;
+        this.batchSize = Math.max(batchSize, 1);
+        this.lingerMillis = lingerMillis;
+        this.fsyncPolicy = fsyncPolicy;
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Submit a write, blocks while the queue is full
+     * @param write The write
+     * @return A future completing when the write is done, exceptionally if its batch failed
+     * @throws IllegalStateException If the queue is closed
+     */
+    public CompletableFuture<Void> submit(T write) {
+        if (write == null) {
+            throw new IllegalArgumentException("write must not be null");
+        }
+        return enqueue(new Pending<>(write, new CompletableFuture<>()));
+    }
+
+    /**
+     * @return A future completing when all writes submitted before are done (and forced to the
+     * storage device with FsyncPolicy.BATCH), exceptionally with the first failure since the
+     * previous flush if a write failed
+     * @throws IllegalStateException If the queue is closed
+     */
+    public CompletableFuture<Void> flush() {
+        return enqueue(new Pending<>(null, new CompletableFuture<>()));
+    }
+
+    /**
+     * @return The number of writes and flushes waiting to be written
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * Write all submitted writes and stop the writer thread
+     * @param timeoutMillis The maximum time to wait for the writer thread
+     */
+    public void close(long timeoutMillis) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        putUninterruptibly(stop);
+        try {
+            stop.done().get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            log.warn("Writer thread {} did not finish within {} ms, {} writes pending",
+                    thread.getName(), timeoutMillis, queue.size());
+        }
+    }
+
+    private CompletableFuture<Void> enqueue(Pending<T> pending) {
+        if (closed) {
+            throw new IllegalStateException("Write-behind queue " + thread.getName() + " is closed");
+        }
+        putUninterruptibly(pending);
+        return pending.done();
+    }
+
+    private void putUninterruptibly(Pending<T> pending) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(pending);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Complete the writes of a batch with its failure, and its barriers with the first failure
+     * since the previous barrier, which may have happened in an earlier batch
+     */
+    private void complete(List<Pending<T>> batch, Exception failure) {
+        Exception reported = null;
+        for (Pending<T> pending : batch) {
+            if (pending == stop) {
+                pending.done().complete(null);
+            } else if (pending.write() != null) {
+                if (failure == null) {
+                    pending.done().complete(null);
+                } else {
+                    pending.done().completeExceptionally(failure);
+                    if (unreportedFailure == null) {
+                        unreportedFailure = failure;
+                    }
+                }
+            } else {
+                // A barrier, barriers of the same batch all report the failure
+                if (unreportedFailure != null) {
+                    reported = unreportedFailure;
+                    unreportedFailure = null;
+                }
+                if (reported == null) {
+                    pending.done().complete(null);
+                } else {
+                    pending.done().completeExceptionally(reported);
+                }
+            }
+        }
+    }
+
+    private void run() {
+        List<Pending<T>> batch = new ArrayList<>(batchSize);
+        List<T> writes = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                if (lingerMillis > 0) {
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+                    while (batch.size() < batchSize && batch.get(batch.size() - 1) != stop) {
+                        Pending<T> next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // The writer thread is only stopped by close, keep writing
+                continue;
+            }
+            if (batch.get(batch.size() - 1) != stop) {
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+
+            boolean stopped = false;
+            for (Pending<T> pending : batch) {
+                if (pending == stop) {
+                    stopped = true;
+                } else if (pending.write() != null) {
+                    writes.add(pending.write());
+                }
+            }
+            Exception failure = null;
+            if (!writes.isEmpty()) {
+                try {
+                    writer.write(writes, fsyncPolicy == FsyncPolicy.BATCH);
+                    log.debug("Wrote batch of {} writes", writes.size());
+                } catch (Exception e) {
+                    log.error("Error writing batch of {} writes", writes.size(), e);
+                    failure = e;
+                }
+            }
+            complete(batch, failure);
+            batch.clear();
+            writes.clear();
+            if (stopped) {
+                // Writes submitted while closing
+                for (Pending<T> pending : queue) {
+                    pending.done().completeExceptionally(
+                            new IllegalStateException("Write-behind queue " + thread.getName() + " is closed"));
+                }
+                queue.clear();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package ch.bzz.backend.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Detects the format of an XML file (ESL or SDAT) from the name of its root element
+ *
+ * Only the prolog and the root start tag are read. The stream is marked before and
+ * reset afterwards, so the same stream can be passed on to the parser of the detected
+ * format without reading the file twice.
+ */
+@Slf4j
+public class XmlFormatDetector {
+
+    /**
+     * Maximum number of bytes read to find the root start tag
+     */
+    public static final int MAX_HEADER_SIZE = 8 * 1024;
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    /**
+     * Supported XML formats
+     */
+    public enum XmlFormat {
+        /**
+         * ESL format (EdmRegisterWertExport_*.xml), root element ESLBillingData
+         */
+        ESL,
+
+        /**
+         * SDAT format (20*.xml), root element ValidatedMeteredData
+         */
+        SDAT,
+
+        UNKNOWN
+    }
+
+    /**
+     * Wrap an input stream so that it supports mark and reset, if it does not already
+     * @param inputStream The input stream to wrap
+     * @return An input stream supporting mark and reset
+     */
+    public static InputStream markable(InputStream inputStream) {
+        return inputStream.markSupported() ? inputStream : new BufferedInputStream(inputStream);
+    }
+
+    /**
+     * Read the local name of the root element without consuming the stream
+     *
+     * @param inputStream The input stream containing the XML data, must support mark and reset
+     * @return The local name of the root element, empty if the document has none
+     * @throws XMLStreamException If the prolog is not well-formed or the root start tag is not
+     *         within the first {@link #MAX_HEADER_SIZE} bytes
+     * @throws IOException If there is an error reading the input stream
+     */
+    public String readRootElementName(InputStream inputStream) throws XMLStreamException, IOException {
+        if (!inputStream.markSupported()) {
+            throw new IllegalArgumentException("Input stream must support mark and reset");
+        }
+
+        inputStream.mark(MAX_HEADER_SIZE);
+        byte[] header;
+        try {
+            header = inputStream.readNBytes(MAX_HEADER_SIZE);
+        } finally {
+            inputStream.reset();
+        }
+
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(header));
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    return reader.getLocalName();
+                }
+            }
+            return "";
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Determine the XML format from the name of the root element
+     * @param rootElement The local name of the root element
+     * @return The detected format, UNKNOWN if the root element is not supported
+     */
+    public XmlFormat detect(String rootElement) {
+        if (rootElement.equals("ESLBillingData")) {
+            return XmlFormat.ESL;
+        } else if (rootElement.contains("ValidatedMeteredData")) {
+            return XmlFormat.SDAT;
+        }
+        log.debug("Unsupported root element: {}", rootElement);
+        return XmlFormat.UNKNOWN;
+    }
+
+    /**
+     * Detect the format of an XML file without consuming the stream
+     * @param inputStream The input stream containing the XML data, must support mark and reset
+     * @return The detected format
+     * @throws XMLStreamException If the prolog is not well-formed
+     * @throws IOException If there is an error reading the input stream
+     */
+    public XmlFormat detect(InputStream inputStream) throws XMLStreamException, IOException {
+        return detect(readRootElementName(inputStream));
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
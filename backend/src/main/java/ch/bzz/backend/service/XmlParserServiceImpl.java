@@ -1,11 +1,15 @@
 package ch.bzz.backend.service;
 
+import ch.bzz.backend.model.ESLBillingData;
 import ch.bzz.backend.model.EnergyData;
 import ch.bzz.backend.model.Measurement;
 import ch.bzz.backend.model.Messwert;
 import ch.bzz.backend.model.StromzaehlerDaten;
 import ch.bzz.backend.model.EnergySensorData;
+import ch.bzz.backend.util.SortedSeries;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 import org.w3c.dom.Document;
@@ -17,16 +21,25 @@ import org.xml.sax.SAXException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.time.LocalDateTime;
-import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.Map.Entry;
 
 /**
@@ -34,17 +47,54 @@ import java.util.Map.Entry;
  */
 @Service
 @Slf4j
+@RequiredArgsConstructor
 public class XmlParserServiceImpl implements XmlParserService {
 
     private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ISO_DATE_TIME;
 
+    /**
+     * Bounded thread pool used to parse multiple files concurrently (see IngestConfig)
+     */
+    private final Executor ingestExecutor;
+
+    /**
+     * Fork-join pool used to rebuild the absolute values of multiple sensors concurrently (see IngestConfig)
+     */
+    private final ForkJoinPool reconstructionPool;
+
+    /**
+     * Known meters and their sensor ID mappings
+     */
+    private final MeterRegistry meterRegistry;
+
+    private final SdatStreamReader sdatStreamReader = new SdatStreamReader();
+    private final EslStreamReader eslStreamReader = new EslStreamReader();
+    private final XmlFormatDetector xmlFormatDetector = new XmlFormatDetector();
+
+    /**
+     * Use the streaming (StAX) reader instead of building a DOM for SDAT files
+     */
+    @Value("${energyscope.xml.streaming:true}")
+    private boolean streamingParser = true;
+
+    /**
+     * Rebuild the absolute values from SDAT files per sensor on the reconstruction pool
+     */
+    @Value("${energyscope.ingest.parallel-reconstruction:false}")
+    private boolean parallelReconstruction = false;
+
     /**
      * Parse an XML file into a list of EnergyData objects
      * 
      * This method detects the XML format (ESL or SDAT) based on the root element:
      * - ESLBillingData: ESL format (EdmRegisterWertExport_*.xml)
      * - ValidatedMeteredData: SDAT format (20*.xml)
-     * 
+     * Only the prolog and the root start tag are read for the detection (see {@link XmlFormatDetector}),
+     * files in an unknown format are rejected before the rest of the file is read.
+     *
+     * If streaming is enabled (energyscope.xml.streaming), SDAT files are read with
+     * the StAX based {@link SdatStreamReader} instead of building a DOM.
+     *
      * @param inputStream The input stream containing the XML data
      * @return List of EnergyData objects parsed from the XML
      * @throws RuntimeException If there is an error parsing the XML
@@ -52,26 +102,27 @@ public class XmlParserServiceImpl implements XmlParserService {
     @Override
     public List<EnergyData> parseXml(InputStream inputStream) {
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.parse(inputStream);
-            document.getDocumentElement().normalize();
-
-            String rootElement = document.getDocumentElement().getNodeName();
+            inputStream = XmlFormatDetector.markable(inputStream);
+            String rootElement = xmlFormatDetector.readRootElementName(inputStream);
             log.info("Detected XML root element: {}", rootElement);
 
-            if (rootElement.equals("ESLBillingData")) {
+            XmlFormatDetector.XmlFormat format = xmlFormatDetector.detect(rootElement);
+            if (format == XmlFormatDetector.XmlFormat.ESL) {
                 log.info("Parsing ESL format (EdmRegisterWertExport)");
-                return parseESLBillingData(document);
-            } else if (rootElement.contains("ValidatedMeteredData")) {
+                return parseESLBillingData(inputStream);
+            } else if (format == XmlFormatDetector.XmlFormat.SDAT) {
+                if (streamingParser) {
+                    log.info("Parsing SDAT format (ValidatedMeteredData) with streaming parser");
+                    return streamValidatedMeteredData(inputStream);
+                }
                 log.info("Parsing SDAT format (ValidatedMeteredData)");
-                return parseValidatedMeteredData(document);
+                return parseValidatedMeteredData(parseXmlDocument(inputStream));
             } else {
                 log.error("Unknown XML format: {}", rootElement);
                 throw new IllegalArgumentException("Unknown XML format: " + rootElement + 
                     ". Expected 'ESLBillingData' (ESL format) or 'ValidatedMeteredData' (SDAT format).");
             }
-        } catch (ParserConfigurationException | SAXException | IOException e) {
+        } catch (ParserConfigurationException | SAXException | XMLStreamException | IOException e) {
             log.error("Error parsing XML file", e);
             throw new RuntimeException("Error parsing XML file: " + e.getMessage(), e);
         }
@@ -92,102 +143,62 @@ public class XmlParserServiceImpl implements XmlParserService {
      * - 1-1:2.8.1: Einspeisung Hochtarif (Production High Tariff)
      * - 1-1:2.8.2: Einspeisung Niedertarif (Production Low Tariff)
      * 
-     * @param document The XML document to parse
+     * Each value row is handled as soon as it has been read by the {@link EslStreamReader}.
+     * 
+     * @param inputStream The input stream containing the XML data
      * @return List of EnergyData objects parsed from the document
+     * @throws XMLStreamException If the document is not well-formed XML
      */
-    private List<EnergyData> parseESLBillingData(Document document) {
+    private List<EnergyData> parseESLBillingData(InputStream inputStream) throws XMLStreamException {
         List<EnergyData> result = new ArrayList<>();
         log.debug("Starting to parse ESL format document");
 
-        NodeList meterNodes = document.getElementsByTagName("Meter");
-        log.debug("Found {} meter nodes", meterNodes.getLength());
-
-        for (int i = 0; i < meterNodes.getLength(); i++) {
-            Node meterNode = meterNodes.item(i);
-            if (meterNode.getNodeType() == Node.ELEMENT_NODE) {
-                Element meterElement = (Element) meterNode;
-                String meterId = meterElement.getAttribute("factoryNo");
-                log.debug("Processing meter with ID: {}", meterId);
-
-                NodeList timePeriodNodes = meterElement.getElementsByTagName("TimePeriod");
-                log.debug("Found {} time period nodes for meter {}", timePeriodNodes.getLength(), meterId);
-
-                for (int j = 0; j < timePeriodNodes.getLength(); j++) {
-                    Node timePeriodNode = timePeriodNodes.item(j);
-                    if (timePeriodNode.getNodeType() == Node.ELEMENT_NODE) {
-                        Element timePeriodElement = (Element) timePeriodNode;
-                        String endTimeStr = timePeriodElement.getAttribute("end");
+        eslStreamReader.read(inputStream, new EslStreamReader.Handler() {
+            private List<Measurement> measurements;
 
-                        try {
-                            LocalDateTime endTime = LocalDateTime.parse(endTimeStr, DATE_TIME_FORMATTER);
-                            log.debug("Processing time period ending at: {}", endTime);
-
-                            List<Measurement> measurements = new ArrayList<>();
-                            NodeList valueRowNodes = timePeriodElement.getElementsByTagName("ValueRow");
-                            log.debug("Found {} value rows for time period", valueRowNodes.getLength());
-
-                            for (int k = 0; k < valueRowNodes.getLength(); k++) {
-                                Node valueRowNode = valueRowNodes.item(k);
-                                if (valueRowNode.getNodeType() == Node.ELEMENT_NODE) {
-                                    Element valueRowElement = (Element) valueRowNode;
-                                    String obis = valueRowElement.getAttribute("obis");
-                                    String valueStr = valueRowElement.getAttribute("value");
-
-                                    try {
-                                        double value = Double.parseDouble(valueStr);
-
-                                        LocalDateTime timestamp = endTime;
-                                        if (valueRowElement.hasAttribute("valueTimeStamp")) {
-                                            String valueTimeStr = valueRowElement.getAttribute("valueTimeStamp");
-                                            timestamp = LocalDateTime.parse(valueTimeStr, DATE_TIME_FORMATTER);
-                                        }
-
-                                        // Determine if it's production or consumption based on OBIS code
-                                        EnergyData.DataType dataType = determineDataTypeFromObis(obis);
-                                        log.debug("OBIS code: {}, Data type: {}, Value: {}", obis, dataType, value);
-
-                                        Measurement measurement = Measurement.builder()
-                                                .type(dataType)
-                                                .identifier(obis)
-                                                .myvalue(value)
-                                                .timestamp(timestamp)
-                                                .unit("KWH") // Assuming KWH for ESLBillingData
-                                                .build();
-
-                                        measurements.add(measurement);
-                                    } catch (NumberFormatException e) {
-                                        log.warn("Invalid value format for OBIS {}: {}", obis, valueStr, e);
-                                    } catch (Exception e) {
-                                        log.warn("Error processing value row with OBIS {}", obis, e);
-                                    }
-                                }
-                            }
+            @Override
+            public void startTimePeriod(String meterId, LocalDateTime end) {
+                log.debug("Processing time period ending at: {}", end);
+                measurements = new ArrayList<>();
+            }
 
-                            if (!measurements.isEmpty()) {
-                                EnergyData energyData = EnergyData.builder()
-                                        .meterId(meterId)
-                                        .timestamp(endTime)
-                                        .build();
+            @Override
+            public void valueRow(String meterId, LocalDateTime timestamp, ESLBillingData.ValueRow row) {
+                // Determine if it's production or consumption based on OBIS code
+                EnergyData.DataType dataType = determineDataTypeFromObis(row.getObis());
+                log.debug("OBIS code: {}, Data type: {}, Value: {}", row.getObis(), dataType, row.getValue());
 
-                                // Add measurements to energy data
-                                for (Measurement measurement : measurements) {
-                                    energyData.addMeasurement(measurement);
-                                }
+                measurements.add(Measurement.builder()
+                        .type(dataType)
+                        .identifier(row.getObis())
+                        .myvalue(row.getValue())
+                        .timestamp(timestamp)
+                        .unit("KWH") // Assuming KWH for ESLBillingData
+                        .build());
+            }
 
-                                result.add(energyData);
-                                log.debug("Added EnergyData with {} measurements for meter {}", 
-                                        measurements.size(), meterId);
-                            } else {
-                                log.warn("No valid measurements found for meter {} in time period ending at {}", 
-                                        meterId, endTime);
-                            }
-                        } catch (Exception e) {
-                            log.warn("Error processing time period with end time {}", endTimeStr, e);
-                        }
+            @Override
+            public void endTimePeriod(String meterId, LocalDateTime end) {
+                if (!measurements.isEmpty()) {
+                    EnergyData energyData = EnergyData.builder()
+                            .meterId(meterId)
+                            .timestamp(end)
+                            .build();
+
+                    // Add measurements to energy data
+                    for (Measurement measurement : measurements) {
+                        energyData.addMeasurement(measurement);
                     }
+
+                    result.add(energyData);
+                    log.debug("Added EnergyData with {} measurements for meter {}", 
+                            measurements.size(), meterId);
+                } else {
+                    log.warn("No valid measurements found for meter {} in time period ending at {}", 
+                            meterId, end);
                 }
             }
-        }
+        });
 
         log.info("Parsed {} EnergyData objects from ESL format document", result.size());
         return result;
@@ -378,6 +389,152 @@ public class XmlParserServiceImpl implements XmlParserService {
         return result;
     }
 
+    /**
+     * Parse a SDAT format XML file (ValidatedMeteredData) into a list of EnergyData objects
+     * in a single forward pass using the {@link SdatStreamReader}
+     *
+     * Produces the same EnergyData objects as {@link #parseValidatedMeteredData(Document)}
+     * without building a DOM of the document.
+     *
+     * @param inputStream The input stream containing the XML data
+     * @return List of EnergyData objects parsed from the stream
+     * @throws XMLStreamException If the document is not well-formed XML
+     */
+    private List<EnergyData> streamValidatedMeteredData(InputStream inputStream) throws XMLStreamException {
+        List<EnergyData> result = new ArrayList<>();
+
+        sdatStreamReader.read(inputStream, new SdatStreamReader.Handler() {
+            private String meterId;
+            private List<Measurement> measurements;
+
+            @Override
+            public void startBlock(SdatStreamReader.MeteringBlock block) {
+                meterId = getSdatMeterId(block);
+                measurements = null;
+
+                if (block.getStartTime() == null || block.getEndTime() == null) {
+                    log.warn("Error processing interval with start time {} and end time {}",
+                            block.getStartTimeText(), block.getEndTimeText());
+                } else if (block.getResolution() == null) {
+                    log.warn("No resolution found for metering data node {}", block.getIndex());
+                } else {
+                    measurements = new ArrayList<>();
+                }
+            }
+
+            @Override
+            public void observation(SdatStreamReader.MeteringBlock block, int sequence, double volume) {
+                if (measurements == null) {
+                    return;
+                }
+
+                LocalDateTime timestamp = block.getStartTime().plusMinutes((sequence - 1) * block.getResolution());
+                measurements.add(Measurement.builder()
+                        .type(getSdatDataType(block))
+                        .identifier(String.valueOf(sequence))
+                        .myvalue(volume)
+                        .timestamp(timestamp)
+                        .unit(block.getUnit())
+                        .build());
+            }
+
+            @Override
+            public void endBlock(SdatStreamReader.MeteringBlock block) {
+                if (measurements == null) {
+                    return;
+                }
+
+                if (!measurements.isEmpty()) {
+                    EnergyData energyData = EnergyData.builder()
+                            .meterId(meterId)
+                            .timestamp(block.getEndTime())
+                            .build();
+
+                    for (Measurement measurement : measurements) {
+                        energyData.addMeasurement(measurement);
+                    }
+
+                    result.add(energyData);
+                    log.debug("Added EnergyData with {} measurements for meter {}", measurements.size(), meterId);
+                } else {
+                    log.warn("No valid measurements found for meter {} in interval {} to {}",
+                            meterId, block.getStartTime(), block.getEndTime());
+                }
+            }
+        });
+
+        log.info("Parsed {} EnergyData objects from SDAT format stream", result.size());
+        return result;
+    }
+
+    /**
+     * Parse a SDAT format XML file (ValidatedMeteredData) into a map of StromzaehlerDaten objects
+     * in a single forward pass using the {@link SdatStreamReader}
+     *
+     * @param inputStream The input stream containing the XML data
+     * @return Map of meter IDs to StromzaehlerDaten objects
+     * @throws XMLStreamException If the document is not well-formed XML
+     */
+    private Map<String, StromzaehlerDaten> streamValidatedMeteredDataToStromzaehlerDaten(InputStream inputStream)
+            throws XMLStreamException {
+        Map<String, StromzaehlerDaten> result = new HashMap<>();
+
+        sdatStreamReader.read(inputStream, new SdatStreamReader.Handler() {
+            private StromzaehlerDaten stromzaehlerDaten;
+
+            @Override
+            public void startBlock(SdatStreamReader.MeteringBlock block) {
+                stromzaehlerDaten = result.computeIfAbsent(getSdatMeterId(block), StromzaehlerDaten::new);
+
+                if (block.getStartTime() == null || block.getResolution() == null) {
+                    log.warn("Skipping metering data node {} without valid start time or resolution", block.getIndex());
+                    stromzaehlerDaten = null;
+                }
+            }
+
+            @Override
+            public void observation(SdatStreamReader.MeteringBlock block, int sequence, double volume) {
+                if (stromzaehlerDaten == null) {
+                    return;
+                }
+
+                LocalDateTime timestamp = block.getStartTime().plusMinutes((sequence - 1) * block.getResolution());
+                stromzaehlerDaten.addMesswert(Messwert.builder()
+                        .timestamp(timestamp)
+                        .absoluteValue(volume)
+                        .relativeValue(0.0) // Calculate relative value if needed
+                        .unit(block.getUnit())
+                        .type(getSdatDataType(block))
+                        .build());
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Determine the meter ID of a SDAT metering data block
+     * Uses the ID part of the DocumentID if available (e.g. ID735 from eslevu180263_BR2294_ID735),
+     * otherwise the VSENationalID of the metering point
+     *
+     * @param block The metering data block
+     * @return The meter ID, empty if it cannot be determined
+     */
+    private String getSdatMeterId(SdatStreamReader.MeteringBlock block) {
+        String documentId = block.getDocumentId();
+        if (documentId.contains("_ID")) {
+            return documentId.substring(documentId.lastIndexOf("_ID") + 1);
+        }
+        if (block.isProduction() || block.isConsumption()) {
+            return block.getMeteringPointId();
+        }
+        return "";
+    }
+
+    private EnergyData.DataType getSdatDataType(SdatStreamReader.MeteringBlock block) {
+        return block.isProduction() ? EnergyData.DataType.PRODUCTION : EnergyData.DataType.CONSUMPTION;
+    }
+
     private String getTextContent(Element element, String tagName) {
         NodeList nodeList = element.getElementsByTagName(tagName);
         if (nodeList.getLength() > 0) {
@@ -435,10 +592,10 @@ public class XmlParserServiceImpl implements XmlParserService {
      * This method detects the XML format (ESL or SDAT) based on the root element:
      * - ESLBillingData: ESL format (EdmRegisterWertExport_*.xml)
      * - ValidatedMeteredData: SDAT format (20*.xml)
+     * Only the prolog and the root start tag are read for the detection (see {@link XmlFormatDetector}).
      * 
-     * The resulting StromzaehlerDaten objects use TreeMap to store Messwert objects
-     * with timestamp as key, as suggested by Roger Bünzli. This ensures no duplicate
-     * timestamps can exist.
+     * The resulting StromzaehlerDaten objects store the measurements ordered by timestamp,
+     * as suggested by Roger Bünzli. This ensures no duplicate timestamps can exist.
      * 
      * @param inputStream The input stream containing the XML data
      * @return Map of meter IDs to StromzaehlerDaten objects
@@ -447,32 +604,44 @@ public class XmlParserServiceImpl implements XmlParserService {
     @Override
     public Map<String, StromzaehlerDaten> parseXmlToStromzaehlerDaten(InputStream inputStream) {
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.parse(inputStream);
-            document.getDocumentElement().normalize();
-
-            String rootElement = document.getDocumentElement().getNodeName();
+            inputStream = XmlFormatDetector.markable(inputStream);
+            String rootElement = xmlFormatDetector.readRootElementName(inputStream);
             log.info("Detected XML root element for StromzaehlerDaten parsing: {}", rootElement);
 
-            if (rootElement.equals("ESLBillingData")) {
+            XmlFormatDetector.XmlFormat format = xmlFormatDetector.detect(rootElement);
+            if (format == XmlFormatDetector.XmlFormat.ESL) {
                 log.info("Parsing ESL format (EdmRegisterWertExport) to StromzaehlerDaten");
-                return parseESLBillingDataToStromzaehlerDaten(document);
-            } else if (rootElement.contains("ValidatedMeteredData")) {
+                return parseESLBillingDataToStromzaehlerDaten(inputStream);
+            } else if (format == XmlFormatDetector.XmlFormat.SDAT) {
+                if (streamingParser) {
+                    log.info("Parsing SDAT format (ValidatedMeteredData) to StromzaehlerDaten with streaming parser");
+                    return streamValidatedMeteredDataToStromzaehlerDaten(inputStream);
+                }
                 log.info("Parsing SDAT format (ValidatedMeteredData) to StromzaehlerDaten");
-                return parseValidatedMeteredDataToStromzaehlerDaten(document);
+                return parseValidatedMeteredDataToStromzaehlerDaten(parseXmlDocument(inputStream));
             } else {
                 log.error("Unknown XML format for StromzaehlerDaten parsing: {}", rootElement);
                 throw new IllegalArgumentException("Unknown XML format: " + rootElement + 
                     ". Expected 'ESLBillingData' (ESL format) or 'ValidatedMeteredData' (SDAT format).");
             }
-        } catch (ParserConfigurationException | SAXException | IOException e) {
+        } catch (ParserConfigurationException | SAXException | XMLStreamException | IOException e) {
             log.error("Error parsing XML file to StromzaehlerDaten", e);
             throw new RuntimeException("Error parsing XML file to StromzaehlerDaten: " + e.getMessage(), e);
         }
     }
 
-    private Map<String, StromzaehlerDaten> parseESLBillingDataToStromzaehlerDaten(Document document) {
+    /**
+     * Parse an ESL format XML file (ESLBillingData) into a map of StromzaehlerDaten objects
+     * 
+     * Hochtarif and Niedertarif register values are combined per timestamp,
+     * all other OBIS codes are added to the StromzaehlerDaten of their meter directly.
+     * 
+     * @param inputStream The input stream containing the XML data
+     * @return Map of meter IDs to StromzaehlerDaten objects
+     * @throws XMLStreamException If the document is not well-formed XML
+     */
+    private Map<String, StromzaehlerDaten> parseESLBillingDataToStromzaehlerDaten(InputStream inputStream)
+            throws XMLStreamException {
         Map<String, StromzaehlerDaten> result = new HashMap<>();
 
         // Maps to store Hochtarif and Niedertarif values for each meter ID and timestamp
@@ -481,78 +650,47 @@ public class XmlParserServiceImpl implements XmlParserService {
         Map<String, Map<LocalDateTime, Double>> einspeisungHochtarifMap = new HashMap<>();
         Map<String, Map<LocalDateTime, Double>> einspeisungNiedertarifMap = new HashMap<>();
 
-        NodeList meterNodes = document.getElementsByTagName("Meter");
-        for (int i = 0; i < meterNodes.getLength(); i++) {
-            Node meterNode = meterNodes.item(i);
-            if (meterNode.getNodeType() == Node.ELEMENT_NODE) {
-                Element meterElement = (Element) meterNode;
-                String meterId = meterElement.getAttribute("factoryNo");
-
-                NodeList timePeriodNodes = meterElement.getElementsByTagName("TimePeriod");
-                for (int j = 0; j < timePeriodNodes.getLength(); j++) {
-                    Node timePeriodNode = timePeriodNodes.item(j);
-                    if (timePeriodNode.getNodeType() == Node.ELEMENT_NODE) {
-                        Element timePeriodElement = (Element) timePeriodNode;
-                        String endTimeStr = timePeriodElement.getAttribute("end");
-                        LocalDateTime endTime = LocalDateTime.parse(endTimeStr, DATE_TIME_FORMATTER);
+        eslStreamReader.read(inputStream, (meterId, timestamp, row) -> {
+            String obis = row.getObis();
+            double value = row.getValue();
+
+            // Store values in the appropriate map based on OBIS code
+            if (obis.equals("1-1:1.8.1")) { // Bezug Hochtarif
+                bezugHochtarifMap.computeIfAbsent(meterId, k -> new HashMap<>())
+                        .put(timestamp, value);
+            } else if (obis.equals("1-1:1.8.2")) { // Bezug Niedertarif
+                bezugNiedertarifMap.computeIfAbsent(meterId, k -> new HashMap<>())
+                        .put(timestamp, value);
+            } else if (obis.equals("1-1:2.8.1")) { // Einspeisung Hochtarif
+                einspeisungHochtarifMap.computeIfAbsent(meterId, k -> new HashMap<>())
+                        .put(timestamp, value);
+            } else if (obis.equals("1-1:2.8.2")) { // Einspeisung Niedertarif
+                einspeisungNiedertarifMap.computeIfAbsent(meterId, k -> new HashMap<>())
+                        .put(timestamp, value);
+            } else {
+                // For other OBIS codes, create and add Messwert directly
+                EnergyData.DataType dataType = determineDataTypeFromObis(obis);
 
-                        NodeList valueRowNodes = timePeriodElement.getElementsByTagName("ValueRow");
-                        for (int k = 0; k < valueRowNodes.getLength(); k++) {
-                            Node valueRowNode = valueRowNodes.item(k);
-                            if (valueRowNode.getNodeType() == Node.ELEMENT_NODE) {
-                                Element valueRowElement = (Element) valueRowNode;
-                                String obis = valueRowElement.getAttribute("obis");
-                                String valueStr = valueRowElement.getAttribute("value");
-                                double value = Double.parseDouble(valueStr);
-
-                                LocalDateTime timestamp = endTime;
-                                if (valueRowElement.hasAttribute("valueTimeStamp")) {
-                                    String valueTimeStr = valueRowElement.getAttribute("valueTimeStamp");
-                                    timestamp = LocalDateTime.parse(valueTimeStr, DATE_TIME_FORMATTER);
-                                }
+                // Create or get StromzaehlerDaten for this meter
+                StromzaehlerDaten stromzaehlerDaten = result.computeIfAbsent(meterId, StromzaehlerDaten::new);
 
-                                // Store values in the appropriate map based on OBIS code
-                                if (obis.equals("1-1:1.8.1")) { // Bezug Hochtarif
-                                    bezugHochtarifMap.computeIfAbsent(meterId, k1 -> new HashMap<>())
-                                            .put(timestamp, value);
-                                } else if (obis.equals("1-1:1.8.2")) { // Bezug Niedertarif
-                                    bezugNiedertarifMap.computeIfAbsent(meterId, k1 -> new HashMap<>())
-                                            .put(timestamp, value);
-                                } else if (obis.equals("1-1:2.8.1")) { // Einspeisung Hochtarif
-                                    einspeisungHochtarifMap.computeIfAbsent(meterId, k1 -> new HashMap<>())
-                                            .put(timestamp, value);
-                                } else if (obis.equals("1-1:2.8.2")) { // Einspeisung Niedertarif
-                                    einspeisungNiedertarifMap.computeIfAbsent(meterId, k1 -> new HashMap<>())
-                                            .put(timestamp, value);
-                                } else {
-                                    // For other OBIS codes, create and add Messwert directly
-                                    EnergyData.DataType dataType = determineDataTypeFromObis(obis);
-
-                                    // Create or get StromzaehlerDaten for this meter
-                                    StromzaehlerDaten stromzaehlerDaten = result.computeIfAbsent(meterId, StromzaehlerDaten::new);
-
-                                    Messwert messwert = Messwert.builder()
-                                            .timestamp(timestamp)
-                                            .absoluteValue(value)
-                                            .relativeValue(0.0) // Calculate relative value if needed
-                                            .unit("KWH") // Assuming KWH for ESLBillingData
-                                            .type(dataType)
-                                            .build();
+                Messwert messwert = Messwert.builder()
+                        .timestamp(timestamp)
+                        .absoluteValue(value)
+                        .relativeValue(0.0) // Calculate relative value if needed
+                        .unit("KWH") // Assuming KWH for ESLBillingData
+                        .type(dataType)
+                        .build();
 
-                                    stromzaehlerDaten.addMesswert(messwert);
-                                }
-                            }
-                        }
-                    }
-                }
+                stromzaehlerDaten.addMesswert(messwert);
             }
-        }
+        });
 
-        // Process Bezug (Consumption) values - map to ID742
-        processAndAddCombinedValues(result, bezugHochtarifMap, bezugNiedertarifMap, "ID742", EnergyData.DataType.CONSUMPTION);
+        // Process Bezug (Consumption) values - map to the consumption sensor of each meter (default ID742)
+        processAndAddCombinedValues(result, bezugHochtarifMap, bezugNiedertarifMap, EnergyData.DataType.CONSUMPTION);
 
-        // Process Einspeisung (Production) values - map to ID735
-        processAndAddCombinedValues(result, einspeisungHochtarifMap, einspeisungNiedertarifMap, "ID735", EnergyData.DataType.PRODUCTION);
+        // Process Einspeisung (Production) values - map to the production sensor of each meter (default ID735)
+        processAndAddCombinedValues(result, einspeisungHochtarifMap, einspeisungNiedertarifMap, EnergyData.DataType.PRODUCTION);
 
         return result;
     }
@@ -560,26 +698,32 @@ public class XmlParserServiceImpl implements XmlParserService {
     /**
      * Process and add combined values for Hochtarif and Niedertarif
      * 
+     * The combined values of each meter are added to the consumption or production sensor
+     * the meter is mapped to in the {@link MeterRegistry}.
+     * 
      * @param result The result map to add the combined values to
      * @param hochtarifMap Map of Hochtarif values by meter ID and timestamp
      * @param niedertarifMap Map of Niedertarif values by meter ID and timestamp
-     * @param targetMeterId The target meter ID to use for the combined values
      * @param dataType The data type (PRODUCTION or CONSUMPTION)
      */
     private void processAndAddCombinedValues(
             Map<String, StromzaehlerDaten> result,
             Map<String, Map<LocalDateTime, Double>> hochtarifMap,
             Map<String, Map<LocalDateTime, Double>> niedertarifMap,
-            String targetMeterId,
             EnergyData.DataType dataType) {
 
-        // Create or get StromzaehlerDaten for the target meter ID
-        StromzaehlerDaten targetStromzaehlerDaten = result.computeIfAbsent(targetMeterId, StromzaehlerDaten::new);
+        // Process all meter IDs with Hochtarif or Niedertarif values
+        Set<String> sourceMeterIds = new HashSet<>(hochtarifMap.keySet());
+        sourceMeterIds.addAll(niedertarifMap.keySet());
+        for (String sourceMeterId : sourceMeterIds) {
+            // Create or get StromzaehlerDaten for the sensor the meter is mapped to
+            MeterRegistry.Meter meter = meterRegistry.registerMeter(sourceMeterId);
+            String targetMeterId = dataType == EnergyData.DataType.PRODUCTION
+                    ? meter.getProductionSensorId() : meter.getConsumptionSensorId();
+            StromzaehlerDaten targetStromzaehlerDaten = result.computeIfAbsent(targetMeterId, StromzaehlerDaten::new);
 
-        // Process all meter IDs in the Hochtarif map
-        for (String sourceMeterId : hochtarifMap.keySet()) {
-            Map<LocalDateTime, Double> hochtarifValues = hochtarifMap.get(sourceMeterId);
-            Map<LocalDateTime, Double> niedertarifValues = niedertarifMap.getOrDefault(sourceMeterId, new HashMap<>());
+            Map<LocalDateTime, Double> hochtarifValues = hochtarifMap.getOrDefault(sourceMeterId, Collections.emptyMap());
+            Map<LocalDateTime, Double> niedertarifValues = niedertarifMap.getOrDefault(sourceMeterId, Collections.emptyMap());
 
             // Process all timestamps in the Hochtarif map
             for (Map.Entry<LocalDateTime, Double> entry : hochtarifValues.entrySet()) {
@@ -726,13 +870,16 @@ public class XmlParserServiceImpl implements XmlParserService {
      * Process multiple XML files and combine the results into a single map of StromzaehlerDaten objects
      * 
      * This method:
-     * 1. Parses each XML file into StromzaehlerDaten objects
-     * 2. Merges the results by meter ID
-     * 3. Calculates relative values for each meter
+     * 1. Parses each XML file into StromzaehlerDaten objects, concurrently on the ingest executor
+     * 2. Merges the results by meter ID, in the order of the input streams
+     * 3. Updates the relative values affected by each merged file
+     * 
+     * Because the results are merged in input order, the result is the same as parsing the
+     * files one after another: if several files contain the same timestamp for a meter, the
+     * value of the last file wins.
      * 
-     * The resulting StromzaehlerDaten objects use TreeMap to store Messwert objects
-     * with timestamp as key, as suggested by Roger Bünzli. This ensures no duplicate
-     * timestamps can exist.
+     * The resulting StromzaehlerDaten objects store the measurements ordered by timestamp,
+     * as suggested by Roger Bünzli. This ensures no duplicate timestamps can exist.
      * 
      * @param inputStreams List of input streams containing XML data
      * @return Map of meter IDs to combined StromzaehlerDaten objects
@@ -744,13 +891,19 @@ public class XmlParserServiceImpl implements XmlParserService {
         // Combined result map
         Map<String, StromzaehlerDaten> combinedResult = new HashMap<>();
 
-        // Process all input streams
-        int fileCount = 0;
+        // Parse all input streams concurrently
+        List<CompletableFuture<Map<String, StromzaehlerDaten>>> fileResults = new ArrayList<>(inputStreams.size());
         for (InputStream inputStream : inputStreams) {
+            fileResults.add(CompletableFuture.supplyAsync(() -> parseXmlToStromzaehlerDaten(inputStream), ingestExecutor));
+        }
+
+        // Merge the results in input order
+        int fileCount = 0;
+        for (CompletableFuture<Map<String, StromzaehlerDaten>> future : fileResults) {
             fileCount++;
             try {
                 log.debug("Processing file {}/{}", fileCount, inputStreams.size());
-                Map<String, StromzaehlerDaten> fileResult = parseXmlToStromzaehlerDaten(inputStream);
+                Map<String, StromzaehlerDaten> fileResult = getFileResult(future);
                 log.debug("File {}/{} parsed successfully with {} meter(s)", fileCount, inputStreams.size(), fileResult.size());
 
                 // Merge results
@@ -760,15 +913,16 @@ public class XmlParserServiceImpl implements XmlParserService {
 
                     // Get or create StromzaehlerDaten for this meter
                     StromzaehlerDaten combinedData = combinedResult.computeIfAbsent(meterId, StromzaehlerDaten::new);
-                    int initialMeasurementCount = combinedData.getAllMesswerte().size();
 
-                    // Add all measurements from this file
-                    for (Map.Entry<LocalDateTime, Messwert> messwertEntry : fileData.getAllMesswerte().entrySet()) {
-                        combinedData.addMesswert(messwertEntry.getValue());
+                    // Add all measurements from this file and update the relative values they affect
+                    EnergyData.DataType[] replacedTypes = getTypesAt(combinedData, fileData);
+                    int addedMeasurements = combinedData.addAll(fileData);
+                    try {
+                        calculateRelativeValues(combinedData, fileData, replacedTypes);
+                    } catch (Exception e) {
+                        log.error("Error calculating relative values for meter {}", meterId, e);
+                        // Continue with next meter instead of failing the entire file
                     }
-
-                    int newMeasurementCount = combinedData.getAllMesswerte().size();
-                    int addedMeasurements = newMeasurementCount - initialMeasurementCount;
                     log.debug("Added {} measurements for meter {} from file {}/{}", 
                             addedMeasurements, meterId, fileCount, inputStreams.size());
                 }
@@ -780,133 +934,143 @@ public class XmlParserServiceImpl implements XmlParserService {
 
         log.info("Finished processing {} files, found {} unique meters", inputStreams.size(), combinedResult.size());
 
-        // Calculate relative values for each meter
-        for (Map.Entry<String, StromzaehlerDaten> entry : combinedResult.entrySet()) {
-            String meterId = entry.getKey();
-            StromzaehlerDaten stromzaehlerDaten = entry.getValue();
+        return combinedResult;
+    }
 
-            try {
-                log.debug("Calculating relative values for meter {}", meterId);
-                calculateRelativeValues(stromzaehlerDaten);
-                log.debug("Relative values calculated successfully for meter {}", meterId);
-            } catch (Exception e) {
-                log.error("Error calculating relative values for meter {}", meterId, e);
-                // Continue with next meter instead of failing the entire process
-            }
+    /**
+     * Wait for the result of a file parsed on the ingest executor
+     *
+     * @param future The future of the parse task
+     * @return The parsed StromzaehlerDaten objects of the file
+     * @throws RuntimeException The exception thrown while parsing the file
+     */
+    private Map<String, StromzaehlerDaten> getFileResult(CompletableFuture<Map<String, StromzaehlerDaten>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
         }
-
-        return combinedResult;
     }
 
     /**
-     * Calculate relative values for all measurements in a StromzaehlerDaten object
+     * Update the relative values of a StromzaehlerDaten object after a batch of measurements was merged into it
      * 
      * The relative value is the difference between the current absolute value and the previous absolute value.
      * This is calculated separately for each data type (PRODUCTION and CONSUMPTION) to ensure
      * that only measurements of the same type are compared.
      * 
-     * The calculation is done in chronological order (sorted by timestamp) using the TreeMap structure.
+     * Only the relative values that depend on the batch are recalculated: the value of every merged
+     * measurement and of the next measurement of the same type, whose previous measurement may have
+     * changed. If a merged measurement replaced one of another type, the next measurement of the
+     * replaced type is recalculated as well. The cost depends on the size of the batch, not on the
+     * size of the history.
      * 
-     * For the first measurement of each type, the relative value remains 0.0 since there is no previous
+     * For the first measurement of each type, the relative value is 0.0 since there is no previous
      * measurement to compare with.
      * 
-     * @param stromzaehlerDaten The StromzaehlerDaten object to process
+     * @param stromzaehlerDaten The StromzaehlerDaten object the batch was merged into
+     * @param batch The merged measurements
+     * @param replacedTypes The types of the measurements replaced by the batch, see getTypesAt
      */
-    private void calculateRelativeValues(StromzaehlerDaten stromzaehlerDaten) {
-        TreeMap<LocalDateTime, Messwert> messwerte = stromzaehlerDaten.getAllMesswerte();
-        log.debug("Calculating relative values for {} measurements", messwerte.size());
-
-        // We need at least two measurements to calculate relative values
-        if (messwerte.size() < 2) {
-            log.debug("Not enough measurements to calculate relative values (need at least 2, found {})", 
-                    messwerte.size());
-            return;
-        }
-
-        // Separate by type (production/consumption)
-        Map<EnergyData.DataType, TreeMap<LocalDateTime, Messwert>> typeMap = new HashMap<>();
-
-        // Initialize maps for each type
-        typeMap.put(EnergyData.DataType.PRODUCTION, new TreeMap<>());
-        typeMap.put(EnergyData.DataType.CONSUMPTION, new TreeMap<>());
-
-        // Populate type maps
-        for (Map.Entry<LocalDateTime, Messwert> entry : messwerte.entrySet()) {
-            Messwert messwert = entry.getValue();
-            typeMap.get(messwert.getType()).put(entry.getKey(), messwert);
-        }
-
-        log.debug("Separated measurements by type: {} production, {} consumption",
-                typeMap.get(EnergyData.DataType.PRODUCTION).size(),
-                typeMap.get(EnergyData.DataType.CONSUMPTION).size());
-
-        // Calculate relative values for each type
-        for (EnergyData.DataType type : typeMap.keySet()) {
-            TreeMap<LocalDateTime, Messwert> typedMesswerte = typeMap.get(type);
-
-            if (typedMesswerte.size() < 2) {
-                log.debug("Not enough {} measurements to calculate relative values (need at least 2, found {})",
-                        type, typedMesswerte.size());
-                continue;
+    private void calculateRelativeValues(StromzaehlerDaten stromzaehlerDaten, StromzaehlerDaten batch,
+                                         EnergyData.DataType[] replacedTypes) {
+        log.debug("Calculating relative values for {} of {} measurements", batch.size(), stromzaehlerDaten.size());
+
+        for (int batchIndex = 0; batchIndex < batch.size(); batchIndex++) {
+            int index = stromzaehlerDaten.indexOf(batch.timestampAt(batchIndex));
+            EnergyData.DataType type = stromzaehlerDaten.typeAt(index);
+            if (type != null) {
+                calculateRelativeValue(stromzaehlerDaten, index, type);
+                calculateNextRelativeValue(stromzaehlerDaten, index, type);
+            } else {
+                log.warn("Measurement without type at {}, skipping", stromzaehlerDaten.timestampAt(index));
             }
 
-            log.debug("Calculating relative values for {} {} measurements", typedMesswerte.size(), type);
-
-            // Get the first entry to use as previous value
-            Map.Entry<LocalDateTime, Messwert> previousEntry = typedMesswerte.firstEntry();
-            log.debug("First {} measurement at {}: absolute value = {}", 
-                    type, previousEntry.getKey(), previousEntry.getValue().getAbsoluteValue());
-
-            int updatedCount = 0;
+            EnergyData.DataType replacedType = replacedTypes[batchIndex];
+            if (replacedType != null && replacedType != type) {
+                calculateNextRelativeValue(stromzaehlerDaten, index, replacedType);
+            }
+        }
 
-            // Iterate through the rest of the entries
-            for (Map.Entry<LocalDateTime, Messwert> entry : typedMesswerte.entrySet()) {
-                // Skip the first entry
-                if (entry.getKey().equals(previousEntry.getKey())) {
-                    continue;
-                }
+        log.debug("Updated relative values for a batch of {} measurements", batch.size());
+    }
 
-                Messwert currentMesswert = entry.getValue();
-                Messwert previousMesswert = previousEntry.getValue();
+    /**
+     * Get the types of the measurements a batch will replace, before it is merged
+     * 
+     * @param stromzaehlerDaten The StromzaehlerDaten object the batch will be merged into
+     * @param batch The measurements to merge
+     * @return The type of the existing measurement for every measurement of the batch, or null if there is none
+     */
+    private EnergyData.DataType[] getTypesAt(StromzaehlerDaten stromzaehlerDaten, StromzaehlerDaten batch) {
+        EnergyData.DataType[] types = new EnergyData.DataType[batch.size()];
+        for (int batchIndex = 0; batchIndex < batch.size(); batchIndex++) {
+            int index = stromzaehlerDaten.indexOf(batch.timestampAt(batchIndex));
+            types[batchIndex] = index >= 0 ? stromzaehlerDaten.typeAt(index) : null;
+        }
+        return types;
+    }
 
-                try {
-                    // Calculate relative value
-                    double relativeValue = currentMesswert.getAbsoluteValue() - previousMesswert.getAbsoluteValue();
-
-                    // Check for potentially erroneous values (e.g., negative consumption or very large jumps)
-                    if (relativeValue < 0 && type == EnergyData.DataType.CONSUMPTION) {
-                        log.warn("Negative relative value for consumption: {} at {}", 
-                                relativeValue, entry.getKey());
-                    } else if (relativeValue > 0 && type == EnergyData.DataType.PRODUCTION) {
-                        log.warn("Positive relative value for production: {} at {}", 
-                                relativeValue, entry.getKey());
-                    }
+    /**
+     * Calculate the relative value of the next measurement of a type after a measurement
+     * 
+     * @param stromzaehlerDaten The StromzaehlerDaten object containing the measurements
+     * @param index The index of the measurement
+     * @param type The type of the next measurement
+     */
+    private void calculateNextRelativeValue(StromzaehlerDaten stromzaehlerDaten, int index, EnergyData.DataType type) {
+        int next = index + 1;
+        while (next < stromzaehlerDaten.size() && stromzaehlerDaten.typeAt(next) != type) {
+            next++;
+        }
+        if (next < stromzaehlerDaten.size()) {
+            calculateRelativeValue(stromzaehlerDaten, next, type);
+        }
+    }
 
-                    if (Math.abs(relativeValue) > 1000) {
-                        log.warn("Large relative value change: {} at {}", relativeValue, entry.getKey());
-                    }
+    /**
+     * Calculate the relative value of a single measurement from the previous measurement of the same type
+     * 
+     * @param stromzaehlerDaten The StromzaehlerDaten object containing the measurement
+     * @param index The index of the measurement
+     * @param type The type of the measurement
+     */
+    private void calculateRelativeValue(StromzaehlerDaten stromzaehlerDaten, int index, EnergyData.DataType type) {
+        int previous = index - 1;
+        while (previous >= 0 && stromzaehlerDaten.typeAt(previous) != type) {
+            previous--;
+        }
+        if (previous < 0) {
+            // First measurement of the type
+            stromzaehlerDaten.setRelativeValueAt(index, 0.0);
+            return;
+        }
 
-                    // Update the messwert
-                    currentMesswert.setRelativeValue(relativeValue);
-                    updatedCount++;
+        // Calculate relative value
+        double currentValue = stromzaehlerDaten.absoluteValueAt(index);
+        double previousValue = stromzaehlerDaten.absoluteValueAt(previous);
+        double relativeValue = currentValue - previousValue;
+
+        // Check for potentially erroneous values (e.g., negative consumption or very large jumps)
+        if (relativeValue < 0 && type == EnergyData.DataType.CONSUMPTION) {
+            log.warn("Negative relative value for consumption: {} at {}", 
+                    relativeValue, stromzaehlerDaten.timestampAt(index));
+        } else if (relativeValue > 0 && type == EnergyData.DataType.PRODUCTION) {
+            log.warn("Positive relative value for production: {} at {}", 
+                    relativeValue, stromzaehlerDaten.timestampAt(index));
+        }
 
-                    log.debug("Calculated relative value for {} at {}: {} (current: {}, previous: {})",
-                            type, entry.getKey(), relativeValue, 
-                            currentMesswert.getAbsoluteValue(), previousMesswert.getAbsoluteValue());
-                } catch (Exception e) {
-                    log.error("Error calculating relative value for {} at {}", 
-                            type, entry.getKey(), e);
-                }
+        if (Math.abs(relativeValue) > 1000) {
+            log.warn("Large relative value change: {} at {}", relativeValue, stromzaehlerDaten.timestampAt(index));
+        }
 
-                // Update previous entry for next iteration
-                previousEntry = entry;
-            }
+        // Update the measurement
+        stromzaehlerDaten.setRelativeValueAt(index, relativeValue);
 
-            log.debug("Updated relative values for {} out of {} {} measurements", 
-                    updatedCount, typedMesswerte.size(), type);
+        if (log.isDebugEnabled()) {
+            log.debug("Calculated relative value for {} at {}: {} (current: {}, previous: {})",
+                    type, stromzaehlerDaten.timestampAt(index), relativeValue, currentValue, previousValue);
         }
-
-        log.debug("Finished calculating relative values");
     }
 
     /**
@@ -921,55 +1085,52 @@ public class XmlParserServiceImpl implements XmlParserService {
     public List<EnergySensorData> processFilesToSensorData(List<MultipartFile> files) throws IOException {
         log.info("Processing {} XML files for standardized sensor data format", files.size());
 
-        // Maps to store the absolute meter values for each sensor ID
-        Map<String, TreeMap<LocalDateTime, Double>> sensorValues = new HashMap<>();
-        // Initialize maps for ID742 (consumption), ID735 (production) and 38157930 (device meter)
-        sensorValues.put("ID742", new TreeMap<>());
-        sensorValues.put("ID735", new TreeMap<>());
-        sensorValues.put("38157930", new TreeMap<>()); // Add support for the device meter
+        // Series of the absolute meter values for each sensor ID, created for every sensor that appears
+        Map<String, SortedSeries> sensorValues = new HashMap<>();
 
-        // Process ESL files first to get base values
-        log.info("Step 1: Processing ESL files for base values");
+        // Classify and parse every file exactly once
+        List<ParsedSensorFile> parsedFiles = new ArrayList<>();
         for (MultipartFile file : files) {
-            try (InputStream inputStream = file.getInputStream()) {
-                Document document = parseXmlDocument(inputStream);
-                String rootElement = document.getDocumentElement().getNodeName();
+            ParsedSensorFile parsedFile = parseFileForSensorData(file);
+            if (parsedFile != null) {
+                parsedFiles.add(parsedFile);
+            }
+        }
 
-                if (rootElement.equals("ESLBillingData")) {
-                    log.info("Processing ESL file: {}", file.getOriginalFilename());
-                    processEslFileForSensorData(document, sensorValues);
+        // Apply ESL files first to get base values
+        log.info("Step 1: Processing ESL files for base values");
+        for (ParsedSensorFile parsedFile : parsedFiles) {
+            if (parsedFile.getFormat() == XmlFormatDetector.XmlFormat.ESL) {
+                log.info("Processing ESL file: {}", parsedFile.getFileName());
+                for (Map.Entry<String, SortedSeries> entry : parsedFile.getEslValues().entrySet()) {
+                    sensorValues.computeIfAbsent(entry.getKey(), k -> new SortedSeries()).putAll(entry.getValue());
                 }
-            } catch (Exception e) {
-                // Continue with next file if this one fails
-                log.error("Error processing ESL file {}: {}", file.getOriginalFilename(), e.getMessage());
             }
         }
-        log.info("Completed processing ESL files. Found {} data points for ID742, {} for ID735, and {} for 38157930",
-                sensorValues.get("ID742").size(), sensorValues.get("ID735").size(), sensorValues.get("38157930").size());
+        log.info("Completed processing ESL files. Found {} data points for {} sensors",
+                countDataPoints(sensorValues), sensorValues.size());
 
-        // Process SDAT files to get interval data
+        // Apply SDAT files to get interval data
         log.info("Step 2: Processing SDAT files for interval data");
-        for (MultipartFile file : files) {
-            try (InputStream inputStream = file.getInputStream()) {
-                Document document = parseXmlDocument(inputStream);
-                String rootElement = document.getDocumentElement().getNodeName();
-
-                if (rootElement.contains("ValidatedMeteredData")) {
-                    log.info("Processing SDAT file: {}", file.getOriginalFilename());
-                    processSdatFileForSensorData(document, sensorValues);
+        if (parallelReconstruction) {
+            applySdatFilesPerSensor(parsedFiles, sensorValues);
+        } else {
+            for (ParsedSensorFile parsedFile : parsedFiles) {
+                if (parsedFile.getFormat() == XmlFormatDetector.XmlFormat.SDAT) {
+                    log.info("Processing SDAT file: {}", parsedFile.getFileName());
+                    for (ParsedSensorFile.SdatSeries series : parsedFile.getSdatSeries()) {
+                        applySdatSeries(series, sensorValues.computeIfAbsent(series.getSensorId(), k -> new SortedSeries()));
+                    }
                 }
-            } catch (Exception e) {
-                // Continue with next file if this one fails
-                log.error("Error processing SDAT file {}: {}", file.getOriginalFilename(), e.getMessage());
             }
         }
-        log.info("After SDAT processing: {} data points for ID742, {} for ID735, and {} for 38157930",
-                sensorValues.get("ID742").size(), sensorValues.get("ID735").size(), sensorValues.get("38157930").size());
+        log.info("After SDAT processing: {} data points for {} sensors",
+                countDataPoints(sensorValues), sensorValues.size());
 
         // Convert the results to the required EnergySensorData format
         List<EnergySensorData> result = new ArrayList<>();
         for (String sensorId : sensorValues.keySet()) {
-            TreeMap<LocalDateTime, Double> values = sensorValues.get(sensorId);
+            SortedSeries values = sensorValues.get(sensorId);
             if (!values.isEmpty()) {
                 EnergySensorData sensorData = createEnergySensorData(sensorId, values);
                 result.add(sensorData);
@@ -982,6 +1143,33 @@ public class XmlParserServiceImpl implements XmlParserService {
         return result;
     }
 
+    /**
+     * Classify an uploaded file and parse it into its intermediate form
+     *
+     * The file is read exactly once: the format is detected from the root start tag
+     * and the same stream is then passed to the ESL or SDAT streaming reader.
+     *
+     * @param file The uploaded file
+     * @return The parsed file, or null if the file has an unknown format or could not be parsed
+     */
+    private ParsedSensorFile parseFileForSensorData(MultipartFile file) {
+        try (InputStream inputStream = XmlFormatDetector.markable(file.getInputStream())) {
+            XmlFormatDetector.XmlFormat format = xmlFormatDetector.detect(inputStream);
+            if (format == XmlFormatDetector.XmlFormat.ESL) {
+                log.debug("Parsing ESL file: {}", file.getOriginalFilename());
+                return ParsedSensorFile.esl(file.getOriginalFilename(), parseEslFileForSensorData(inputStream));
+            } else if (format == XmlFormatDetector.XmlFormat.SDAT) {
+                log.debug("Parsing SDAT file: {}", file.getOriginalFilename());
+                return ParsedSensorFile.sdat(file.getOriginalFilename(), parseSdatFileForSensorData(inputStream));
+            }
+            log.warn("Skipping file {} with unknown XML format", file.getOriginalFilename());
+        } catch (Exception e) {
+            // Continue with next file if this one fails
+            log.error("Error processing file {}: {}", file.getOriginalFilename(), e.getMessage());
+        }
+        return null;
+    }
+
     /**
      * Helper method to parse an XML document from an input stream
      *
@@ -1000,325 +1188,332 @@ public class XmlParserServiceImpl implements XmlParserService {
     }
 
     /**
-     * Process an ESL format XML document for sensor data
+     * Parse an ESL format XML file into absolute meter values per sensor ID
      *
-     * @param document The XML document to parse
-     * @param sensorValues Map to store the parsed values by sensor ID
+     * Each value row is handled as soon as it has been read by the {@link EslStreamReader}.
+     * Values are stored at their valueTimeStamp if present, otherwise at the end of their time period.
+     *
+     * Every meter is registered in the {@link MeterRegistry} and gets its own series with all of its
+     * register values. In addition, the Hochtarif and Niedertarif values are combined and added to
+     * the consumption (Bezug) and production (Einspeisung) sensors the meter is mapped to.
+     *
+     * @param inputStream The input stream containing the XML data
+     * @return Map of sensor IDs to their absolute values
+     * @throws XMLStreamException If the document is not well-formed XML
      */
-    private void processEslFileForSensorData(Document document, Map<String, TreeMap<LocalDateTime, Double>> sensorValues) {
+    private Map<String, SortedSeries> parseEslFileForSensorData(InputStream inputStream)
+            throws XMLStreamException {
         log.debug("Processing ESL format for sensor data");
 
-        // Maps to store Hochtarif and Niedertarif values temporarily
-        Map<LocalDateTime, Double> bezugHochtarif = new HashMap<>();
-        Map<LocalDateTime, Double> bezugNiedertarif = new HashMap<>();
-        Map<LocalDateTime, Double> einspeisungHochtarif = new HashMap<>();
-        Map<LocalDateTime, Double> einspeisungNiedertarif = new HashMap<>();
-
-        NodeList meterNodes = document.getElementsByTagName("Meter");
-        for (int i = 0; i < meterNodes.getLength(); i++) {
-            Element meterElement = (Element) meterNodes.item(i);
-            String meterId = meterElement.getAttribute("factoryNo");
-            log.debug("Processing meter with ID: {}", meterId);
-
-            // Get values TreeMap for the device meter if the ID matches
-            TreeMap<LocalDateTime, Double> deviceMeterValues = null;
-            if (meterId.equals("38157930")) {
-                deviceMeterValues = sensorValues.get(meterId);
-                log.debug("Found device meter with ID: {}", meterId);
+        Map<String, SortedSeries> sensorValues = new HashMap<>();
+
+        // Maps to store Hochtarif and Niedertarif values temporarily, by sensor ID
+        Map<String, Map<LocalDateTime, Double>> bezugHochtarif = new HashMap<>();
+        Map<String, Map<LocalDateTime, Double>> bezugNiedertarif = new HashMap<>();
+        Map<String, Map<LocalDateTime, Double>> einspeisungHochtarif = new HashMap<>();
+        Map<String, Map<LocalDateTime, Double>> einspeisungNiedertarif = new HashMap<>();
+
+        eslStreamReader.read(inputStream, (meterId, timestamp, row) -> {
+            MeterRegistry.Meter meter = meterRegistry.registerMeter(meterId);
+            String obis = row.getObis();
+            double value = row.getValue();
+
+            // Store values in the appropriate map based on OBIS code
+            if (obis.equals("1-1:1.8.1")) { // Bezug Hochtarif
+                bezugHochtarif.computeIfAbsent(meter.getConsumptionSensorId(), k -> new HashMap<>()).put(timestamp, value);
+                log.debug("Found Bezug Hochtarif at {}: {}", timestamp, value);
+            } else if (obis.equals("1-1:1.8.2")) { // Bezug Niedertarif
+                bezugNiedertarif.computeIfAbsent(meter.getConsumptionSensorId(), k -> new HashMap<>()).put(timestamp, value);
+                log.debug("Found Bezug Niedertarif at {}: {}", timestamp, value);
+            } else if (obis.equals("1-1:2.8.1")) { // Einspeisung Hochtarif
+                einspeisungHochtarif.computeIfAbsent(meter.getProductionSensorId(), k -> new HashMap<>()).put(timestamp, value);
+                log.debug("Found Einspeisung Hochtarif at {}: {}", timestamp, value);
+            } else if (obis.equals("1-1:2.8.2")) { // Einspeisung Niedertarif
+                einspeisungNiedertarif.computeIfAbsent(meter.getProductionSensorId(), k -> new HashMap<>()).put(timestamp, value);
+                log.debug("Found Einspeisung Niedertarif at {}: {}", timestamp, value);
             }
 
-            NodeList timePeriodNodes = meterElement.getElementsByTagName("TimePeriod");
-            for (int j = 0; j < timePeriodNodes.getLength(); j++) {
-                Element timePeriodElement = (Element) timePeriodNodes.item(j);
-                String endTimeStr = timePeriodElement.getAttribute("end");
+            // Store all values of the meter in its own series
+            sensorValues.computeIfAbsent(meterId, k -> new SortedSeries()).put(timestamp, value);
+            log.debug("Added device meter value for {} at {}: {} (OBIS: {})",
+                meterId, timestamp, value, obis);
+        });
 
-                try {
-                    LocalDateTime timestamp = LocalDateTime.parse(endTimeStr, DATE_TIME_FORMATTER);
+        // Calculate combined values and add them to the sensorValues map
+        addCombinedSensorValues(sensorValues, bezugHochtarif, bezugNiedertarif, "Bezug");
+        addCombinedSensorValues(sensorValues, einspeisungHochtarif, einspeisungNiedertarif, "Einspeisung");
 
-                    NodeList valueRowNodes = timePeriodElement.getElementsByTagName("ValueRow");
-                    for (int k = 0; k < valueRowNodes.getLength(); k++) {
-                        Element valueRowElement = (Element) valueRowNodes.item(k);
-                        String obis = valueRowElement.getAttribute("obis");
-                        String valueStr = valueRowElement.getAttribute("value");
+        return sensorValues;
+    }
 
-                        try {
-                            double value = Double.parseDouble(valueStr);
+    /**
+     * Combine Hochtarif and Niedertarif values per sensor ID and timestamp
+     *
+     * @param sensorValues Map to store the combined values by sensor ID
+     * @param hochtarif Hochtarif values by sensor ID and timestamp
+     * @param niedertarif Niedertarif values by sensor ID and timestamp
+     * @param label Bezug or Einspeisung, used for logging
+     */
+    private void addCombinedSensorValues(Map<String, SortedSeries> sensorValues,
+                                         Map<String, Map<LocalDateTime, Double>> hochtarif,
+                                         Map<String, Map<LocalDateTime, Double>> niedertarif,
+                                         String label) {
+        Set<String> sensorIds = new HashSet<>(hochtarif.keySet());
+        sensorIds.addAll(niedertarif.keySet());
+
+        for (String sensorId : sensorIds) {
+            Map<LocalDateTime, Double> hochtarifValues = hochtarif.getOrDefault(sensorId, Collections.emptyMap());
+            Map<LocalDateTime, Double> niedertarifValues = niedertarif.getOrDefault(sensorId, Collections.emptyMap());
+            SortedSeries values = sensorValues.computeIfAbsent(sensorId, k -> new SortedSeries());
 
-                            // Use valueTimeStamp if available, otherwise use endTime
-                            if (valueRowElement.hasAttribute("valueTimeStamp")) {
-                                String valueTimeStr = valueRowElement.getAttribute("valueTimeStamp");
-                                timestamp = LocalDateTime.parse(valueTimeStr, DATE_TIME_FORMATTER);
-                            }
+            for (Map.Entry<LocalDateTime, Double> entry : hochtarifValues.entrySet()) {
+                LocalDateTime timestamp = entry.getKey();
+                double combinedValue = entry.getValue() + niedertarifValues.getOrDefault(timestamp, 0.0);
 
-                            // Store values in the appropriate map based on OBIS code
-                            if (obis.equals("1-1:1.8.1")) { // Bezug Hochtarif
-                                bezugHochtarif.put(timestamp, value);
-                                log.debug("Found Bezug Hochtarif at {}: {}", timestamp, value);
-                            } else if (obis.equals("1-1:1.8.2")) { // Bezug Niedertarif
-                                bezugNiedertarif.put(timestamp, value);
-                                log.debug("Found Bezug Niedertarif at {}: {}", timestamp, value);
-                            } else if (obis.equals("1-1:2.8.1")) { // Einspeisung Hochtarif
-                                einspeisungHochtarif.put(timestamp, value);
-                                log.debug("Found Einspeisung Hochtarif at {}: {}", timestamp, value);
-                            } else if (obis.equals("1-1:2.8.2")) { // Einspeisung Niedertarif
-                                einspeisungNiedertarif.put(timestamp, value);
-                                log.debug("Found Einspeisung Niedertarif at {}: {}", timestamp, value);
-                            }
+                values.put(timestamp, combinedValue);
+                log.debug("Added combined {} value for {} at {}: {}", label, sensorId, timestamp, combinedValue);
+            }
 
-                            // If this is the device meter, store values directly
-                            if (deviceMeterValues != null) {
-                                // For simplicity, store all values for the device meter
-                                // Alternatively, you could filter by specific OBIS codes
-                                deviceMeterValues.put(timestamp, value);
-                                log.debug("Added device meter value for {} at {}: {} (OBIS: {})",
-                                    meterId, timestamp, value, obis);
-                            }
-                        } catch (NumberFormatException e) {
-                            log.warn("Invalid value format for OBIS {}: {}", obis, valueStr, e);
-                        } catch (Exception e) {
-                            log.warn("Error processing value row with OBIS {}", obis, e);
-                        }
-                    }
-                } catch (Exception e) {
-                    log.warn("Error processing time period with end time {}", endTimeStr, e);
+            // Add niedertarif-only entries if they exist
+            for (Map.Entry<LocalDateTime, Double> entry : niedertarifValues.entrySet()) {
+                if (!hochtarifValues.containsKey(entry.getKey())) {
+                    values.put(entry.getKey(), entry.getValue());
+                    log.debug("Added Niedertarif-only {} value for {} at {}: {}", label, sensorId, entry.getKey(), entry.getValue());
                 }
             }
         }
+    }
 
-        // Calculate combined values and add them to the sensorValues map
-        TreeMap<LocalDateTime, Double> id742Values = sensorValues.get("ID742"); // Bezug (consumption)
-        TreeMap<LocalDateTime, Double> id735Values = sensorValues.get("ID735"); // Einspeisung (production)
-
-        // Process bezug (consumption) values for ID742
-        for (Map.Entry<LocalDateTime, Double> entry : bezugHochtarif.entrySet()) {
-            LocalDateTime timestamp = entry.getKey();
-            double hochtarifValue = entry.getValue();
-            double niedertarifValue = bezugNiedertarif.getOrDefault(timestamp, 0.0);
-            double combinedValue = hochtarifValue + niedertarifValue;
-
-            id742Values.put(timestamp, combinedValue);
-            log.debug("Added combined Bezug value for ID742 at {}: {}", timestamp, combinedValue);
-        }
-
-        // Process einspeisung (production) values for ID735
-        for (Map.Entry<LocalDateTime, Double> entry : einspeisungHochtarif.entrySet()) {
-            LocalDateTime timestamp = entry.getKey();
-            double hochtarifValue = entry.getValue();
-            double niedertarifValue = einspeisungNiedertarif.getOrDefault(timestamp, 0.0);
-            double combinedValue = hochtarifValue + niedertarifValue;
-
-            id735Values.put(timestamp, combinedValue);
-            log.debug("Added combined Einspeisung value for ID735 at {}: {}", timestamp, combinedValue);
-        }
-
-        // Add niedertarif-only entries if they exist
-        for (Map.Entry<LocalDateTime, Double> entry : bezugNiedertarif.entrySet()) {
-            LocalDateTime timestamp = entry.getKey();
-            if (!bezugHochtarif.containsKey(timestamp)) {
-                id742Values.put(timestamp, entry.getValue());
-                log.debug("Added Niedertarif-only Bezug value for ID742 at {}: {}", timestamp, entry.getValue());
-            }
-        }
-
-        for (Map.Entry<LocalDateTime, Double> entry : einspeisungNiedertarif.entrySet()) {
-            LocalDateTime timestamp = entry.getKey();
-            if (!einspeisungHochtarif.containsKey(timestamp)) {
-                id735Values.put(timestamp, entry.getValue());
-                log.debug("Added Niedertarif-only Einspeisung value for ID735 at {}: {}", timestamp, entry.getValue());
-            }
+    private int countDataPoints(Map<String, SortedSeries> sensorValues) {
+        int count = 0;
+        for (SortedSeries values : sensorValues.values()) {
+            count += values.size();
         }
+        return count;
     }
 
     /**
-     * Process a SDAT format XML document for sensor data
+     * Parse an SDAT format XML file into metering data series for sensor data
      *
-     * @param document The XML document to parse
-     * @param sensorValues Map to store the parsed values by sensor ID
+     * The sensor ID is taken from the DocumentID (e.g. eslevu156407_BR2294_ID735) and registered
+     * in the {@link MeterRegistry}. If the DocumentID has no sensor ID, the default sensor for the
+     * data type of the first usable metering data block is used for the rest of the document.
+     *
+     * @param inputStream The input stream containing the XML data
+     * @return The metering data series in document order
+     * @throws XMLStreamException If the document is not well-formed XML
      */
-    private void processSdatFileForSensorData(Document document, Map<String, TreeMap<LocalDateTime, Double>> sensorValues) {
+    private List<ParsedSensorFile.SdatSeries> parseSdatFileForSensorData(InputStream inputStream)
+            throws XMLStreamException {
         log.debug("Processing SDAT format for sensor data");
+        List<ParsedSensorFile.SdatSeries> result = new ArrayList<>();
+
+        sdatStreamReader.read(inputStream, new SdatStreamReader.Handler() {
+            private String sensorId;
+            private boolean skipBlock;
+            private TreeMap<Integer, Double> observations;
+
+            @Override
+            public void startBlock(SdatStreamReader.MeteringBlock block) {
+                if (sensorId == null) {
+                    // Extract DocumentID to determine the sensorId
+                    String fullDocumentId = block.getDocumentId();
+                    sensorId = "";
+                    String suffix = fullDocumentId.substring(fullDocumentId.lastIndexOf("_") + 1);
+                    if (fullDocumentId.contains("_ID") && suffix.startsWith("ID")) {
+                        sensorId = suffix;
+                        meterRegistry.registerSensor(sensorId);
+                        log.debug("Extracted sensor ID from DocumentID: {}", sensorId);
+                    } else {
+                        log.warn("No sensor ID found in DocumentID {}, trying to determine from data type", fullDocumentId);
+                    }
+                }
 
-        // Extract DocumentID to determine the sensorId
-        String sensorId = "";
-        NodeList documentIdNodes = document.getElementsByTagName("rsm:DocumentID");
-        if (documentIdNodes.getLength() > 0) {
-            String fullDocumentId = documentIdNodes.item(0).getTextContent();
-            if (fullDocumentId.contains("_ID")) {
-                sensorId = fullDocumentId.substring(fullDocumentId.lastIndexOf("_") + 1);
-                log.debug("Extracted sensor ID from DocumentID: {}", sensorId);
-            }
-        }
-
-        // Skip if sensorId is not one of our target IDs
-        if (!sensorId.equals("ID742") && !sensorId.equals("ID735")) {
-            log.warn("SensorId {} is not one of the expected IDs (ID742 or ID735), trying to determine from data type", sensorId);
-            // Attempt to determine from data type if not found in document ID
-            sensorId = "";
-        }
-
-        NodeList meteringDataNodes = document.getElementsByTagName("rsm:MeteringData");
-        for (int i = 0; i < meteringDataNodes.getLength(); i++) {
-            Element meteringDataElement = (Element) meteringDataNodes.item(i);
-
-            try {
-                // Check if it's production or consumption data to determine sensorId if not already set
-                boolean isProduction = meteringDataElement.getElementsByTagName("rsm:ProductionMeteringPoint").getLength() > 0;
-                boolean isConsumption = meteringDataElement.getElementsByTagName("rsm:ConsumptionMeteringPoint").getLength() > 0;
+                skipBlock = true;
+                observations = new TreeMap<>();
 
                 // If sensorId is not already set, determine it from the data type
                 if (sensorId.isEmpty()) {
-                    if (isProduction) {
-                        sensorId = "ID735"; // Production data maps to ID735
-                    } else if (isConsumption) {
-                        sensorId = "ID742"; // Consumption data maps to ID742
+                    if (block.isProduction()) {
+                        sensorId = meterRegistry.getDefaultProductionSensor();
+                    } else if (block.isConsumption()) {
+                        sensorId = meterRegistry.getDefaultConsumptionSensor();
                     } else {
-                        log.warn("Could not determine sensor ID for metering data at index {}, skipping", i);
-                        continue;
+                        log.warn("Could not determine sensor ID for metering data at index {}, skipping", block.getIndex());
+                        return;
                     }
                 }
 
-                TreeMap<LocalDateTime, Double> sensorDataPoints = sensorValues.get(sensorId);
-                if (sensorDataPoints == null) {
-                    log.warn("No data map found for sensor ID {}, skipping", sensorId);
-                    continue;
+                if (block.getStartTime() == null) {
+                    log.warn("Invalid start time format: {}, skipping", block.getStartTimeText());
+                    return;
                 }
-
-                // Get interval information
-                Element intervalElement = (Element) meteringDataElement.getElementsByTagName("rsm:Interval").item(0);
-                if (intervalElement == null) {
-                    log.warn("No interval element found for metering data node {}, skipping", i);
-                    continue;
+                if (block.getResolution() == null) {
+                    log.warn("No valid resolution found for metering data node {}, skipping", block.getIndex());
+                    return;
                 }
+                skipBlock = false;
+            }
 
-                String startTimeStr = getTextContent(intervalElement, "rsm:StartDateTime");
-                LocalDateTime startTime;
-                try {
-                    startTime = LocalDateTime.parse(startTimeStr, DATE_TIME_FORMATTER);
-                } catch (Exception e) {
-                    log.warn("Invalid start time format: {}, skipping", startTimeStr, e);
-                    continue;
+            @Override
+            public void observation(SdatStreamReader.MeteringBlock block, int sequence, double volume) {
+                if (!skipBlock) {
+                    observations.put(sequence, volume);
                 }
+            }
 
-                // Get resolution
-                Element resolutionElement = (Element) meteringDataElement.getElementsByTagName("rsm:Resolution").item(0);
-                if (resolutionElement == null) {
-                    log.warn("No resolution element found for metering data node {}, skipping", i);
-                    continue;
+            @Override
+            public void endBlock(SdatStreamReader.MeteringBlock block) {
+                if (skipBlock) {
+                    return;
                 }
 
-                int resolution;
-                try {
-                    resolution = Integer.parseInt(getTextContent(resolutionElement, "rsm:Resolution"));
-                } catch (NumberFormatException e) {
-                    log.warn("Invalid resolution format, skipping metering data", e);
-                    continue;
+                // Observations sorted by sequence
+                int[] sequences = new int[observations.size()];
+                double[] volumes = new double[observations.size()];
+                int index = 0;
+                for (Map.Entry<Integer, Double> entry : observations.entrySet()) {
+                    sequences[index] = entry.getKey();
+                    volumes[index] = entry.getValue();
+                    index++;
                 }
 
-                // Find the base value for this day
-                LocalDateTime dayStart = startTime.withHour(0).withMinute(0).withSecond(0).withNano(0);
+                result.add(new ParsedSensorFile.SdatSeries(sensorId, block.getStartTime(), block.getResolution(),
+                        sequences, volumes));
+            }
+        });
+
+        return result;
+    }
 
-                // Look for base value (the latest absolute value before this day's start)
-                Double baseValue = null;
-                Map.Entry<LocalDateTime, Double> baseEntry = sensorDataPoints.floorEntry(dayStart);
-                if (baseEntry != null) {
-                    baseValue = baseEntry.getValue();
-                    log.debug("Found base value for {} at {}: {}", sensorId, baseEntry.getKey(), baseValue);
-                } else {
-                    // Look for the earliest value in this day as a fallback
-                    baseEntry = sensorDataPoints.ceilingEntry(dayStart);
-                    if (baseEntry != null && baseEntry.getKey().toLocalDate().equals(dayStart.toLocalDate())) {
-                        baseValue = baseEntry.getValue();
-                        log.debug("Using same day earliest value for {} as base: {}", sensorId, baseValue);
-                    }
+    /**
+     * Apply the SDAT series of all files, with one fork-join task per sensor ID
+     *
+     * The reconstruction of a sensor only reads and writes the values of that sensor, so the
+     * sensors are independent of each other. Within a sensor the series are applied in the
+     * same order as in the sequential mode (file order, then document order), which keeps
+     * the result identical, including the realignment on existing ESL values.
+     *
+     * @param parsedFiles The parsed files in upload order
+     * @param sensorValues Map to store the calculated values by sensor ID
+     */
+    private void applySdatFilesPerSensor(List<ParsedSensorFile> parsedFiles,
+                                         Map<String, SortedSeries> sensorValues) {
+        // Partition the series by sensor ID, keeping their order
+        Map<String, List<ParsedSensorFile.SdatSeries>> seriesBySensor = new LinkedHashMap<>();
+        for (ParsedSensorFile parsedFile : parsedFiles) {
+            if (parsedFile.getFormat() == XmlFormatDetector.XmlFormat.SDAT) {
+                log.info("Processing SDAT file: {}", parsedFile.getFileName());
+                for (ParsedSensorFile.SdatSeries series : parsedFile.getSdatSeries()) {
+                    seriesBySensor.computeIfAbsent(series.getSensorId(), k -> new ArrayList<>()).add(series);
+                    // Create the series of every sensor up front, the tasks only read sensorValues
+                    sensorValues.computeIfAbsent(series.getSensorId(), k -> new SortedSeries());
                 }
+            }
+        }
 
-                // If no base value is found, use 0 as fallback
-                if (baseValue == null) {
-                    baseValue = 0.0;
-                    log.warn("No base value found for {}, using 0 as fallback", sensorId);
+        log.debug("Rebuilding absolute values for {} sensors in parallel", seriesBySensor.size());
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(seriesBySensor.size());
+        for (Map.Entry<String, List<ParsedSensorFile.SdatSeries>> entry : seriesBySensor.entrySet()) {
+            SortedSeries sensorDataPoints = sensorValues.get(entry.getKey());
+            tasks.add(reconstructionPool.submit(() -> {
+                for (ParsedSensorFile.SdatSeries series : entry.getValue()) {
+                    applySdatSeries(series, sensorDataPoints);
                 }
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
 
-                // Process observations
-                NodeList observationNodes = meteringDataElement.getElementsByTagName("rsm:Observation");
-
-                // Keep track of cumulative value
-                double cumulativeValue = baseValue;
-
-                // Sort observations by sequence
-                Map<Integer, Element> sortedObservations = new TreeMap<>();
-                for (int j = 0; j < observationNodes.getLength(); j++) {
-                    Element observationElement = (Element) observationNodes.item(j);
-                    Element positionElement = (Element) observationElement.getElementsByTagName("rsm:Position").item(0);
-                    if (positionElement == null) continue;
+    /**
+     * Rebuild absolute meter values from the interval volumes of an SDAT series
+     *
+     * The volumes are accumulated on top of the latest absolute value before the day of the
+     * series. Existing values (e.g. from ESL files) take precedence and realign the cumulative value.
+     *
+     * @param series The metering data series
+     * @param sensorDataPoints The absolute values of the sensor of the series
+     */
+    private void applySdatSeries(ParsedSensorFile.SdatSeries series, SortedSeries sensorDataPoints) {
+        String sensorId = series.getSensorId();
+
+        // Find the base value for this day
+        LocalDateTime startTime = series.getStartTime();
+        LocalDateTime dayStart = startTime.withHour(0).withMinute(0).withSecond(0).withNano(0);
+
+        // Look for base value (the latest absolute value before this day's start)
+        Double baseValue = null;
+        int baseIndex = sensorDataPoints.floorIndex(dayStart);
+        if (baseIndex >= 0) {
+            baseValue = sensorDataPoints.valueAt(baseIndex);
+            log.debug("Found base value for {} at {}: {}", sensorId, sensorDataPoints.timestampAt(baseIndex), baseValue);
+        } else {
+            // Look for the earliest value in this day as a fallback
+            baseIndex = sensorDataPoints.ceilingIndex(dayStart);
+            if (baseIndex >= 0 && sensorDataPoints.timestampAt(baseIndex).toLocalDate().equals(dayStart.toLocalDate())) {
+                baseValue = sensorDataPoints.valueAt(baseIndex);
+                log.debug("Using same day earliest value for {} as base: {}", sensorId, baseValue);
+            }
+        }
 
-                    try {
-                        int sequence = Integer.parseInt(getTextContent(positionElement, "rsm:Sequence"));
-                        sortedObservations.put(sequence, observationElement);
-                    } catch (NumberFormatException e) {
-                        log.warn("Invalid sequence format in observation", e);
-                    }
-                }
+        // If no base value is found, use 0 as fallback
+        if (baseValue == null) {
+            baseValue = 0.0;
+            log.warn("No base value found for {}, using 0 as fallback", sensorId);
+        }
 
-                // Process observations in sequence order
-                for (Map.Entry<Integer, Element> entry : sortedObservations.entrySet()) {
-                    int sequence = entry.getKey();
-                    Element observationElement = entry.getValue();
+        // Keep track of cumulative value
+        double cumulativeValue = baseValue;
 
-                    try {
-                        String volumeStr = getTextContent(observationElement, "rsm:Volume");
-                        double volume = Double.parseDouble(volumeStr);
+        // Accumulated values, merged into the sensor series in one pass at the end
+        SortedSeries accumulated = new SortedSeries(series.size());
 
-                        // Calculate timestamp for this observation
-                        LocalDateTime timestamp = startTime.plusMinutes((sequence - 1) * resolution);
+        // Process observations in sequence order
+        for (int i = 0; i < series.size(); i++) {
+            LocalDateTime timestamp = series.getTimestamp(i);
 
-                        // Add volume to cumulative value
-                        cumulativeValue += volume;
+            // Add volume to cumulative value
+            cumulativeValue += series.getVolumes()[i];
 
-                        // Check if we already have an absolute value at this timestamp from an ESL file
-                        if (!sensorDataPoints.containsKey(timestamp)) {
-                            // Only add if not already present (ESL values take precedence)
-                            sensorDataPoints.put(timestamp, cumulativeValue);
-                            log.debug("Added accumulated value for {} at {}: {}", sensorId, timestamp, cumulativeValue);
-                        } else {
-                            // If ESL value exists, use it to realign our cumulative calculation
-                            double eslValue = sensorDataPoints.get(timestamp);
-                            cumulativeValue = eslValue;
-                            log.debug("Found existing ESL value for {} at {}: {}, realigning cumulative value",
-                                    sensorId, timestamp, eslValue);
-                        }
-                    } catch (NumberFormatException e) {
-                        log.warn("Invalid volume format in observation", e);
-                    }
-                }
-            } catch (Exception e) {
-                log.error("Error processing metering data node {}", i, e);
+            // Check if we already have an absolute value at this timestamp from an ESL file
+            int existingIndex = sensorDataPoints.indexOf(timestamp);
+            if (existingIndex < 0) {
+                // Only added if not already present (ESL values take precedence)
+                accumulated.put(timestamp, cumulativeValue);
+                log.debug("Added accumulated value for {} at {}: {}", sensorId, timestamp, cumulativeValue);
+            } else {
+                // If ESL value exists, use it to realign our cumulative calculation
+                cumulativeValue = sensorDataPoints.valueAt(existingIndex);
+                log.debug("Found existing ESL value for {} at {}: {}, realigning cumulative value",
+                        sensorId, timestamp, cumulativeValue);
             }
         }
+
+        sensorDataPoints.putAll(accumulated);
     }
 
     /**
-     * Create an EnergySensorData object from a map of timestamp to value
+     * Create an EnergySensorData object from a series of absolute values
      *
      * @param sensorId The sensor ID
-     * @param values The map of timestamp to value
+     * @param values The absolute values ordered by timestamp
      * @return The EnergySensorData object
      */
-    private EnergySensorData createEnergySensorData(String sensorId, TreeMap<LocalDateTime, Double> values) {
+    private EnergySensorData createEnergySensorData(String sensorId, SortedSeries values) {
         EnergySensorData sensorData = new EnergySensorData();
         sensorData.setSensorId(sensorId);
 
-        List<EnergySensorData.DataPoint> dataPoints = new ArrayList<>();
-
-        for (Map.Entry<LocalDateTime, Double> entry : values.entrySet()) {
-            LocalDateTime timestamp = entry.getKey();
-            Double value = entry.getValue();
+        List<EnergySensorData.DataPoint> dataPoints = new ArrayList<>(values.size());
 
-            // Convert LocalDateTime to UTC seconds since epoch
-            long epochSeconds = timestamp.toInstant(ZoneOffset.UTC).getEpochSecond();
+        for (int i = 0; i < values.size(); i++) {
+            // The timestamps are encoded in milliseconds since the epoch in UTC, convert them to seconds
+            long epochSeconds = Math.floorDiv(values.epochMilliAt(i), 1000);
 
             EnergySensorData.DataPoint dataPoint = new EnergySensorData.DataPoint();
             dataPoint.setTs(String.valueOf(epochSeconds));
-            dataPoint.setValue(value);
+            dataPoint.setValue(values.valueAt(i));
 
             dataPoints.add(dataPoint);
         }
@@ -0,0 +1,117 @@
+package ch.bzz.backend.util;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Helpers for series stored as parallel arrays of encoded timestamps and values
+ *
+ * Timestamps are LocalDateTime values encoded as milliseconds since 1970-01-01T00:00. No time zone
+ * is applied, the stored timestamps are UTC, so the encoding is exact and reversible (at
+ * millisecond precision) and the encoded values are the UTC epoch milliseconds.
+ */
+public final class SeriesTimestamps {
+
+    /**
+     * Runs shorter than this are sorted by insertion before merging
+     */
+    private static final int INSERTION_SORT_RUN = 32;
+
+    private SeriesTimestamps() {
+    }
+
+    /**
+     * @param timestamp A timestamp
+     * @return The encoded timestamp
+     */
+    public static long encode(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC) * 1000 + timestamp.getNano() / 1_000_000;
+    }
+
+    /**
+     * @param epochMilli An encoded timestamp
+     * @return The timestamp
+     */
+    public static LocalDateTime decode(long epochMilli) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochMilli, 1000),
+                (int) Math.floorMod(epochMilli, 1000) * 1_000_000, ZoneOffset.UTC);
+    }
+
+    /**
+     * Sort the first size points of parallel arrays by timestamp, in place
+     * The sort is stable, points with the same timestamp keep their order. Already sorted arrays
+     * are only scanned, otherwise two buffers of size elements are allocated for the merges.
+     * @param timestamps The encoded timestamps
+     * @param values The values, parallel to the timestamps
+     * @param size The number of points
+     */
+    public static void sort(long[] timestamps, double[] values, int size) {
+        boolean sorted = true;
+        for (int i = 1; i < size && sorted; i++) {
+            sorted = timestamps[i - 1] <= timestamps[i];
+        }
+        if (sorted) {
+            return;
+        }
+
+        for (int start = 0; start < size; start += INSERTION_SORT_RUN) {
+            insertionSort(timestamps, values, start, Math.min(start + INSERTION_SORT_RUN, size));
+        }
+
+        // Merge runs of doubling width, alternating between the arrays and the buffers
+        long[] sourceTimestamps = timestamps;
+        double[] sourceValues = values;
+        long[] targetTimestamps = new long[size];
+        double[] targetValues = new double[size];
+        for (int width = INSERTION_SORT_RUN; width < size; width *= 2) {
+            for (int start = 0; start < size; start += 2 * width) {
+                int middle = Math.min(start + width, size);
+                int end = Math.min(start + 2 * width, size);
+                merge(sourceTimestamps, sourceValues, targetTimestamps, targetValues, start, middle, end);
+            }
+            long[] swapTimestamps = sourceTimestamps;
+            double[] swapValues = sourceValues;
+            sourceTimestamps = targetTimestamps;
+            sourceValues = targetValues;
+            targetTimestamps = swapTimestamps;
+            targetValues = swapValues;
+        }
+        if (sourceTimestamps != timestamps) {
+            System.arraycopy(sourceTimestamps, 0, timestamps, 0, size);
+            System.arraycopy(sourceValues, 0, values, 0, size);
+        }
+    }
+
+    private static void insertionSort(long[] timestamps, double[] values, int start, int end) {
+        for (int i = start + 1; i < end; i++) {
+            long timestamp = timestamps[i];
+            double value = values[i];
+            int j = i - 1;
+            while (j >= start && timestamps[j] > timestamp) {
+                timestamps[j + 1] = timestamps[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            timestamps[j + 1] = timestamp;
+            values[j + 1] = value;
+        }
+    }
+
+    private static void merge(long[] sourceTimestamps, double[] sourceValues, long[] targetTimestamps,
+                              double[] targetValues, int start, int middle, int end) {
+        int i = start;
+        int j = middle;
+        for (int target = start; target < end; target++) {
+            // Take from the left run on equal timestamps, so the sort is stable
+            if (j >= end || (i < middle && sourceTimestamps[i] <= sourceTimestamps[j])) {
+                targetTimestamps[target] = sourceTimestamps[i];
+                targetValues[target] = sourceValues[i];
+                i++;
+            } else {
+                targetTimestamps[target] = sourceTimestamps[j];
+                targetValues[target] = sourceValues[j];
+                j++;
+            }
+        }
+    }
+}
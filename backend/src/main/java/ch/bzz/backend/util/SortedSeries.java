@@ -0,0 +1,349 @@
+package ch.bzz.backend.util;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Mutable time series of double values in growable primitive arrays, ordered by timestamp
+ *
+ * Replaces a TreeMap from LocalDateTime to Double: a point takes 16 bytes instead of a tree node,
+ * a boxed Double, and a LocalDateTime. The timestamps are encoded with SeriesTimestamps and every
+ * timestamp occurs at most once. Appending in timestamp order is amortized constant, inserting
+ * before the last point shifts the following points, so sorted batches should be added with putAll.
+ * Further per-point data can be kept in parallel arrays owned by the caller, see Columns.
+ * Instances are not thread-safe.
+ */
+public final class SortedSeries {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Further arrays of per-point data, kept parallel to the points of a series
+     * The series calls resize and move whenever it grows or moves its own arrays.
+     */
+    public interface Columns {
+        /**
+         * @param capacity The new capacity of the series, the arrays must hold at least as many points
+         */
+        void resize(int capacity);
+
+        /**
+         * Move the data of points like System.arraycopy within the arrays
+         * @param from The index of the first point to move
+         * @param to The index the first point is moved to
+         * @param length The number of points to move
+         */
+        void move(int from, int to, int length);
+    }
+
+    /**
+     * Receives the points of the other series that putAll stored in this series
+     */
+    @FunctionalInterface
+    public interface MergedPoint {
+        /**
+         * @param otherIndex The index of the point in the other series
+         * @param index The index of the point in this series
+         */
+        void merged(int otherIndex, int index);
+    }
+
+    private static final Columns NO_COLUMNS = new Columns() {
+        @Override
+        public void resize(int capacity) {
+        }
+
+        @Override
+        public void move(int from, int to, int length) {
+        }
+    };
+
+    private final Columns columns;
+    private long[] timestamps;
+    private double[] values;
+    private int size;
+
+    public SortedSeries() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param capacity The number of points to reserve space for
+     */
+    public SortedSeries(int capacity) {
+        this(capacity, NO_COLUMNS);
+    }
+
+    /**
+     * @param capacity The number of points to reserve space for, the columns must hold as many points
+     * @param columns Further per-point arrays kept parallel to the points
+     */
+    public SortedSeries(int capacity, Columns columns) {
+        this.columns = columns;
+        timestamps = new long[Math.max(capacity, 1)];
+        values = new double[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Wrap arrays of points without copying them, the series uses the arrays from then on
+     * @param timestamps The encoded timestamps, strictly ascending in the first size elements
+     * @param values The values, parallel to the timestamps
+     * @param size The number of points
+     */
+    public SortedSeries(long[] timestamps, double[] values, int size) {
+        this.columns = NO_COLUMNS;
+        this.timestamps = timestamps;
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * @return The number of points
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the series has no points
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove all points, the capacity is kept
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @param index The index of a point
+     * @return The timestamp of the point
+     */
+    public LocalDateTime timestampAt(int index) {
+        return SeriesTimestamps.decode(epochMilliAt(index));
+    }
+
+    /**
+     * @param index The index of a point
+     * @return The encoded timestamp of the point
+     */
+    public long epochMilliAt(int index) {
+        Objects.checkIndex(index, size);
+        return timestamps[index];
+    }
+
+    /**
+     * @param index The index of a point
+     * @return The value of the point
+     */
+    public double valueAt(int index) {
+        Objects.checkIndex(index, size);
+        return values[index];
+    }
+
+    /**
+     * @param timestamp A timestamp
+     * @return The index of the point with the timestamp, or a negative value if there is none
+     */
+    public int indexOf(LocalDateTime timestamp) {
+        return Arrays.binarySearch(timestamps, 0, size, SeriesTimestamps.encode(timestamp));
+    }
+
+    /**
+     * @param timestamp A timestamp
+     * @return The index of the last point at or before the timestamp, or -1 if there is none
+     */
+    public int floorIndex(LocalDateTime timestamp) {
+        int index = indexOf(timestamp);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * @param timestamp A timestamp
+     * @return The index of the first point at or after the timestamp, or -1 if there is none
+     */
+    public int ceilingIndex(LocalDateTime timestamp) {
+        int index = indexOf(timestamp);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return index < size ? index : -1;
+    }
+
+    /**
+     * Add a point, or replace the value of the point with the same timestamp
+     * @param timestamp The timestamp of the point
+     * @param value The value of the point
+     * @return The index of the point
+     */
+    public int put(LocalDateTime timestamp, double value) {
+        int index = insertionIndex(SeriesTimestamps.encode(timestamp));
+        values[index] = value;
+        return index;
+    }
+
+    /**
+     * Add a point if there is no point with the same timestamp
+     * @param timestamp The timestamp of the point
+     * @param value The value of the point
+     * @return The value stored at the timestamp, the existing value or the added one
+     */
+    public double putIfAbsent(LocalDateTime timestamp, double value) {
+        int sizeBefore = size;
+        int index = insertionIndex(SeriesTimestamps.encode(timestamp));
+        if (size > sizeBefore) {
+            values[index] = value;
+        }
+        return values[index];
+    }
+
+    /**
+     * Merge all points of another series into this one, the values of the other series win
+     * Both series are sorted, so they are merged in a single pass from the end
+     * @param other The series to merge
+     * @return The number of points added (not replaced)
+     */
+    public int putAll(SortedSeries other) {
+        return putAll(other, (otherIndex, index) -> {
+        });
+    }
+
+    /**
+     * Merge all points of another series into this one, the values of the other series win
+     * Both series are sorted, so they are merged in a single pass from the end
+     * @param other The series to merge
+     * @param mergedPoint Called for every point of the other series with its index in this series,
+     *                    to copy the data of further columns
+     * @return The number of points added (not replaced)
+     */
+    public int putAll(SortedSeries other, MergedPoint mergedPoint) {
+        if (other.size == 0) {
+            return 0;
+        }
+        if (size == 0 || timestamps[size - 1] < other.timestamps[0]) {
+            // Fast path, all points are after the last point of this series
+            ensureCapacity(size + other.size);
+            System.arraycopy(other.timestamps, 0, timestamps, size, other.size);
+            System.arraycopy(other.values, 0, values, size, other.size);
+            for (int j = 0; j < other.size; j++) {
+                mergedPoint.merged(j, size + j);
+            }
+            size += other.size;
+            return other.size;
+        }
+
+        // Count the timestamps present in both series to know the merged size
+        int common = 0;
+        for (int i = 0, j = 0; i < size && j < other.size; ) {
+            if (timestamps[i] < other.timestamps[j]) {
+                i++;
+            } else if (timestamps[i] > other.timestamps[j]) {
+                j++;
+            } else {
+                common++;
+                i++;
+                j++;
+            }
+        }
+
+        // Merge from the end, so every point is moved at most once
+        int mergedSize = size + other.size - common;
+        ensureCapacity(mergedSize);
+        int i = size - 1;
+        int j = other.size - 1;
+        for (int target = mergedSize - 1; j >= 0; target--) {
+            if (i >= 0 && timestamps[i] > other.timestamps[j]) {
+                timestamps[target] = timestamps[i];
+                values[target] = values[i];
+                columns.move(i, target, 1);
+                i--;
+            } else {
+                if (i >= 0 && timestamps[i] == other.timestamps[j]) {
+                    i--;
+                }
+                timestamps[target] = other.timestamps[j];
+                values[target] = other.values[j];
+                mergedPoint.merged(j, target);
+                j--;
+            }
+        }
+        size = mergedSize;
+        return other.size - common;
+    }
+
+    /**
+     * Two series are equal if they have the same points, further columns are not compared
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SortedSeries)) {
+            return false;
+        }
+        SortedSeries other = (SortedSeries) o;
+        return size == other.size
+                && Arrays.equals(timestamps, 0, size, other.timestamps, 0, size)
+                && Arrays.equals(values, 0, size, other.values, 0, size);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 1;
+        for (int i = 0; i < size; i++) {
+            result = 31 * result + Long.hashCode(timestamps[i]);
+            result = 31 * result + Double.hashCode(values[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @return The encoded timestamps, shared with the series and valid in the first size elements
+     */
+    public long[] timestamps() {
+        return timestamps;
+    }
+
+    /**
+     * @return The values, shared with the series and valid in the first size elements
+     */
+    public double[] values() {
+        return values;
+    }
+
+    /**
+     * @return The index of the point with the timestamp, inserted (with value 0) if there is none
+     */
+    private int insertionIndex(long timestamp) {
+        int index = size == 0 || timestamps[size - 1] < timestamp
+                ? -size - 1
+                : Arrays.binarySearch(timestamps, 0, size, timestamp);
+        if (index >= 0) {
+            return index;
+        }
+
+        index = -index - 1;
+        ensureCapacity(size + 1);
+        System.arraycopy(timestamps, index, timestamps, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        columns.move(index, index + 1, size - index);
+        timestamps[index] = timestamp;
+        values[index] = 0;
+        size++;
+        return index;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > timestamps.length) {
+            int newCapacity = Math.max(capacity, timestamps.length * 2);
+            timestamps = Arrays.copyOf(timestamps, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+            columns.resize(newCapacity);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package ch.bzz.backend.benchmark;
+
+import ch.bzz.backend.model.EnergyData;
+import ch.bzz.backend.model.Measurement;
+import ch.bzz.backend.repository.EnergyDataRepository;
+import ch.bzz.backend.service.EnergyDataService;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Benchmark for EnergyDataService.saveEnergyData
+ *
+ * Compares the insert throughput (rows per second, energy data and measurements) with a JDBC
+ * batch size of 1, which is what IDENTITY IDs forced before, with the configured batch size,
+ * and measures a re-upload of data that already exists.
+ * The number of energy data entries and measurements per entry can be set with
+ * -Dbenchmark.entries and -Dbenchmark.measurements.
+ *
+ * Not part of the regular test run, start it with: mvn test -Pbenchmark
+ */
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+public class EnergyDataInsertBenchmark {
+
+    private static final int ENTRIES = Integer.getInteger("benchmark.entries", 500);
+    private static final int MEASUREMENTS = Integer.getInteger("benchmark.measurements", 96);
+    private static final int WARMUP_ITERATIONS = Integer.getInteger("benchmark.warmup", 1);
+
+    @Autowired
+    private EnergyDataService energyDataService;
+
+    @Autowired
+    private EnergyDataRepository energyDataRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    public void benchmarkSaveEnergyData() {
+        long rows = (long) ENTRIES * (1 + MEASUREMENTS);
+        System.out.println("[DEBUG_LOG] Benchmarking with " + ENTRIES + " entries and " + rows + " rows");
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            saveUnbatched(createTestData("warmup-unbatched-" + i));
+            energyDataService.saveEnergyData(createTestData("warmup-batched-" + i));
+        }
+
+        List<EnergyData> unbatchedData = createTestData("unbatched");
+        long start = System.nanoTime();
+        saveUnbatched(unbatchedData);
+        long unbatchedNanos = System.nanoTime() - start;
+
+        List<EnergyData> batchedData = createTestData("batched");
+        start = System.nanoTime();
+        energyDataService.saveEnergyData(batchedData);
+        long batchedNanos = System.nanoTime() - start;
+
+        // Re-upload of the same data, every entry is a duplicate
+        List<EnergyData> duplicateData = createTestData("batched");
+        start = System.nanoTime();
+        List<EnergyData> duplicatesSaved = energyDataService.saveEnergyData(duplicateData);
+        long reuploadNanos = System.nanoTime() - start;
+
+        System.out.println("[DEBUG_LOG] Batch size 1:  " + unbatchedNanos / 1_000_000 + " ms, "
+                + rowsPerSecond(rows, unbatchedNanos) + " rows/s");
+        System.out.println("[DEBUG_LOG] Batched:       " + batchedNanos / 1_000_000 + " ms, "
+                + rowsPerSecond(rows, batchedNanos) + " rows/s (speedup "
+                + String.format("%.1f", (double) unbatchedNanos / batchedNanos) + "x)");
+        System.out.println("[DEBUG_LOG] Re-upload:     " + reuploadNanos / 1_000_000 + " ms");
+
+        assertEquals(0, duplicatesSaved.size());
+        assertEquals(ENTRIES, energyDataRepository.findByMeterId("batched").size());
+        assertEquals(ENTRIES, energyDataRepository.findByMeterId("unbatched").size());
+    }
+
+    private void saveUnbatched(List<EnergyData> energyDataList) {
+        transactionTemplate.executeWithoutResult(status -> {
+            entityManager.unwrap(Session.class).setJdbcBatchSize(1);
+            energyDataService.saveEnergyData(energyDataList);
+        });
+    }
+
+    private long rowsPerSecond(long rows, long nanos) {
+        return rows * 1_000_000_000L / Math.max(nanos, 1);
+    }
+
+    private List<EnergyData> createTestData(String meterId) {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        List<EnergyData> energyDataList = new ArrayList<>();
+
+        for (int i = 0; i < ENTRIES; i++) {
+            LocalDateTime timestamp = start.plusDays(i);
+            EnergyData energyData = EnergyData.builder()
+                    .meterId(meterId)
+                    .timestamp(timestamp)
+                    .build();
+
+            for (int j = 0; j < MEASUREMENTS; j++) {
+                energyData.addMeasurement(Measurement.builder()
+                        .type(j % 2 == 0 ? EnergyData.DataType.CONSUMPTION : EnergyData.DataType.PRODUCTION)
+                        .identifier(String.valueOf(j))
+                        .myvalue(j * 0.25)
+                        .timestamp(timestamp.plusMinutes(15L * j))
+                        .unit("kWh")
+                        .build());
+            }
+            energyDataList.add(energyData);
+        }
+        return energyDataList;
+    }
+}
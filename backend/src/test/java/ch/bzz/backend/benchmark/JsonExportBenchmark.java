@@ -0,0 +1,153 @@
+package ch.bzz.backend.benchmark;
+
+import ch.bzz.backend.controller.ColumnarSeriesWriter;
+import ch.bzz.backend.controller.JsonDataPointWriter;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Benchmark for the JSON export of data points
+ *
+ * Compares the allocated bytes and the time of the previous approach, a HashMap per data point
+ * serialized by the ObjectMapper, with streaming the points through the JsonDataPointWriter.
+ * The allocated bytes are read from the ThreadMXBean of the benchmark thread. The default is
+ * one year of 15 minute values for -Dbenchmark.sensors sensors (default 2).
+ * Also reports the payload size of the columnar format with and without delta encoding.
+ *
+ * Not part of the regular test run, start it with: mvn test -Pbenchmark
+ */
+public class JsonExportBenchmark {
+
+    private static final int SENSORS = Integer.getInteger("benchmark.sensors", 2);
+    private static final int POINTS = Integer.getInteger("benchmark.points", 365 * 96);
+    private static final int WARMUP_ITERATIONS = Integer.getInteger("benchmark.warmup", 5);
+    private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 10);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void benchmarkJsonExport() throws Exception {
+        LocalDateTime[] timestamps = new LocalDateTime[POINTS];
+        double[] values = new double[POINTS];
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (int i = 0; i < POINTS; i++) {
+            timestamps[i] = start.plusMinutes(15L * i);
+            values[i] = 1000 + i * 0.25;
+        }
+        System.out.println("[DEBUG_LOG] Benchmarking with " + SENSORS + " sensors of " + POINTS + " points");
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            writeMaps(timestamps, values);
+            writeStreaming(timestamps, values);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        byte[] mapOutput = null;
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId);
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mapOutput = writeMaps(timestamps, values);
+        }
+        long mapNanos = (System.nanoTime() - startNanos) / ITERATIONS;
+        long mapBytes = (threadMXBean.getThreadAllocatedBytes(threadId) - allocated) / ITERATIONS;
+
+        byte[] streamingOutput = null;
+        allocated = threadMXBean.getThreadAllocatedBytes(threadId);
+        startNanos = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            streamingOutput = writeStreaming(timestamps, values);
+        }
+        long streamingNanos = (System.nanoTime() - startNanos) / ITERATIONS;
+        long streamingBytes = (threadMXBean.getThreadAllocatedBytes(threadId) - allocated) / ITERATIONS;
+
+        // Both include the output buffer of the same size
+        System.out.println("[DEBUG_LOG] Output size: " + mapOutput.length + " bytes");
+        System.out.println("[DEBUG_LOG] Maps:      " + mapNanos / 1_000_000 + " ms, "
+                + mapBytes / 1024 + " KiB allocated");
+        System.out.println("[DEBUG_LOG] Streaming: " + streamingNanos / 1_000_000 + " ms, "
+                + streamingBytes / 1024 + " KiB allocated");
+
+        System.out.println("[DEBUG_LOG] Columnar output size: " + writeColumnar(timestamps, values, false).length
+                + " bytes, delta-encoded: " + writeColumnar(timestamps, values, true).length + " bytes");
+
+        assertArrayEquals(mapOutput, streamingOutput);
+    }
+
+    private byte[] writeMaps(LocalDateTime[] timestamps, double[] values) throws IOException {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (int sensor = 0; sensor < SENSORS; sensor++) {
+            List<Map<String, Object>> data = new ArrayList<>();
+            for (int i = 0; i < timestamps.length; i++) {
+                Map<String, Object> dataPoint = new HashMap<>();
+                dataPoint.put("ts", timestamps[i].toString());
+                dataPoint.put("value", values[i]);
+                data.add(dataPoint);
+            }
+
+            Map<String, Object> sensorData = new HashMap<>();
+            sensorData.put("sensorId", "ID" + sensor);
+            sensorData.put("data", data);
+            result.add(sensorData);
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        objectMapper.writeValue(output, result);
+        return output.toByteArray();
+    }
+
+    private byte[] writeStreaming(LocalDateTime[] timestamps, double[] values) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.createGenerator(output, JsonEncoding.UTF8)) {
+            JsonDataPointWriter writer = new JsonDataPointWriter(generator);
+
+            generator.writeStartArray();
+            for (int sensor = 0; sensor < SENSORS; sensor++) {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("data");
+                for (int i = 0; i < timestamps.length; i++) {
+                    writer.writeDataPoint(timestamps[i], values[i]);
+                }
+                generator.writeEndArray();
+                generator.writeStringField("sensorId", "ID" + sensor);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        return output.toByteArray();
+    }
+
+    private byte[] writeColumnar(LocalDateTime[] timestamps, double[] values, boolean delta) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.createGenerator(output, JsonEncoding.UTF8)) {
+            ColumnarSeriesWriter writer = new ColumnarSeriesWriter(generator, delta);
+
+            generator.writeStartArray();
+            for (int sensor = 0; sensor < SENSORS; sensor++) {
+                for (int i = 0; i < timestamps.length; i++) {
+                    writer.add(timestamps[i], values[i]);
+                }
+                generator.writeStartObject();
+                generator.writeStringField("sensorId", "ID" + sensor);
+                writer.writeSeries();
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        return output.toByteArray();
+    }
+}
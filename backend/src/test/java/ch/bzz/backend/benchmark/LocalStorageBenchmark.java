@@ -0,0 +1,133 @@
+package ch.bzz.backend.benchmark;
+
+import ch.bzz.backend.model.EnergyData;
+import ch.bzz.backend.model.Measurement;
+import ch.bzz.backend.service.EnergyDataSegmentStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Benchmark for the local storage of energy data
+ *
+ * Compares the previous layout, one JSON file per energy data entry, with the binary segments of
+ * the EnergyDataSegmentStore: the time to write the entries, to read all entries back, and the size
+ * on disk. Also reports the time to read one day of one meter, which opens a single monthly segment.
+ * The default is one year of 15 minute entries with two measurements for -Dbenchmark.meters meters
+ * (default 2).
+ *
+ * Not part of the regular test run, start it with: mvn test -Pbenchmark
+ */
+public class LocalStorageBenchmark {
+
+    private static final int METERS = Integer.getInteger("benchmark.meters", 2);
+    private static final int ENTRIES = Integer.getInteger("benchmark.entries", 365 * 96);
+    private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 5);
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void benchmarkLocalStorage() throws IOException {
+        List<EnergyData> energyDataList = createEnergyData();
+        System.out.println("[DEBUG_LOG] Benchmarking with " + energyDataList.size() + " energy data entries");
+
+        Path jsonDir = Files.createDirectories(tempDir.resolve("json"));
+        long startNanos = System.nanoTime();
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+        for (EnergyData energyData : energyDataList) {
+            String filename = energyData.getMeterId() + "_" + energyData.getTimestamp().format(formatter) + ".json";
+            objectMapper.writeValue(jsonDir.resolve(filename).toFile(), energyData);
+        }
+        long jsonWriteNanos = System.nanoTime() - startNanos;
+
+        EnergyDataSegmentStore store = new EnergyDataSegmentStore(tempDir.resolve("segments"));
+        startNanos = System.nanoTime();
+        store.append(energyDataList);
+        long segmentWriteNanos = System.nanoTime() - startNanos;
+
+        int jsonCount = 0;
+        startNanos = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            jsonCount = readJson(jsonDir).size();
+        }
+        long jsonReadNanos = (System.nanoTime() - startNanos) / ITERATIONS;
+
+        int segmentCount = 0;
+        startNanos = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            segmentCount = store.readAll().size();
+        }
+        long segmentReadNanos = (System.nanoTime() - startNanos) / ITERATIONS;
+
+        int rangeCount = 0;
+        LocalDateTime day = LocalDateTime.of(2024, 6, 1, 0, 0);
+        startNanos = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            rangeCount = store.read("ID0", day, day.plusDays(1).minusNanos(1_000_000)).size();
+        }
+        long rangeReadNanos = (System.nanoTime() - startNanos) / ITERATIONS;
+
+        System.out.println("[DEBUG_LOG] JSON files: write " + jsonWriteNanos / 1_000_000 + " ms, read "
+                + jsonReadNanos / 1_000_000 + " ms, " + directorySize(jsonDir) / 1024 + " KiB");
+        System.out.println("[DEBUG_LOG] Segments:   write " + segmentWriteNanos / 1_000_000 + " ms, read "
+                + segmentReadNanos / 1_000_000 + " ms, " + directorySize(tempDir.resolve("segments")) / 1024 + " KiB");
+        System.out.println("[DEBUG_LOG] Segments:   read one day of one meter " + rangeReadNanos / 1000 + " us, "
+                + rangeCount + " entries");
+
+        assertEquals(energyDataList.size(), jsonCount);
+        assertEquals(energyDataList.size(), segmentCount);
+    }
+
+    private List<EnergyData> createEnergyData() {
+        List<EnergyData> energyDataList = new ArrayList<>();
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (int meter = 0; meter < METERS; meter++) {
+            for (int i = 0; i < ENTRIES; i++) {
+                LocalDateTime timestamp = start.plusMinutes(15L * i);
+                EnergyData energyData = EnergyData.builder().meterId("ID" + meter).timestamp(timestamp).build();
+                energyData.addMeasurement(Measurement.builder().type(EnergyData.DataType.PRODUCTION)
+                        .identifier("1-1:2.8.1").myvalue(i * 0.25).timestamp(timestamp).unit("kWh").build());
+                energyData.addMeasurement(Measurement.builder().type(EnergyData.DataType.CONSUMPTION)
+                        .identifier("1-1:1.8.1").myvalue(i * 0.5).timestamp(timestamp).unit("kWh").build());
+                energyDataList.add(energyData);
+            }
+        }
+        return energyDataList;
+    }
+
+    private List<EnergyData> readJson(Path dir) throws IOException {
+        List<EnergyData> energyDataList = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.json")) {
+            for (Path file : files) {
+                energyDataList.add(objectMapper.readValue(file.toFile(), EnergyData.class));
+            }
+        }
+        return energyDataList;
+    }
+
+    private long directorySize(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            long size = 0;
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                size += Files.size(file);
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package ch.bzz.backend.benchmark;
+
+import ch.bzz.backend.model.StromzaehlerDaten;
+import ch.bzz.backend.service.MeterRegistry;
+import ch.bzz.backend.service.XmlParserServiceImpl;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Benchmark for XmlParserServiceImpl.processMultipleFiles
+ *
+ * Compares parsing the files on the calling thread with parsing them on a fixed thread pool.
+ * The SDAT sample files are repeated until -Dbenchmark.files files (default 365, a year of
+ * daily files) are reached. The pool size can be set with -Dbenchmark.threads.
+ *
+ * Not part of the regular test run, start it with: mvn test -Pbenchmark
+ */
+public class MultiFileIngestBenchmark {
+
+    private static final int FILES = Integer.getInteger("benchmark.files", 365);
+    private static final int THREADS = Integer.getInteger("benchmark.threads", Runtime.getRuntime().availableProcessors());
+    private static final int WARMUP_ITERATIONS = Integer.getInteger("benchmark.warmup", 3);
+    private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 5);
+
+    @Test
+    public void benchmarkProcessMultipleFiles() throws Exception {
+        List<byte[]> contents = loadFiles();
+        System.out.println("[DEBUG_LOG] Benchmarking with " + contents.size() + " files and " + THREADS + " threads");
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            XmlParserServiceImpl sequentialParser = new XmlParserServiceImpl(Runnable::run, ForkJoinPool.commonPool(), new MeterRegistry());
+            XmlParserServiceImpl parallelParser = new XmlParserServiceImpl(executor, ForkJoinPool.commonPool(), new MeterRegistry());
+
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                sequentialParser.processMultipleFiles(open(contents));
+                parallelParser.processMultipleFiles(open(contents));
+            }
+
+            Map<String, StromzaehlerDaten> sequentialResult = null;
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sequentialResult = sequentialParser.processMultipleFiles(open(contents));
+            }
+            long sequentialNanos = (System.nanoTime() - start) / ITERATIONS;
+
+            Map<String, StromzaehlerDaten> parallelResult = null;
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                parallelResult = parallelParser.processMultipleFiles(open(contents));
+            }
+            long parallelNanos = (System.nanoTime() - start) / ITERATIONS;
+
+            System.out.println("[DEBUG_LOG] Sequential: " + sequentialNanos / 1_000_000 + " ms");
+            System.out.println("[DEBUG_LOG] Parallel:   " + parallelNanos / 1_000_000 + " ms (speedup "
+                    + String.format("%.1f", (double) sequentialNanos / parallelNanos) + "x)");
+
+            assertEquals(sequentialResult, parallelResult);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private List<byte[]> loadFiles() throws IOException {
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources("classpath:data/20*.xml");
+        List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            contents.add(resources[i % resources.length].getContentAsByteArray());
+        }
+        return contents;
+    }
+
+    private List<InputStream> open(List<byte[]> contents) {
+        List<InputStream> inputStreams = new ArrayList<>();
+        for (byte[] content : contents) {
+            inputStreams.add(new ByteArrayInputStream(content));
+        }
+        return inputStreams;
+    }
+}
@@ -0,0 +1,146 @@
+package ch.bzz.backend.benchmark;
+
+import ch.bzz.backend.model.EnergyData;
+import ch.bzz.backend.model.Measurement;
+import ch.bzz.backend.repository.EnergyDataRepository;
+import ch.bzz.backend.repository.MeasurementRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Benchmark for the time range queries of the repositories
+ *
+ * Fills the measurement table with -Dbenchmark.rows measurements (default 1M, use 10000000
+ * for the 10M run) spread over -Dbenchmark.meters meters with one energy data entry per meter
+ * and day, then measures the latency of a one week range query for a single meter with and
+ * without the measurement index.
+ *
+ * The rows are written with plain JDBC batches with IDs far above the sequence values, the
+ * JVM needs a large heap for the 10M run (e.g. -DargLine=-Xmx4g).
+ *
+ * Not part of the regular test run, start it with: mvn test -Pbenchmark
+ */
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+public class RangeQueryBenchmark {
+
+    private static final long ROWS = Long.getLong("benchmark.rows", 1_000_000);
+    private static final int METERS = Integer.getInteger("benchmark.meters", 100);
+    private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 20);
+
+    private static final int MEASUREMENTS_PER_DAY = 96;
+    private static final long ID_OFFSET = 1_000_000_000L;
+    private static final int JDBC_BATCH_SIZE = 10_000;
+    private static final LocalDateTime START = LocalDateTime.of(2020, 1, 1, 0, 0);
+
+    @Autowired
+    private EnergyDataRepository energyDataRepository;
+
+    @Autowired
+    private MeasurementRepository measurementRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void benchmarkRangeQueries() {
+        int days = (int) Math.max(1, ROWS / MEASUREMENTS_PER_DAY / METERS);
+        long start = System.nanoTime();
+        fillTables(days);
+        System.out.println("[DEBUG_LOG] Inserted " + (long) METERS * days * MEASUREMENTS_PER_DAY + " measurements for "
+                + METERS + " meters and " + days + " days in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+        String meterId = "range-meter-" + METERS / 2;
+        LocalDateTime from = START.plusDays(days / 2);
+        LocalDateTime to = from.plusDays(7).minusMinutes(1);
+        int expected = Math.min(7, days - days / 2) * MEASUREMENTS_PER_DAY / 2;
+
+        long indexedNanos = measureMeasurementQuery(meterId, from, to, expected);
+        long energyDataNanos = measureEnergyDataQuery(meterId, from, to);
+
+        jdbcTemplate.execute("DROP INDEX idx_measurement_energy_data_type_timestamp");
+        long unindexedNanos;
+        try {
+            unindexedNanos = measureMeasurementQuery(meterId, from, to, expected);
+        } finally {
+            jdbcTemplate.execute("CREATE INDEX idx_measurement_energy_data_type_timestamp "
+                    + "ON measurement (energy_data_id, type, timestamp)");
+        }
+
+        System.out.println("[DEBUG_LOG] Measurements of one meter and week, with index:    "
+                + indexedNanos / 1_000 + " us");
+        System.out.println("[DEBUG_LOG] Measurements of one meter and week, without index: "
+                + unindexedNanos / 1_000 + " us");
+        System.out.println("[DEBUG_LOG] Energy data of one meter and week:                 "
+                + energyDataNanos / 1_000 + " us");
+    }
+
+    private long measureMeasurementQuery(String meterId, LocalDateTime from, LocalDateTime to, int expected) {
+        // Warm up
+        measurementRepository.findByEnergyData_MeterIdAndTypeAndTimestampBetween(
+                meterId, EnergyData.DataType.CONSUMPTION, from, to);
+
+        long start = System.nanoTime();
+        List<Measurement> result = null;
+        for (int i = 0; i < ITERATIONS; i++) {
+            result = measurementRepository.findByEnergyData_MeterIdAndTypeAndTimestampBetween(
+                    meterId, EnergyData.DataType.CONSUMPTION, from, to);
+        }
+        long nanos = (System.nanoTime() - start) / ITERATIONS;
+
+        assertEquals(expected, result.size());
+        return nanos;
+    }
+
+    private long measureEnergyDataQuery(String meterId, LocalDateTime from, LocalDateTime to) {
+        energyDataRepository.findByMeterIdAndTimestampBetween(meterId, from, to);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            energyDataRepository.findByMeterIdAndTimestampBetween(meterId, from, to);
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    private void fillTables(int days) {
+        List<Object[]> energyDataRows = new ArrayList<>();
+        List<Object[]> measurementRows = new ArrayList<>(JDBC_BATCH_SIZE);
+        long energyDataId = ID_OFFSET;
+        long measurementId = ID_OFFSET;
+
+        for (int meter = 0; meter < METERS; meter++) {
+            for (int day = 0; day < days; day++) {
+                LocalDateTime date = START.plusDays(day);
+                energyDataId++;
+                energyDataRows.add(new Object[]{energyDataId, "range-meter-" + meter, Timestamp.valueOf(date)});
+
+                for (int i = 0; i < MEASUREMENTS_PER_DAY; i++) {
+                    String type = i % 2 == 0 ? EnergyData.DataType.CONSUMPTION.name() : EnergyData.DataType.PRODUCTION.name();
+                    measurementRows.add(new Object[]{++measurementId, energyDataId, type, String.valueOf(i),
+                            i * 0.25, Timestamp.valueOf(date.plusMinutes(15L * i)), "kWh"});
+                }
+
+                if (measurementRows.size() >= JDBC_BATCH_SIZE) {
+                    flush(energyDataRows, measurementRows);
+                }
+            }
+        }
+        flush(energyDataRows, measurementRows);
+    }
+
+    private void flush(List<Object[]> energyDataRows, List<Object[]> measurementRows) {
+        jdbcTemplate.batchUpdate("INSERT INTO energy_data (id, meter_id, timestamp) VALUES (?, ?, ?)", energyDataRows);
+        jdbcTemplate.batchUpdate("INSERT INTO measurement (id, energy_data_id, type, identifier, myvalue, timestamp, unit) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?)", measurementRows);
+        energyDataRows.clear();
+        measurementRows.clear();
+    }
+}
@@ -0,0 +1,121 @@
+package ch.bzz.backend.benchmark;
+
+import ch.bzz.backend.model.EnergySensorData;
+import ch.bzz.backend.service.MeterRegistry;
+import ch.bzz.backend.service.XmlParserServiceImpl;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Benchmark for XmlParserServiceImpl.processFilesToSensorData
+ *
+ * Compares the number of times each upload is opened and the wall time of the single-parse
+ * pipeline with the previous approach, which DOM-parsed every file once in the ESL loop and
+ * once more in the SDAT loop.
+ *
+ * Not part of the regular test run, start it with: mvn test -Pbenchmark
+ * The number of copies of the sample files and the iterations can be set with
+ * -Dbenchmark.copies and -Dbenchmark.iterations.
+ */
+public class SensorDataPipelineBenchmark {
+
+    private static final int COPIES = Integer.getInteger("benchmark.copies", 2);
+    private static final int WARMUP_ITERATIONS = Integer.getInteger("benchmark.warmup", 3);
+    private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 5);
+
+    private final AtomicInteger openCount = new AtomicInteger();
+
+    @Test
+    public void benchmarkProcessFilesToSensorData() throws Exception {
+        List<MultipartFile> files = loadFiles();
+        XmlParserServiceImpl xmlParserService = new XmlParserServiceImpl(Runnable::run, ForkJoinPool.commonPool(), new MeterRegistry());
+        System.out.println("[DEBUG_LOG] Benchmarking with " + files.size() + " files");
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            parseTwice(files);
+            xmlParserService.processFilesToSensorData(files);
+        }
+
+        // Previous approach: every file is DOM-parsed in both the ESL and the SDAT loop
+        openCount.set(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parseTwice(files);
+        }
+        long twoPassNanos = (System.nanoTime() - start) / ITERATIONS;
+        int twoPassOpens = openCount.get() / ITERATIONS;
+
+        // Single-parse pipeline
+        openCount.set(0);
+        List<EnergySensorData> result = null;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            result = xmlParserService.processFilesToSensorData(files);
+        }
+        long pipelineNanos = (System.nanoTime() - start) / ITERATIONS;
+        int pipelineOpens = openCount.get() / ITERATIONS;
+
+        System.out.println("[DEBUG_LOG] Two-pass DOM parsing (parse only): " + twoPassOpens + " parses, "
+                + twoPassNanos / 1_000_000 + " ms");
+        System.out.println("[DEBUG_LOG] Single-parse pipeline (parse and process): " + pipelineOpens + " parses, "
+                + pipelineNanos / 1_000_000 + " ms");
+
+        assertFalse(result.isEmpty());
+        assertEquals(files.size(), pipelineOpens, "Every file should be opened exactly once");
+    }
+
+    private void parseTwice(List<MultipartFile> files) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        for (int pass = 0; pass < 2; pass++) {
+            for (MultipartFile file : files) {
+                try (InputStream inputStream = file.getInputStream()) {
+                    Document document = factory.newDocumentBuilder().parse(inputStream);
+                    document.getDocumentElement().normalize();
+                }
+            }
+        }
+    }
+
+    private List<MultipartFile> loadFiles() throws IOException {
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources("classpath:data/*.xml");
+        List<MultipartFile> files = new ArrayList<>();
+        for (int copy = 0; copy < COPIES; copy++) {
+            for (Resource resource : resources) {
+                files.add(new CountingMultipartFile(resource.getFilename(), resource.getContentAsByteArray()));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * MultipartFile counting how often its content is opened
+     */
+    private class CountingMultipartFile extends MockMultipartFile {
+
+        CountingMultipartFile(String fileName, byte[] content) {
+            super("files", fileName, MediaType.APPLICATION_XML_VALUE, content);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            openCount.incrementAndGet();
+            return super.getInputStream();
+        }
+    }
+}
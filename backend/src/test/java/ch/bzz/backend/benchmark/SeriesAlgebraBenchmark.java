@@ -0,0 +1,109 @@
+package ch.bzz.backend.benchmark;
+
+import ch.bzz.backend.model.Messwert;
+import ch.bzz.backend.service.SeriesAlgebra;
+import ch.bzz.backend.service.TimeSeries;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Benchmark for the net (production minus consumption) computation
+ *
+ * Compares the previous approach, two HashMaps from timestamp to value probed against each other,
+ * with the merge-join of the SeriesAlgebra. The default is one year of 15 minute values, the
+ * merge-join is measured with and without building the series from the Messwert lists.
+ *
+ * Not part of the regular test run, start it with: mvn test -Pbenchmark
+ */
+public class SeriesAlgebraBenchmark {
+
+    private static final int POINTS = Integer.getInteger("benchmark.points", 365 * 96);
+    private static final int WARMUP_ITERATIONS = Integer.getInteger("benchmark.warmup", 20);
+    private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 50);
+
+    private final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void benchmarkNet() {
+        List<Messwert> production = new ArrayList<>(POINTS);
+        List<Messwert> consumption = new ArrayList<>(POINTS);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (int i = 0; i < POINTS; i++) {
+            LocalDateTime timestamp = start.plusMinutes(15L * i);
+            production.add(Messwert.builder().timestamp(timestamp).absoluteValue(i * 0.5).build());
+            consumption.add(Messwert.builder().timestamp(timestamp).absoluteValue(i * 0.25).build());
+        }
+        TimeSeries productionSeries = TimeSeries.of(production, Messwert::getTimestamp, Messwert::getAbsoluteValue);
+        TimeSeries consumptionSeries = TimeSeries.of(consumption, Messwert::getTimestamp, Messwert::getAbsoluteValue);
+        System.out.println("[DEBUG_LOG] Benchmarking net of " + POINTS + " points");
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            hashJoin(production, consumption);
+            SeriesAlgebra.subtract(TimeSeries.of(production, Messwert::getTimestamp, Messwert::getAbsoluteValue),
+                    TimeSeries.of(consumption, Messwert::getTimestamp, Messwert::getAbsoluteValue));
+            SeriesAlgebra.subtract(productionSeries, consumptionSeries);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        int hashSize = 0;
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId);
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            hashSize = hashJoin(production, consumption).size();
+        }
+        report("HashMaps:", startNanos, allocated, threadId);
+
+        int mergeSize = 0;
+        allocated = threadMXBean.getThreadAllocatedBytes(threadId);
+        startNanos = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mergeSize = SeriesAlgebra.subtract(
+                    TimeSeries.of(production, Messwert::getTimestamp, Messwert::getAbsoluteValue),
+                    TimeSeries.of(consumption, Messwert::getTimestamp, Messwert::getAbsoluteValue)).size();
+        }
+        report("Build and merge-join:", startNanos, allocated, threadId);
+
+        allocated = threadMXBean.getThreadAllocatedBytes(threadId);
+        startNanos = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mergeSize = SeriesAlgebra.subtract(productionSeries, consumptionSeries).size();
+        }
+        report("Merge-join:", startNanos, allocated, threadId);
+
+        assertEquals(hashSize, mergeSize);
+    }
+
+    private void report(String name, long startNanos, long allocated, long threadId) {
+        long nanos = (System.nanoTime() - startNanos) / ITERATIONS;
+        long bytes = (threadMXBean.getThreadAllocatedBytes(threadId) - allocated) / ITERATIONS;
+        System.out.println("[DEBUG_LOG] " + name + " " + nanos / 1000 + " µs, " + bytes / 1024 + " KiB allocated");
+    }
+
+    private Map<LocalDateTime, Double> hashJoin(List<Messwert> production, List<Messwert> consumption) {
+        Map<LocalDateTime, Messwert> productionByTimestamp = new HashMap<>();
+        for (Messwert messwert : production) {
+            productionByTimestamp.put(messwert.getTimestamp(), messwert);
+        }
+        Map<LocalDateTime, Messwert> consumptionByTimestamp = new HashMap<>();
+        for (Messwert messwert : consumption) {
+            consumptionByTimestamp.put(messwert.getTimestamp(), messwert);
+        }
+        Map<LocalDateTime, Double> net = new HashMap<>();
+        for (Map.Entry<LocalDateTime, Messwert> entry : productionByTimestamp.entrySet()) {
+            Messwert consumed = consumptionByTimestamp.get(entry.getKey());
+            if (consumed != null) {
+                net.put(entry.getKey(), entry.getValue().getAbsoluteValue() - consumed.getAbsoluteValue());
+            }
+        }
+        return net;
+    }
+}
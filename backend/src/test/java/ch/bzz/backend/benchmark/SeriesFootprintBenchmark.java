@@ -0,0 +1,104 @@
+package ch.bzz.backend.benchmark;
+
+import ch.bzz.backend.model.EnergyData;
+import ch.bzz.backend.model.Messwert;
+import ch.bzz.backend.model.StromzaehlerDaten;
+import ch.bzz.backend.util.SortedSeries;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Benchmark for the heap footprint of the sensor data series
+ *
+ * Compares the retained heap of a TreeMap from LocalDateTime to Double, the previous structure of
+ * the sensor data pipeline, with a SortedSeries holding the same points, and of a TreeMap from
+ * LocalDateTime to Messwert, the previous storage of StromzaehlerDaten, with the column-wise
+ * StromzaehlerDaten. The retained heap is the
+ * used heap after garbage collection, measured before and after building each structure. The
+ * default is -Dbenchmark.years (default 10) years of 15 minute values for one sensor.
+ *
+ * Not part of the regular test run, start it with: mvn test -Pbenchmark
+ */
+public class SeriesFootprintBenchmark {
+
+    private static final int YEARS = Integer.getInteger("benchmark.years", 10);
+
+    @Test
+    public void benchmarkFootprint() {
+        int points = YEARS * 365 * 96;
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        System.out.println("[DEBUG_LOG] Benchmarking footprint of " + points + " points");
+
+        long before = usedHeap();
+        TreeMap<LocalDateTime, Double> treeMap = new TreeMap<>();
+        for (int i = 0; i < points; i++) {
+            treeMap.put(start.plusMinutes(15L * i), i * 0.25);
+        }
+        long treeMapBytes = usedHeap() - before;
+
+        before = usedHeap();
+        SortedSeries series = new SortedSeries();
+        for (int i = 0; i < points; i++) {
+            series.put(start.plusMinutes(15L * i), i * 0.25);
+        }
+        long seriesBytes = usedHeap() - before;
+
+        System.out.println("[DEBUG_LOG] TreeMap:      " + treeMapBytes / 1024 + " KiB, "
+                + treeMapBytes / points + " bytes per point");
+        System.out.println("[DEBUG_LOG] SortedSeries: " + seriesBytes / 1024 + " KiB, "
+                + seriesBytes / points + " bytes per point (including unused capacity)");
+
+        assertEquals(treeMap.size(), series.size());
+    }
+
+    @Test
+    public void benchmarkStromzaehlerDatenFootprint() {
+        int points = YEARS * 365 * 96;
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        System.out.println("[DEBUG_LOG] Benchmarking StromzaehlerDaten footprint of " + points + " points");
+
+        long before = usedHeap();
+        TreeMap<LocalDateTime, Messwert> treeMap = new TreeMap<>();
+        for (int i = 0; i < points; i++) {
+            Messwert messwert = createMesswert(start.plusMinutes(15L * i), i);
+            treeMap.put(messwert.getTimestamp(), messwert);
+        }
+        long treeMapBytes = usedHeap() - before;
+
+        before = usedHeap();
+        StromzaehlerDaten stromzaehlerDaten = new StromzaehlerDaten("ID742");
+        for (int i = 0; i < points; i++) {
+            stromzaehlerDaten.addMesswert(createMesswert(start.plusMinutes(15L * i), i));
+        }
+        long stromzaehlerDatenBytes = usedHeap() - before;
+
+        System.out.println("[DEBUG_LOG] TreeMap of Messwert: " + treeMapBytes / 1024 + " KiB, "
+                + treeMapBytes / points + " bytes per point");
+        System.out.println("[DEBUG_LOG] StromzaehlerDaten:   " + stromzaehlerDatenBytes / 1024 + " KiB, "
+                + stromzaehlerDatenBytes / points + " bytes per point (including unused capacity)");
+
+        assertEquals(treeMap.size(), stromzaehlerDaten.size());
+    }
+
+    private Messwert createMesswert(LocalDateTime timestamp, int i) {
+        return Messwert.builder()
+                .timestamp(timestamp)
+                .absoluteValue(i * 0.25)
+                .relativeValue(0.25)
+                .unit("KWH")
+                .type(EnergyData.DataType.CONSUMPTION)
+                .build();
+    }
+
+    private long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,60 @@
+package ch.bzz.backend.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ColumnarSeriesWriterTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testTimestampsAreUtcAcrossDaylightSavingTime() throws Exception {
+        // 2024-03-31 is the spring-forward day in Europe, the stored timestamps are UTC
+        LocalDateTime start = LocalDateTime.of(2024, 3, 31, 0, 0);
+        JsonNode series = writeSeries(true, start, 12, 1);
+        System.out.println("[DEBUG_LOG] Columnar series: " + series);
+
+        assertEquals(start.toEpochSecond(ZoneOffset.UTC) * 1000, series.get("ts").get(0).asLong());
+        for (int i = 1; i < 12; i++) {
+            assertEquals(900_000, series.get("ts").get(i).asLong());
+        }
+    }
+
+    @Test
+    public void testUnsortedPointsAreWrittenByTimestamp() throws Exception {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        JsonNode series = writeSeries(false, start, 5, -1);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(start.plusMinutes(15L * i).toEpochSecond(ZoneOffset.UTC) * 1000,
+                    series.get("ts").get(i).asLong());
+            assertEquals(i, series.get("value").get(i).asDouble());
+        }
+    }
+
+    /**
+     * Write count 15 minute points from start, in ascending (step 1) or descending (step -1) order
+     */
+    private JsonNode writeSeries(boolean delta, LocalDateTime start, int count, int step) throws Exception {
+        StringWriter output = new StringWriter();
+        try (JsonGenerator generator = objectMapper.createGenerator(output)) {
+            ColumnarSeriesWriter writer = new ColumnarSeriesWriter(generator, delta);
+            for (int n = 0; n < count; n++) {
+                int i = step > 0 ? n : count - 1 - n;
+                writer.add(start.plusMinutes(15L * i), i);
+            }
+            generator.writeStartObject();
+            writer.writeSeries();
+            generator.writeEndObject();
+        }
+        return objectMapper.readTree(output.toString());
+    }
+}
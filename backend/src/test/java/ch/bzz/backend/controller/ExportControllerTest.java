@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasItem;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 
 @SpringBootTest
@@ -89,7 +90,33 @@ public class ExportControllerTest {
                 .andDo(print())
                 .andExpect(MockMvcResultMatchers.status().isOk())
                 .andExpect(MockMvcResultMatchers.content().contentType(MediaType.TEXT_PLAIN))
-                .andExpect(MockMvcResultMatchers.content().string(containsString("timestamp,value")));
+                .andExpect(MockMvcResultMatchers.content().string(containsString("timestamp,value")))
+                .andExpect(MockMvcResultMatchers.content().string(containsString(",82.03\n")))
+                .andExpect(MockMvcResultMatchers.header().string("Content-Disposition", containsString("ID742.csv")));
+    }
+
+    @Test
+    public void testExportColumnar() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get("/export/columnar")
+                .param("meterId", "ID742")
+                .param("delta", "true")
+                .accept(MediaType.APPLICATION_JSON))
+                .andDo(print())
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].sensorId").value("ID742"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].delta").value(true))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].ts").isArray())
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].value", hasItem(82.03)));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/export/columnar/measurements")
+                .param("meterId", "ID742")
+                .accept(MediaType.APPLICATION_JSON))
+                .andDo(print())
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.consumption.delta").value(false))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.consumption.ts").isArray())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.consumption.value", hasItem(85.47)));
     }
 
     private List<EnergyData> createTestData() {
@@ -0,0 +1,55 @@
+package ch.bzz.backend.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class JsonDataPointWriterTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testOutputMatchesMapSerialization() throws Exception {
+        List<LocalDateTime> timestamps = List.of(
+                LocalDateTime.of(2024, 1, 1, 0, 0),
+                LocalDateTime.of(2024, 1, 1, 0, 15, 30),
+                LocalDateTime.of(2024, 2, 29, 23, 45, 0, 120_000_000),
+                LocalDateTime.of(2024, 3, 1, 12, 0, 0, 123_456_000),
+                LocalDateTime.of(2024, 3, 1, 12, 0, 0, 123_456_789),
+                LocalDateTime.of(999, 12, 31, 23, 59),
+                LocalDateTime.of(12345, 6, 7, 8, 9));
+        double[] values = {0.0, 82.03, -1.5, 1129336.0, 1e-7, Double.MAX_VALUE, 4.2};
+
+        // Previous approach: a HashMap per data point serialized by the ObjectMapper
+        List<Map<String, Object>> dataPoints = new ArrayList<>();
+        for (int i = 0; i < timestamps.size(); i++) {
+            Map<String, Object> dataPoint = new HashMap<>();
+            dataPoint.put("ts", timestamps.get(i).toString());
+            dataPoint.put("value", values[i]);
+            dataPoints.add(dataPoint);
+        }
+        String expected = objectMapper.writeValueAsString(dataPoints);
+
+        StringWriter output = new StringWriter();
+        try (JsonGenerator generator = objectMapper.createGenerator(output)) {
+            JsonDataPointWriter writer = new JsonDataPointWriter(generator);
+            generator.writeStartArray();
+            for (int i = 0; i < timestamps.size(); i++) {
+                writer.writeDataPoint(timestamps.get(i), values[i]);
+            }
+            generator.writeEndArray();
+        }
+
+        System.out.println("[DEBUG_LOG] Streamed JSON: " + output);
+        assertEquals(expected, output.toString());
+    }
+}
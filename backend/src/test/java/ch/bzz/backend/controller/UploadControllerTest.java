@@ -17,6 +17,7 @@ import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -52,7 +53,8 @@ public class UploadControllerTest {
                         .file(file))
                 .andExpect(MockMvcResultMatchers.status().isOk());
 
-        // Verify that the data was saved to local storage
+        // Wait until the queued local storage writes are done, then verify that the data was saved
+        localStorageService.flush().get(30, TimeUnit.SECONDS);
         List<EnergyData> energyDataList = localStorageService.getAllEnergyData();
         assertNotNull(energyDataList);
         assertFalse(energyDataList.isEmpty());
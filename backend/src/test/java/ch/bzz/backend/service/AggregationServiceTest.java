@@ -0,0 +1,105 @@
+package ch.bzz.backend.service;
+
+import ch.bzz.backend.model.AggregatedMeasurements;
+import ch.bzz.backend.model.EnergyData;
+import ch.bzz.backend.model.Measurement;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest
+public class AggregationServiceTest {
+
+    // A Monday, so the day is the start of its week
+    private static final LocalDateTime START = LocalDateTime.of(2019, 7, 1, 0, 0);
+    private static final LocalDateTime END = START.plusDays(1).minusMinutes(15);
+
+    @Autowired
+    private EnergyDataService energyDataService;
+
+    @Autowired
+    private AggregationService aggregationService;
+
+    @BeforeEach
+    public void setUp() {
+        // One day of 15 minute values, production 2.0 and consumption 0.5 (saved once, re-uploads are skipped)
+        List<EnergyData> energyDataList = new ArrayList<>();
+        for (int i = 0; i < 96; i++) {
+            LocalDateTime timestamp = START.plusMinutes(15L * i);
+            EnergyData energyData = EnergyData.builder()
+                    .meterId("aggregate-meter")
+                    .timestamp(timestamp)
+                    .build();
+            energyData.addMeasurement(createMeasurement(EnergyData.DataType.PRODUCTION, timestamp, 2.0));
+            energyData.addMeasurement(createMeasurement(EnergyData.DataType.CONSUMPTION, timestamp, 0.5));
+            energyDataList.add(energyData);
+        }
+        energyDataService.saveEnergyData(energyDataList);
+    }
+
+    @Test
+    public void testAggregateDailySum() {
+        AggregatedMeasurements result = aggregationService.aggregate("aggregate-meter", START, END,
+                AggregationService.Bucket.DAY, AggregationService.Function.SUM);
+        System.out.println("[DEBUG_LOG] Daily sum: " + result);
+
+        assertEquals("1d", result.getBucket());
+        assertEquals(1, result.getProduction().size());
+        assertEquals(START, result.getProduction().get(0).getTimestamp());
+        assertEquals(192.0, result.getProduction().get(0).getValue());
+        assertEquals(48.0, result.getConsumption().get(0).getValue());
+        assertEquals(144.0, result.getNet().get(0).getValue());
+    }
+
+    @Test
+    public void testAggregateHourlyAverage() {
+        AggregatedMeasurements result = aggregationService.aggregate("aggregate-meter", START, END,
+                AggregationService.Bucket.HOUR, AggregationService.Function.AVG);
+
+        assertEquals(24, result.getProduction().size());
+        assertEquals(24, result.getNet().size());
+        assertEquals(START.plusHours(23), result.getNet().get(23).getTimestamp());
+        assertEquals(2.0, result.getProduction().get(5).getValue());
+        assertEquals(1.5, result.getNet().get(5).getValue());
+    }
+
+    @Test
+    public void testAggregateWeeklyAndQuarterHourly() {
+        AggregatedMeasurements weekly = aggregationService.aggregate("aggregate-meter", START.plusDays(2), START.plusDays(2),
+                AggregationService.Bucket.WEEK, AggregationService.Function.COUNT);
+        assertEquals(1, weekly.getConsumption().size());
+        assertEquals(START, weekly.getConsumption().get(0).getTimestamp());
+        assertEquals(96.0, weekly.getConsumption().get(0).getValue());
+
+        AggregatedMeasurements quarterHourly = aggregationService.aggregate("aggregate-meter", START, END,
+                AggregationService.Bucket.QUARTER_HOUR, AggregationService.Function.LAST);
+        assertEquals(96, quarterHourly.getProduction().size());
+        assertEquals(END, quarterHourly.getProduction().get(95).getTimestamp());
+        assertEquals(1.5, quarterHourly.getNet().get(95).getValue());
+    }
+
+    @Test
+    public void testUnknownBucketIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> AggregationService.Bucket.fromCode("2h"));
+        assertEquals(AggregationService.Bucket.MONTH, AggregationService.Bucket.fromCode("1M"));
+        assertEquals(AggregationService.Function.MAX, AggregationService.Function.fromName("max"));
+    }
+
+    private Measurement createMeasurement(EnergyData.DataType type, LocalDateTime timestamp, double value) {
+        return Measurement.builder()
+                .type(type)
+                .identifier(type == EnergyData.DataType.PRODUCTION ? "1-1:2.8.1" : "1-1:1.8.1")
+                .myvalue(value)
+                .timestamp(timestamp)
+                .unit("kWh")
+                .build();
+    }
+}
@@ -0,0 +1,292 @@
+package ch.bzz.backend.service;
+
+import ch.bzz.backend.model.EnergyData;
+import ch.bzz.backend.model.Measurement;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EnergyDataSegmentStoreTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        EnergyDataSegmentStore store = new EnergyDataSegmentStore(tempDir);
+        EnergyData withNulls = EnergyData.builder().meterId("ID742").timestamp(START.plusMinutes(15)).build();
+        withNulls.addMeasurement(Measurement.builder().myvalue(1.5).build());
+        store.append(List.of(createEnergyData("ID742", START, 10.25), withNulls,
+                createEnergyData("ID735/ü", START, 3.0)));
+
+        List<EnergyData> read = store.read("ID742");
+        System.out.println("[DEBUG_LOG] Read " + read.size() + " energy data entries");
+        assertEquals(2, read.size());
+        EnergyData first = read.get(0);
+        assertEquals(1L, first.getId());
+        assertEquals("ID742", first.getMeterId());
+        assertEquals(START, first.getTimestamp());
+        assertEquals(2, first.getMeasurements().size());
+        Measurement measurement = first.getMeasurements().get(0);
+        assertEquals(EnergyData.DataType.PRODUCTION, measurement.getType());
+        assertEquals(10.25, measurement.getMyvalue());
+        assertEquals("1-1:2.8.1", measurement.getIdentifier());
+        assertEquals("kWh", measurement.getUnit());
+        assertEquals(START, measurement.getTimestamp());
+        assertSame(first, measurement.getEnergyData());
+
+        Measurement nulls = read.get(1).getMeasurements().get(0);
+        assertNull(read.get(1).getId());
+        assertNull(nulls.getId());
+        assertNull(nulls.getType());
+        assertNull(nulls.getTimestamp());
+        assertNull(nulls.getIdentifier());
+        assertNull(nulls.getUnit());
+
+        assertEquals(List.of("ID735/ü", "ID742"), store.getMeterIds());
+        assertEquals(3, store.readAll().size());
+        assertTrue(store.read("ID74").isEmpty());
+    }
+
+    @Test
+    public void testLastAppendedEntryOfTimestampWins() throws IOException {
+        EnergyDataSegmentStore store = new EnergyDataSegmentStore(tempDir);
+        store.append(List.of(createEnergyData("ID742", START, 1), createEnergyData("ID742", START.plusMinutes(15), 2)));
+        store.append(List.of(createEnergyData("ID742", START, 10)));
+
+        List<EnergyData> read = store.read("ID742");
+        assertEquals(2, read.size());
+        assertEquals(10.0, read.get(0).getMeasurements().get(0).getMyvalue());
+        assertEquals(2.0, read.get(1).getMeasurements().get(0).getMyvalue());
+    }
+
+    @Test
+    public void testIncompleteRecordIsIgnoredAndTruncated() throws IOException {
+        EnergyDataSegmentStore store = new EnergyDataSegmentStore(tempDir);
+        store.append(List.of(createEnergyData("ID742", START, 1), createEnergyData("ID742", START.plusMinutes(15), 2)));
+
+        // Cut off the last record as if the process crashed while appending it
+        Path segment = tempDir.resolve("ID742").resolve("2024-01" + EnergyDataSegmentStore.SEGMENT_SUFFIX);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+        assertEquals(1, store.read("ID742").size());
+
+        // A new store truncates the incomplete record before appending
+        EnergyDataSegmentStore reopened = new EnergyDataSegmentStore(tempDir);
+        reopened.append(List.of(createEnergyData("ID742", START.plusMinutes(30), 3)));
+        List<EnergyData> read = reopened.read("ID742");
+        System.out.println("[DEBUG_LOG] Read " + read.size() + " energy data entries after truncation");
+        assertEquals(2, read.size());
+        assertEquals(START.plusMinutes(30), read.get(1).getTimestamp());
+    }
+
+    @Test
+    public void testIncompleteHeaderIsReadAsEmptySegment() throws IOException {
+        EnergyDataSegmentStore store = new EnergyDataSegmentStore(tempDir);
+        store.append(List.of(createEnergyData("ID742", START, 1)));
+
+        // Cut off the first append of the segment inside its header
+        Path segment = tempDir.resolve("ID742").resolve("2024-01" + EnergyDataSegmentStore.SEGMENT_SUFFIX);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(9);
+        }
+        assertTrue(store.read("ID742").isEmpty());
+
+        EnergyDataSegmentStore reopened = new EnergyDataSegmentStore(tempDir);
+        reopened.append(List.of(createEnergyData("ID742", START.plusMinutes(15), 2)));
+        List<EnergyData> read = reopened.read("ID742");
+        assertEquals(1, read.size());
+        assertEquals(START.plusMinutes(15), read.get(0).getTimestamp());
+    }
+
+    @Test
+    public void testCorruptRecordIsSkippedAndNotTruncated() throws IOException {
+        EnergyDataSegmentStore store = new EnergyDataSegmentStore(tempDir);
+        store.append(List.of(createEnergyData("ID742", START, 1), createEnergyData("ID742", START.plusMinutes(15), 2),
+                createEnergyData("ID742", START.plusMinutes(30), 3)));
+
+        // Change the type of the first measurement of the second record to an unknown type
+        Path segment = tempDir.resolve("ID742").resolve("2024-01" + EnergyDataSegmentStore.SEGMENT_SUFFIX);
+        byte[] bytes = Files.readAllBytes(segment);
+        int recordLength = (bytes.length - 15) / 3;
+        int typeOffset = 15 + recordLength + 2 * Integer.BYTES + 2 * Long.BYTES + Integer.BYTES + Long.BYTES;
+        assertEquals(EnergyData.DataType.PRODUCTION.ordinal() + 1, bytes[typeOffset]);
+        bytes[typeOffset] = 42;
+        Files.write(segment, bytes);
+
+        List<EnergyData> read = store.read("ID742");
+        System.out.println("[DEBUG_LOG] Read " + read.size() + " energy data entries around a corrupt record");
+        assertEquals(List.of(START, START.plusMinutes(30)), read.stream().map(EnergyData::getTimestamp).toList());
+
+        // The records after the corrupt one are kept, appending fails instead
+        EnergyDataSegmentStore reopened = new EnergyDataSegmentStore(tempDir);
+        assertThrows(IOException.class, () -> reopened.append(List.of(createEnergyData("ID742", START.plusHours(1), 4))));
+        assertEquals(bytes.length, Files.size(segment));
+    }
+
+    @Test
+    public void testSegmentWithoutChecksumsIsRewrittenBeforeAppending() throws IOException {
+        // Version 1: no checksums, the record length is followed by the energy data
+        ByteBuffer buffer = ByteBuffer.allocate(4096).putInt(0x45534547).putInt(1);
+        EnergyDataCodec.writeString(buffer, "ID742");
+        for (int i = 0; i < 2; i++) {
+            int start = buffer.position();
+            buffer.putInt(0);
+            EnergyDataCodec.writeEnergyData(buffer, createEnergyData("ID742", START.plusMinutes(15L * i), i));
+            buffer.putInt(start, buffer.position() - start - Integer.BYTES);
+        }
+        Path segment = Files.createDirectories(tempDir.resolve("ID742"))
+                .resolve("2024-01" + EnergyDataSegmentStore.SEGMENT_SUFFIX);
+        Files.write(segment, Arrays.copyOf(buffer.array(), buffer.position()));
+
+        EnergyDataSegmentStore store = new EnergyDataSegmentStore(tempDir);
+        assertEquals(2, store.read("ID742").size());
+        store.append(List.of(createEnergyData("ID742", START.plusMinutes(30), 2)));
+
+        List<EnergyData> read = new EnergyDataSegmentStore(tempDir).read("ID742");
+        assertEquals(3, read.size());
+        assertEquals(1.0, read.get(1).getMeasurements().get(0).getMyvalue());
+        assertEquals(2, ByteBuffer.wrap(Files.readAllBytes(segment)).getInt(Integer.BYTES));
+    }
+
+    @Test
+    public void testTimeRangeReadsOnlyOverlappingSegments() throws IOException {
+        EnergyDataSegmentStore store = new EnergyDataSegmentStore(tempDir);
+        store.append(List.of(createEnergyData("ID742", START, 1), createEnergyData("ID742", START.plusDays(20), 2),
+                createEnergyData("ID742", START.plusMonths(1), 3), createEnergyData("ID742", START.plusMonths(2), 4)));
+
+        // A segment outside the range is not opened, so corrupting it does not matter
+        Files.writeString(tempDir.resolve("ID742").resolve("2024-03" + EnergyDataSegmentStore.SEGMENT_SUFFIX),
+                "not an energy data segment");
+
+        List<EnergyData> read = store.read("ID742", START.plusDays(10), START.plusMonths(1));
+        System.out.println("[DEBUG_LOG] Read " + read.size() + " energy data entries in range");
+        assertEquals(2, read.size());
+        assertEquals(START.plusDays(20), read.get(0).getTimestamp());
+        assertEquals(START.plusMonths(1), read.get(1).getTimestamp());
+        assertTrue(store.read("ID742", START.plusDays(21), START.plusDays(30)).isEmpty());
+        assertThrows(IOException.class, () -> store.read("ID742"));
+    }
+
+    @Test
+    public void testMissingManifestIsRebuilt() throws IOException {
+        new EnergyDataSegmentStore(tempDir).append(List.of(createEnergyData("ID742", START, 1),
+                createEnergyData("ID742", START.plusMonths(1), 2)));
+        Files.delete(tempDir.resolve("ID742").resolve(EnergyDataSegmentStore.MANIFEST_FILE));
+
+        EnergyDataSegmentStore store = new EnergyDataSegmentStore(tempDir);
+        assertEquals(1, store.read("ID742", START.plusMonths(1), START.plusMonths(2)).size());
+        assertTrue(Files.exists(tempDir.resolve("ID742").resolve(EnergyDataSegmentStore.MANIFEST_FILE)));
+    }
+
+    @Test
+    public void testMigrationFromSegmentPerMeter() throws IOException {
+        // A segment of a single month has the layout of the earlier segment per meter
+        Path monthly = tempDir.resolve("monthly");
+        new EnergyDataSegmentStore(monthly).append(List.of(createEnergyData("ID742", START, 1),
+                createEnergyData("ID742", START.plusMinutes(15), 2)));
+        Path segments = Files.createDirectories(tempDir.resolve("segments"));
+        Files.copy(monthly.resolve("ID742").resolve("2024-01" + EnergyDataSegmentStore.SEGMENT_SUFFIX),
+                segments.resolve("ID742" + EnergyDataSegmentStore.SEGMENT_SUFFIX));
+
+        EnergyDataSegmentStore store = new EnergyDataSegmentStore(segments);
+
+        assertFalse(Files.exists(segments.resolve("ID742" + EnergyDataSegmentStore.SEGMENT_SUFFIX)));
+        assertEquals(List.of("ID742"), store.getMeterIds());
+        assertEquals(2, store.read("ID742").size());
+    }
+
+    @Test
+    public void testMigrationFromJsonFiles() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        Path jsonDir = Files.createDirectories(tempDir.resolve("energy-data"));
+        objectMapper.writeValue(jsonDir.resolve("ID742_20240101_000000.json").toFile(),
+                createEnergyData("ID742", START, 1));
+        objectMapper.writeValue(jsonDir.resolve("ID742_20240101_001500.json").toFile(),
+                createEnergyData("ID742", START.plusMinutes(15), 2));
+        objectMapper.writeValue(jsonDir.resolve("ID7420_20240101_000000.json").toFile(),
+                createEnergyData("ID7420", START, 3));
+        // Earlier versions wrote entries without a meter ID, they are skipped
+        objectMapper.writeValue(jsonDir.resolve("null_20240101_000000.json").toFile(),
+                createEnergyData(null, START, 4));
+        objectMapper.writeValue(jsonDir.resolve("null_20240101_001500.json").toFile(),
+                createEnergyData(null, START.plusMinutes(15), 5));
+
+        LocalStorageService localStorageService = new LocalStorageService(tempDir);
+
+        assertFalse(Files.exists(jsonDir));
+        assertTrue(Files.isDirectory(tempDir.resolve("energy-data.migrated")));
+        assertEquals(3, localStorageService.getAllEnergyData().size());
+        List<EnergyData> read = localStorageService.getEnergyDataByMeterId("ID742");
+        assertEquals(2, read.size());
+        assertEquals(2.0, read.get(1).getMeasurements().get(0).getMyvalue());
+        assertEquals(1, localStorageService.getEnergyDataByMeterIdAndTimeRange("ID742", START.plusMinutes(1),
+                START.plusHours(1)).size());
+
+        // The migration runs only once
+        assertEquals(3, new LocalStorageService(tempDir).getAllEnergyData().size());
+    }
+
+    @Test
+    public void testLocalStorageWritesQueuedCopies() throws Exception {
+        LocalStorageService localStorageService = new LocalStorageService(tempDir);
+        localStorageService.startWriter();
+        try {
+            EnergyData energyData = createEnergyData("ID742", START, 1);
+            localStorageService.saveEnergyData(List.of(energyData));
+
+            // Changes after saving are not written, a copy was queued
+            energyData.getMeasurements().get(0).setMyvalue(100);
+            localStorageService.flush().get(10, TimeUnit.SECONDS);
+
+            List<EnergyData> read = localStorageService.getEnergyDataByMeterId("ID742");
+            assertEquals(1, read.size());
+            assertEquals(1.0, read.get(0).getMeasurements().get(0).getMyvalue());
+        } finally {
+            localStorageService.stopWriter();
+        }
+    }
+
+    private EnergyData createEnergyData(String meterId, LocalDateTime timestamp, double value) {
+        EnergyData energyData = EnergyData.builder().id(1L).meterId(meterId).timestamp(timestamp).build();
+        energyData.addMeasurement(Measurement.builder()
+                .id(2L)
+                .type(EnergyData.DataType.PRODUCTION)
+                .identifier("1-1:2.8.1")
+                .myvalue(value)
+                .timestamp(timestamp)
+                .unit("kWh")
+                .build());
+        energyData.addMeasurement(Measurement.builder()
+                .id(3L)
+                .type(EnergyData.DataType.CONSUMPTION)
+                .identifier("1-1:1.8.1")
+                .myvalue(value / 2)
+                .timestamp(timestamp)
+                .unit("kWh")
+                .build());
+        return energyData;
+    }
+}
@@ -0,0 +1,224 @@
+package ch.bzz.backend.service;
+
+import ch.bzz.backend.model.EnergyData;
+import ch.bzz.backend.model.Measurement;
+import ch.bzz.backend.model.MeasurementRollup;
+import ch.bzz.backend.repository.EnergyDataRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+public class EnergyDataServiceTest {
+
+    @Autowired
+    private EnergyDataService energyDataService;
+
+    @Autowired
+    private EnergyDataRepository energyDataRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private RollupService rollupService;
+
+    @Test
+    public void testSaveEnergyDataSkipsDuplicates() {
+        LocalDateTime start = LocalDateTime.of(2019, 3, 1, 0, 0);
+
+        List<EnergyData> firstUpload = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            firstUpload.add(createEnergyData("dedupe-meter", start.plusDays(i)));
+        }
+        // Same key twice in one upload, only the first entry is saved
+        firstUpload.add(createEnergyData("dedupe-meter", start));
+
+        List<EnergyData> saved = energyDataService.saveEnergyData(firstUpload);
+        System.out.println("[DEBUG_LOG] First upload saved " + saved.size() + " of " + firstUpload.size() + " entries");
+        assertEquals(3, saved.size());
+        assertSame(firstUpload.get(0), saved.get(0));
+
+        // Re-upload with one new day, only the new day is saved
+        List<EnergyData> secondUpload = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            secondUpload.add(createEnergyData("dedupe-meter", start.plusDays(i)));
+        }
+
+        saved = energyDataService.saveEnergyData(secondUpload);
+        System.out.println("[DEBUG_LOG] Second upload saved " + saved.size() + " of " + secondUpload.size() + " entries");
+        assertEquals(1, saved.size());
+        assertEquals(start.plusDays(3), saved.get(0).getTimestamp());
+
+        // Re-uploading the same data again saves nothing
+        assertTrue(energyDataService.saveEnergyData(secondUpload).isEmpty());
+        assertEquals(4, energyDataRepository.findByMeterId("dedupe-meter").size());
+    }
+
+    @Test
+    public void testExportQueriesDoNotDependOnRowCount() {
+        LocalDateTime start = LocalDateTime.of(2019, 4, 1, 0, 0);
+        List<EnergyData> energyDataList = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            energyDataList.add(createEnergyData("fetch-meter", start.plusDays(i)));
+        }
+        energyDataService.saveEnergyData(energyDataList);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        try {
+            statistics.clear();
+            int measurements = 0;
+            for (EnergyData energyData : energyDataService.getEnergyDataByMeterId("fetch-meter")) {
+                measurements += energyData.getMeasurements().size();
+            }
+            System.out.println("[DEBUG_LOG] Loaded " + measurements + " measurements with "
+                    + statistics.getPrepareStatementCount() + " queries");
+            assertEquals(10, measurements);
+            assertEquals(1, statistics.getPrepareStatementCount());
+
+            statistics.clear();
+            for (EnergyData energyData : energyDataService.getAllEnergyData()) {
+                energyData.getMeasurements().size();
+            }
+            assertEquals(1, statistics.getPrepareStatementCount());
+
+            statistics.clear();
+            Map<EnergyData.DataType, List<Measurement>> grouped =
+                    energyDataService.getAllMeasurementsByMeterIdGroupedByType("fetch-meter");
+            assertEquals(10, grouped.get(EnergyData.DataType.CONSUMPTION).size());
+            assertEquals(1, statistics.getPrepareStatementCount());
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+    }
+
+    @Test
+    public void testSaveEnergyDataUpdatesRollups() {
+        LocalDateTime start = LocalDateTime.of(2019, 5, 30, 0, 0);
+
+        // 30 May to 2 June in two uploads, the second upload extends May and starts June
+        List<EnergyData> firstUpload = new ArrayList<>();
+        firstUpload.add(createEnergyData("rollup-meter", start, 2.0));
+        energyDataService.saveEnergyData(firstUpload);
+
+        List<EnergyData> secondUpload = new ArrayList<>();
+        for (int i = 1; i < 4; i++) {
+            secondUpload.add(createEnergyData("rollup-meter", start.plusDays(i), i * 10.0));
+        }
+        energyDataService.saveEnergyData(secondUpload);
+
+        List<MeasurementRollup> monthly = rollupService.getRollups("rollup-meter", EnergyData.DataType.CONSUMPTION,
+                MeasurementRollup.Resolution.MONTH, start, start.plusDays(3));
+        System.out.println("[DEBUG_LOG] Monthly rollups: " + monthly);
+
+        assertEquals(2, monthly.size());
+        MeasurementRollup may = monthly.get(0);
+        assertEquals(LocalDateTime.of(2019, 5, 1, 0, 0), may.getBucketStart());
+        assertEquals(2, may.getCount());
+        assertEquals(12.0, may.getSum());
+        assertEquals(2.0, may.getMin());
+        assertEquals(10.0, may.getMax());
+        assertEquals(2.0, may.getFirstValue());
+        assertEquals(10.0, may.getLastValue());
+
+        MeasurementRollup june = monthly.get(1);
+        assertEquals(LocalDateTime.of(2019, 6, 1, 0, 0), june.getBucketStart());
+        assertEquals(2, june.getCount());
+        assertEquals(50.0, june.getSum());
+        assertEquals(start.plusDays(3), june.getLastTimestamp());
+
+        assertEquals(4, rollupService.getRollups("rollup-meter", EnergyData.DataType.CONSUMPTION,
+                MeasurementRollup.Resolution.DAY, start, start.plusDays(3)).size());
+    }
+
+    @Test
+    public void testConcurrentUploadsAddToSameRollups() throws Exception {
+        LocalDateTime start = LocalDateTime.of(2019, 7, 1, 0, 0);
+        int days = 5;
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int day = 0; day < days; day++) {
+                // Two uploads of alternating quarter hours of a day, so they share every rollup bucket
+                List<EnergyData> even = new ArrayList<>();
+                List<EnergyData> odd = new ArrayList<>();
+                for (int i = 0; i < 96; i++) {
+                    LocalDateTime timestamp = start.plusDays(day).plusMinutes(15L * i);
+                    if (i % 2 == 0) {
+                        even.add(createEnergyData("concurrent-meter", timestamp, 1.0));
+                    } else {
+                        odd.add(createEnergyData("concurrent-meter", timestamp, 2.0));
+                    }
+                }
+                CyclicBarrier barrier = new CyclicBarrier(2);
+                Future<List<EnergyData>> first = executor.submit(() -> {
+                    barrier.await();
+                    return energyDataService.saveEnergyData(even);
+                });
+                Future<List<EnergyData>> second = executor.submit(() -> {
+                    barrier.await();
+                    return energyDataService.saveEnergyData(odd);
+                });
+                assertEquals(48, first.get(30, TimeUnit.SECONDS).size());
+                assertEquals(48, second.get(30, TimeUnit.SECONDS).size());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        List<MeasurementRollup> monthly = rollupService.getRollups("concurrent-meter", EnergyData.DataType.CONSUMPTION,
+                MeasurementRollup.Resolution.MONTH, start, start);
+        System.out.println("[DEBUG_LOG] Monthly rollup after concurrent uploads: " + monthly);
+        assertEquals(1, monthly.size());
+        assertEquals(days * 96, monthly.get(0).getCount());
+        assertEquals(days * 144.0, monthly.get(0).getSum());
+        assertEquals(1.0, monthly.get(0).getMin());
+        assertEquals(2.0, monthly.get(0).getMax());
+        assertEquals(start, monthly.get(0).getFirstTimestamp());
+        assertEquals(2.0, monthly.get(0).getLastValue());
+
+        List<MeasurementRollup> hourly = rollupService.getRollups("concurrent-meter", EnergyData.DataType.CONSUMPTION,
+                MeasurementRollup.Resolution.HOUR, start, start.plusDays(days).minusMinutes(15));
+        assertEquals(days * 24, hourly.size());
+        for (MeasurementRollup rollup : hourly) {
+            assertEquals(4, rollup.getCount());
+            assertEquals(6.0, rollup.getSum());
+        }
+    }
+
+    private EnergyData createEnergyData(String meterId, LocalDateTime timestamp) {
+        return createEnergyData(meterId, timestamp, 1.5);
+    }
+
+    private EnergyData createEnergyData(String meterId, LocalDateTime timestamp, double value) {
+        EnergyData energyData = EnergyData.builder()
+                .meterId(meterId)
+                .timestamp(timestamp)
+                .build();
+        energyData.addMeasurement(Measurement.builder()
+                .type(EnergyData.DataType.CONSUMPTION)
+                .identifier("1-1:1.8.1")
+                .myvalue(value)
+                .timestamp(timestamp)
+                .unit("kWh")
+                .build());
+        return energyData;
+    }
+}
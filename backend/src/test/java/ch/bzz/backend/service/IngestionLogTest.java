@@ -0,0 +1,375 @@
+package ch.bzz.backend.service;
+
+import ch.bzz.backend.model.EnergyData;
+import ch.bzz.backend.model.Measurement;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IngestionLogTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    public void shutdownExecutor() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testReplaysBatchesInLogOrder() throws IOException {
+        Path file = tempDir.resolve("wal/ingest.log");
+        try (IngestionLog ingestionLog = new IngestionLog(file, true)) {
+            assertEquals(0, ingestionLog.open(executor, 10, batch -> { }));
+            for (int i = 0; i < 50; i++) {
+                ingestionLog.append(createEnergyData(i % 2 == 0 ? "ID742" : "ID735", i * 3, 3));
+            }
+        }
+
+        List<EnergyData> replayed = new ArrayList<>();
+        List<Integer> batchSizes = new ArrayList<>();
+        try (IngestionLog ingestionLog = new IngestionLog(file, false)) {
+            long entries = ingestionLog.open(executor, 10, batch -> {
+                replayed.addAll(batch);
+                batchSizes.add(batch.size());
+            });
+            System.out.println("[DEBUG_LOG] Replayed " + entries + " entries in batches " + batchSizes);
+            assertEquals(150, entries);
+        }
+
+        assertEquals(150, replayed.size());
+        for (int i = 0; i < replayed.size(); i++) {
+            EnergyData energyData = replayed.get(i);
+            assertEquals((i / 3) % 2 == 0 ? "ID742" : "ID735", energyData.getMeterId());
+            assertEquals(START.plusMinutes(15L * i), energyData.getTimestamp());
+            assertEquals(i, energyData.getMeasurements().get(0).getMyvalue());
+            assertEquals("kWh", energyData.getMeasurements().get(0).getUnit());
+        }
+        // Consecutive records are combined, only the last batch may be smaller
+        for (int i = 0; i < batchSizes.size() - 1; i++) {
+            assertTrue(batchSizes.get(i) >= 10);
+        }
+    }
+
+    @Test
+    public void testTruncatesIncompleteRecord() throws IOException {
+        Path file = tempDir.resolve("ingest.log");
+        try (IngestionLog ingestionLog = new IngestionLog(file, false)) {
+            ingestionLog.open(executor, 1, null);
+            ingestionLog.append(createEnergyData("ID742", 0, 4));
+            ingestionLog.append(createEnergyData("ID742", 4, 4));
+        }
+        // Simulate a crash while the second record was written
+        long size = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 3);
+        }
+
+        try (IngestionLog ingestionLog = new IngestionLog(file, false)) {
+            assertEquals(4, ingestionLog.open(executor, 1, null));
+            assertTrue(Files.size(file) < size - 3);
+            ingestionLog.append(createEnergyData("ID735", 0, 2));
+        }
+
+        List<EnergyData> replayed = new ArrayList<>();
+        try (IngestionLog ingestionLog = new IngestionLog(file, false)) {
+            assertEquals(6, ingestionLog.open(executor, 1, replayed::addAll));
+        }
+        assertEquals("ID742", replayed.get(3).getMeterId());
+        assertEquals("ID735", replayed.get(4).getMeterId());
+    }
+
+    @Test
+    public void testCorruptRecordBeforeEndFailsWithoutTruncating() throws IOException {
+        Path file = tempDir.resolve("ingest.log");
+        try (IngestionLog ingestionLog = new IngestionLog(file, false)) {
+            ingestionLog.open(executor, 1, null);
+            ingestionLog.append(createEnergyData("ID742", 0, 4));
+        }
+        long firstRecordEnd = Files.size(file);
+        try (IngestionLog ingestionLog = new IngestionLog(file, false)) {
+            ingestionLog.open(executor, 1, null);
+            ingestionLog.append(createEnergyData("ID742", 4, 4));
+            ingestionLog.append(createEnergyData("ID742", 8, 4));
+        }
+
+        // Flip a byte in the payload of the second record
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[(int) firstRecordEnd + 20] ^= 0x55;
+        Files.write(file, bytes);
+
+        IngestionLog ingestionLog = new IngestionLog(file, false);
+        IOException exception = assertThrows(IOException.class, () -> ingestionLog.open(executor, 1, null));
+        System.out.println("[DEBUG_LOG] " + exception.getMessage());
+        assertEquals(bytes.length, Files.size(file));
+        assertThrows(IllegalStateException.class, () -> ingestionLog.append(createEnergyData("ID742", 12, 1)));
+    }
+
+    @Test
+    public void testTruncatesCorruptLastRecord() throws IOException {
+        Path file = tempDir.resolve("ingest.log");
+        try (IngestionLog ingestionLog = new IngestionLog(file, false)) {
+            ingestionLog.open(executor, 1, null);
+            ingestionLog.append(createEnergyData("ID742", 0, 4));
+        }
+        long firstRecordEnd = Files.size(file);
+        try (IngestionLog ingestionLog = new IngestionLog(file, false)) {
+            ingestionLog.open(executor, 1, null);
+            ingestionLog.append(createEnergyData("ID742", 4, 4));
+        }
+
+        // The file was extended, but only part of the last record reached the storage device
+        byte[] bytes = Files.readAllBytes(file);
+        Arrays.fill(bytes, (int) firstRecordEnd + 20, bytes.length, (byte) 0);
+        Files.write(file, bytes);
+
+        List<EnergyData> replayed = new ArrayList<>();
+        try (IngestionLog ingestionLog = new IngestionLog(file, false)) {
+            assertEquals(4, ingestionLog.open(executor, 1, replayed::addAll));
+        }
+        assertEquals(4, replayed.size());
+        assertEquals(firstRecordEnd, Files.size(file));
+    }
+
+    @Test
+    public void testFailedAppendIsTruncated() throws IOException {
+        Path file = tempDir.resolve("ingest.log");
+        List<FailingChannel> channels = new ArrayList<>();
+        try (IngestionLog ingestionLog = new IngestionLog(file, true, (path, options) -> {
+            FailingChannel channel = new FailingChannel(FileChannel.open(path, options));
+            channels.add(channel);
+            return channel;
+        })) {
+            ingestionLog.open(executor, 1, null);
+            ingestionLog.append(createEnergyData("ID742", 0, 4));
+            long firstRecordEnd = Files.size(file);
+
+            // The disk is full after part of the record was written
+            channels.get(0).failWrite = true;
+            IOException exception = assertThrows(IOException.class,
+                    () -> ingestionLog.append(createEnergyData("ID742", 4, 4)));
+            System.out.println("[DEBUG_LOG] " + exception.getMessage());
+            assertEquals(firstRecordEnd, Files.size(file));
+
+            channels.get(0).failForce = true;
+            assertThrows(IOException.class, () -> ingestionLog.append(createEnergyData("ID742", 8, 4)));
+            assertEquals(firstRecordEnd, Files.size(file));
+
+            ingestionLog.append(createEnergyData("ID735", 0, 2));
+        }
+
+        List<EnergyData> replayed = new ArrayList<>();
+        try (IngestionLog ingestionLog = new IngestionLog(file, false)) {
+            assertEquals(6, ingestionLog.open(executor, 1, replayed::addAll));
+        }
+        assertEquals(START.plusMinutes(45), replayed.get(3).getTimestamp());
+        assertEquals("ID735", replayed.get(4).getMeterId());
+    }
+
+    @Test
+    public void testConcurrentAppendsShareForces() throws Exception {
+        Path file = tempDir.resolve("ingest.log");
+        List<FailingChannel> channels = new ArrayList<>();
+        int threads = 8;
+        int appendsPerThread = 25;
+        try (IngestionLog ingestionLog = new IngestionLog(file, true, (path, options) -> {
+            FailingChannel channel = new FailingChannel(FileChannel.open(path, options));
+            channel.forceMillis = 5;
+            channels.add(channel);
+            return channel;
+        })) {
+            ingestionLog.open(executor, 1, null);
+            ExecutorService appenders = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String meterId = "ID" + t;
+                futures.add(appenders.submit(() -> {
+                    for (int i = 0; i < appendsPerThread; i++) {
+                        ingestionLog.append(createEnergyData(meterId, i, 1));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            appenders.shutdown();
+        }
+
+        int forces = channels.get(0).forces.get();
+        System.out.println("[DEBUG_LOG] " + threads * appendsPerThread + " appends with " + forces + " forces");
+        assertTrue(forces < threads * appendsPerThread);
+        try (IngestionLog ingestionLog = new IngestionLog(file, false)) {
+            assertEquals(threads * appendsPerThread, ingestionLog.open(executor, 1, null));
+        }
+    }
+
+    @Test
+    public void testAppendRequiresOpenLog() {
+        IngestionLog ingestionLog = new IngestionLog(tempDir.resolve("ingest.log"), false);
+        assertThrows(IllegalStateException.class, () -> ingestionLog.append(createEnergyData("ID742", 0, 1)));
+    }
+
+    private List<EnergyData> createEnergyData(String meterId, int from, int count) {
+        List<EnergyData> energyDataList = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            LocalDateTime timestamp = START.plusMinutes(15L * i);
+            EnergyData energyData = EnergyData.builder().meterId(meterId).timestamp(timestamp).build();
+            energyData.addMeasurement(Measurement.builder().type(EnergyData.DataType.CONSUMPTION)
+                    .identifier("1-1:1.8.1").myvalue(i).timestamp(timestamp).unit("kWh").build());
+            energyDataList.add(energyData);
+        }
+        return energyDataList;
+    }
+
+    /**
+     * A file channel that fails the next write after writing part of the buffer, or the next force,
+     * and counts and optionally slows down the forces
+     */
+    private static class FailingChannel extends FileChannel {
+
+        private final FileChannel channel;
+        private final AtomicInteger forces = new AtomicInteger();
+        private volatile boolean failWrite;
+        private volatile boolean failForce;
+        private volatile long forceMillis;
+
+        FailingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (failWrite) {
+                failWrite = false;
+                ByteBuffer part = src.duplicate();
+                part.limit(part.position() + part.remaining() / 2);
+                src.position(src.position() + channel.write(part));
+                throw new IOException("No space left on device");
+            }
+            return channel.write(src);
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            if (failForce) {
+                failForce = false;
+                throw new IOException("Input/output error");
+            }
+            if (forceMillis > 0) {
+                try {
+                    Thread.sleep(forceMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            forces.incrementAndGet();
+            channel.force(metaData);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package ch.bzz.backend.service;
+
+import ch.bzz.backend.model.Messwert;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LttbDownsamplerTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    @Test
+    public void testDownsampleKeepsShape() {
+        // One year of 15 minute values with a single spike
+        int size = 365 * 96;
+        List<Messwert> messwerte = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            double value = i == 12_345 ? 1000 : Math.sin(i / 96.0);
+            messwerte.add(Messwert.builder().timestamp(START.plusMinutes(15L * i)).absoluteValue(value).build());
+        }
+        Collections.shuffle(messwerte, new Random(42));
+
+        List<Messwert> sampled = LttbDownsampler.downsample(
+                messwerte, 1000, Messwert::getTimestamp, Messwert::getAbsoluteValue);
+        System.out.println("[DEBUG_LOG] Downsampled " + messwerte.size() + " to " + sampled.size() + " points");
+
+        assertEquals(1000, sampled.size());
+        assertEquals(START, sampled.get(0).getTimestamp());
+        assertEquals(START.plusMinutes(15L * (size - 1)), sampled.get(sampled.size() - 1).getTimestamp());
+        assertTrue(sampled.stream().anyMatch(messwert -> messwert.getAbsoluteValue() == 1000),
+                "The spike should be kept");
+        for (int i = 1; i < sampled.size(); i++) {
+            assertTrue(sampled.get(i - 1).getTimestamp().isBefore(sampled.get(i).getTimestamp()));
+        }
+    }
+
+    @Test
+    public void testSmallSeriesIsOnlySorted() {
+        Messwert first = Messwert.builder().timestamp(START).absoluteValue(1).build();
+        Messwert second = Messwert.builder().timestamp(START.plusMinutes(15)).absoluteValue(2).build();
+
+        List<Messwert> sampled = LttbDownsampler.downsample(
+                List.of(second, first), 10, Messwert::getTimestamp, Messwert::getAbsoluteValue);
+
+        assertEquals(2, sampled.size());
+        assertSame(first, sampled.get(0));
+        assertSame(second, sampled.get(1));
+    }
+}
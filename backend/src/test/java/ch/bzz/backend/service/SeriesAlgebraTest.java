@@ -0,0 +1,57 @@
+package ch.bzz.backend.service;
+
+import ch.bzz.backend.model.Messwert;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SeriesAlgebraTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    @Test
+    public void testSubtractJoinsMatchingTimestampsInOrder() {
+        // Production misses the second point, consumption the fourth, both unordered
+        TimeSeries production = series(List.of(point(3, 10), point(0, 5), point(2, 8)));
+        TimeSeries consumption = series(List.of(point(2, 3), point(1, 4), point(0, 1), point(4, 2)));
+
+        TimeSeries net = SeriesAlgebra.subtract(production, consumption);
+        System.out.println("[DEBUG_LOG] Net series has " + net.size() + " points");
+
+        assertEquals(2, net.size());
+        assertEquals(START, net.timestampAt(0));
+        assertEquals(4.0, net.valueAt(0));
+        assertEquals(START.plusMinutes(30), net.timestampAt(1));
+        assertEquals(5.0, net.valueAt(1));
+    }
+
+    @Test
+    public void testOfKeepsFirstPointOfDuplicateTimestamp() {
+        TimeSeries series = series(List.of(point(1, 7), point(0, 1), point(1, 9)));
+
+        assertEquals(2, series.size());
+        assertEquals(7.0, series.valueAt(1));
+        assertEquals(1, series.indexOf(START.plusMinutes(15)));
+        assertTrue(series.indexOf(START.plusMinutes(45)) < 0);
+    }
+
+    @Test
+    public void testJoinWithEmptySeries() {
+        TimeSeries production = series(List.of(point(0, 5)));
+
+        assertEquals(0, SeriesAlgebra.subtract(production, TimeSeries.empty()).size());
+        assertEquals(0, SeriesAlgebra.join(TimeSeries.empty(), production, Double::sum).size());
+    }
+
+    private TimeSeries series(List<Messwert> messwerte) {
+        return TimeSeries.of(messwerte, Messwert::getTimestamp, Messwert::getAbsoluteValue);
+    }
+
+    private Messwert point(int quarterHour, double value) {
+        return Messwert.builder().timestamp(START.plusMinutes(15L * quarterHour)).absoluteValue(value).build();
+    }
+}
@@ -0,0 +1,119 @@
+package ch.bzz.backend.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WriteBehindQueueTest {
+
+    @Test
+    public void testWritesInBatchesAndFlushes() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+        List<Boolean> fsyncs = Collections.synchronizedList(new ArrayList<>());
+        WriteBehindQueue<Integer> queue = new WriteBehindQueue<>("test-writer", (batch, fsync) -> {
+            awaitQuietly(blocked);
+            batches.add(new ArrayList<>(batch));
+            fsyncs.add(fsync);
+        }, 100, 4, 0, WriteBehindQueue.FsyncPolicy.BATCH);
+
+        // The first write blocks the writer, the following ones queue up
+        List<CompletableFuture<Void>> written = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            written.add(queue.submit(i));
+        }
+        CompletableFuture<Void> flushed = queue.flush();
+        assertFalse(flushed.isDone());
+
+        blocked.countDown();
+        flushed.get(10, TimeUnit.SECONDS);
+        System.out.println("[DEBUG_LOG] Wrote batches " + batches);
+
+        for (CompletableFuture<Void> future : written) {
+            assertTrue(future.isDone());
+        }
+        List<Integer> all = new ArrayList<>();
+        for (List<Integer> batch : batches) {
+            assertTrue(batch.size() <= 4);
+            all.addAll(batch);
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), all);
+        assertTrue(batches.size() < 10);
+        assertTrue(fsyncs.stream().allMatch(fsync -> fsync));
+        queue.close(10_000);
+    }
+
+    @Test
+    public void testFailedBatchCompletesExceptionally() throws Exception {
+        WriteBehindQueue<String> queue = new WriteBehindQueue<>("test-writer", (batch, fsync) -> {
+            if (batch.contains("fail")) {
+                throw new IOException("Disk full");
+            }
+        }, 10, 1, 0, WriteBehindQueue.FsyncPolicy.NONE);
+
+        CompletableFuture<Void> failed = queue.submit("fail");
+        CompletableFuture<Void> written = queue.submit("ok");
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof IOException);
+        written.get(10, TimeUnit.SECONDS);
+        queue.close(10_000);
+    }
+
+    @Test
+    public void testFlushReportsFailureOfEarlierBatch() throws Exception {
+        WriteBehindQueue<String> queue = new WriteBehindQueue<>("test-writer", (batch, fsync) -> {
+            if (batch.contains("fail")) {
+                throw new IOException("Disk full");
+            }
+        }, 10, 1, 0, WriteBehindQueue.FsyncPolicy.NONE);
+
+        // The failed write is written in a batch of its own, the flush in a later batch
+        CompletableFuture<Void> failed = queue.submit("fail");
+        assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS));
+        CompletableFuture<Void> flushed = queue.flush();
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> flushed.get(10, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof IOException);
+
+        // The failure is reported once, later flushes only cover later writes
+        queue.submit("ok");
+        queue.flush().get(10, TimeUnit.SECONDS);
+        queue.close(10_000);
+    }
+
+    @Test
+    public void testCloseWritesPendingWrites() {
+        List<Integer> writes = Collections.synchronizedList(new ArrayList<>());
+        WriteBehindQueue<Integer> queue = new WriteBehindQueue<>("test-writer", (batch, fsync) -> writes.addAll(batch),
+                10, 2, 50, WriteBehindQueue.FsyncPolicy.NONE);
+        for (int i = 0; i < 5; i++) {
+            queue.submit(i);
+        }
+
+        queue.close(10_000);
+
+        assertEquals(List.of(0, 1, 2, 3, 4), writes);
+        assertThrows(IllegalStateException.class, () -> queue.submit(5));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,29 +1,51 @@
 package ch.bzz.backend.service;
 
 import ch.bzz.backend.model.EnergyData;
+import ch.bzz.backend.model.EnergySensorData;
+import ch.bzz.backend.model.Measurement;
 import ch.bzz.backend.model.Messwert;
 import ch.bzz.backend.model.StromzaehlerDaten;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.core.io.ClassPathResource;
-
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.multipart.MultipartFile;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 @SpringBootTest
 public class XmlParserServiceTest {
 
+    private static final String SDAT_FILE = "data/20190426_093054_12X-0000001216-O_E66_12X-LIPPUNEREM-T_ESLEVU130304_-941874069.xml";
+
     @Autowired
     private XmlParserService xmlParserService;
 
+    @Autowired
+    private XmlParserServiceImpl xmlParserServiceImpl;
+
     @Test
     public void testProcessMultipleFiles() throws IOException {
         // Prepare test files
@@ -184,4 +206,389 @@ public class XmlParserServiceTest {
             assertTrue(hasConsumptionData, "ID742 should have consumption data");
         }
     }
+
+    @Test
+    public void testStreamingSdatParserMatchesDomParser() throws IOException {
+        List<EnergyData> domResult;
+        List<EnergyData> streamingResult;
+        Map<String, StromzaehlerDaten> domStromzaehlerDaten;
+        Map<String, StromzaehlerDaten> streamingStromzaehlerDaten;
+
+        try {
+            ReflectionTestUtils.setField(xmlParserServiceImpl, "streamingParser", false);
+            domResult = xmlParserService.parseXml(new ClassPathResource(SDAT_FILE).getInputStream());
+            domStromzaehlerDaten = xmlParserService.parseXmlToStromzaehlerDaten(new ClassPathResource(SDAT_FILE).getInputStream());
+
+            ReflectionTestUtils.setField(xmlParserServiceImpl, "streamingParser", true);
+            streamingResult = xmlParserService.parseXml(new ClassPathResource(SDAT_FILE).getInputStream());
+            streamingStromzaehlerDaten = xmlParserService.parseXmlToStromzaehlerDaten(new ClassPathResource(SDAT_FILE).getInputStream());
+        } finally {
+            ReflectionTestUtils.setField(xmlParserServiceImpl, "streamingParser", true);
+        }
+
+        // Verify the EnergyData objects
+        assertEquals(domResult.size(), streamingResult.size());
+        for (int i = 0; i < domResult.size(); i++) {
+            EnergyData expected = domResult.get(i);
+            EnergyData actual = streamingResult.get(i);
+            assertEquals(expected.getMeterId(), actual.getMeterId());
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+            assertEquals(expected.getMeasurements().size(), actual.getMeasurements().size());
+
+            for (int j = 0; j < expected.getMeasurements().size(); j++) {
+                Measurement expectedMeasurement = expected.getMeasurements().get(j);
+                Measurement actualMeasurement = actual.getMeasurements().get(j);
+                assertEquals(expectedMeasurement.getType(), actualMeasurement.getType());
+                assertEquals(expectedMeasurement.getIdentifier(), actualMeasurement.getIdentifier());
+                assertEquals(expectedMeasurement.getMyvalue(), actualMeasurement.getMyvalue());
+                assertEquals(expectedMeasurement.getTimestamp(), actualMeasurement.getTimestamp());
+                assertEquals(expectedMeasurement.getUnit(), actualMeasurement.getUnit());
+            }
+        }
+
+        // Verify the StromzaehlerDaten objects
+        assertEquals(domStromzaehlerDaten.keySet(), streamingStromzaehlerDaten.keySet());
+        for (String meterId : domStromzaehlerDaten.keySet()) {
+            assertEquals(domStromzaehlerDaten.get(meterId).getAllMesswerte(),
+                    streamingStromzaehlerDaten.get(meterId).getAllMesswerte());
+        }
+
+        System.out.println("[DEBUG_LOG] Streaming parser produced " + streamingResult.size() + " EnergyData objects");
+    }
+
+    @Test
+    public void testStreamingEslParserMatchesDomParser() throws Exception {
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources("classpath:data/EdmRegisterWertExport_*.xml");
+        assertTrue(resources.length > 0, "Sample ESL files should be available");
+
+        int checked = 0;
+        for (Resource resource : resources) {
+            Element root = parseDom(resource.getInputStream());
+
+            // Verify the EnergyData objects, one per meter and time period
+            List<EnergyData> expected = parseEslWithDom(root);
+            List<EnergyData> actual = xmlParserService.parseXml(resource.getInputStream());
+            assertEquals(expected.size(), actual.size(), resource.getFilename());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getMeterId(), actual.get(i).getMeterId());
+                assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+                assertEquals(expected.get(i).getMeasurements().size(), actual.get(i).getMeasurements().size());
+
+                for (int j = 0; j < expected.get(i).getMeasurements().size(); j++) {
+                    Measurement expectedMeasurement = expected.get(i).getMeasurements().get(j);
+                    Measurement actualMeasurement = actual.get(i).getMeasurements().get(j);
+                    assertEquals(expectedMeasurement.getIdentifier(), actualMeasurement.getIdentifier());
+                    assertEquals(expectedMeasurement.getMyvalue(), actualMeasurement.getMyvalue());
+                    assertEquals(expectedMeasurement.getTimestamp(), actualMeasurement.getTimestamp());
+                    assertEquals("KWH", actualMeasurement.getUnit());
+                    checked++;
+                }
+            }
+
+            // Verify the StromzaehlerDaten objects of the files with a single meter, where the
+            // combined Hochtarif and Niedertarif values of the sensors come from one meter only
+            if (root.getElementsByTagName("Meter").getLength() != 1) {
+                continue;
+            }
+            Element meter = (Element) root.getElementsByTagName("Meter").item(0);
+            Map<String, TreeMap<LocalDateTime, Double>> expectedValues = new TreeMap<>();
+            for (EnergyData energyData : expected) {
+                for (Measurement measurement : energyData.getMeasurements()) {
+                    String sensorId = switch (measurement.getIdentifier()) {
+                        case "1-1:1.8.1", "1-1:1.8.2" -> "ID742";
+                        case "1-1:2.8.1", "1-1:2.8.2" -> "ID735";
+                        default -> meter.getAttribute("factoryNo");
+                    };
+                    TreeMap<LocalDateTime, Double> values = expectedValues.computeIfAbsent(sensorId, k -> new TreeMap<>());
+                    if (sensorId.startsWith("ID")) {
+                        values.merge(measurement.getTimestamp(), measurement.getMyvalue(), Double::sum);
+                    } else {
+                        values.put(measurement.getTimestamp(), measurement.getMyvalue());
+                    }
+                }
+            }
+
+            Map<String, StromzaehlerDaten> stromzaehlerDaten = xmlParserService.parseXmlToStromzaehlerDaten(resource.getInputStream());
+            Map<String, TreeMap<LocalDateTime, Double>> actualValues = new TreeMap<>();
+            stromzaehlerDaten.forEach((sensorId, daten) -> {
+                if (daten.size() > 0) {
+                    actualValues.put(sensorId, absoluteValues(daten));
+                }
+            });
+            assertEquals(expectedValues, actualValues, resource.getFilename());
+        }
+
+        System.out.println("[DEBUG_LOG] Streaming ESL parser matched " + checked + " measurements of "
+                + resources.length + " files");
+    }
+
+    @Test
+    public void testEslParserSkipsInvalidRowsAndUsesPeriodEnd() throws IOException {
+        String xml = """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <ESLBillingData>
+                <Meter factoryNo="99000001" internalNo="99000001">
+                <TimePeriod end="2020-02-01T00:00:00">
+                <ValueRow obis="1-1:1.6.1" valueTimeStamp="2020-01-15T08:30:00" value="7.2000" status="V"/>
+                <ValueRow obis="1-1:1.6.2" valueTimeStamp="not a timestamp" value="5.0000" status="V"/>
+                <ValueRow obis="1-1:1.8.1" value="not a number" status="V"/>
+                <ValueRow obis="1-1:1.8.2" value="100.5000" status="V"/>
+                <ValueRow obis="1-1:2.8.1" value="20.0000" status="V"/>
+                </TimePeriod>
+                </Meter>
+                </ESLBillingData>
+                """;
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        LocalDateTime valueTimeStamp = LocalDateTime.of(2020, 1, 15, 8, 30);
+        LocalDateTime periodEnd = LocalDateTime.of(2020, 2, 1, 0, 0);
+
+        // Parse with a separate registry, so the test meter is not registered for the other tests
+        XmlParserServiceImpl parser = new XmlParserServiceImpl(Runnable::run, ForkJoinPool.commonPool(), new MeterRegistry());
+
+        // The rows with an invalid valueTimeStamp or value are skipped, the rows without a
+        // valueTimeStamp use the period end, not the valueTimeStamp of the row before them
+        List<EnergyData> result = parser.parseXml(new ByteArrayInputStream(bytes));
+        assertEquals(1, result.size());
+        List<Measurement> measurements = result.get(0).getMeasurements();
+        assertEquals(List.of("1-1:1.6.1", "1-1:1.8.2", "1-1:2.8.1"),
+                measurements.stream().map(Measurement::getIdentifier).toList());
+        assertEquals(valueTimeStamp, measurements.get(0).getTimestamp());
+        assertEquals(periodEnd, measurements.get(1).getTimestamp());
+        assertEquals(periodEnd, measurements.get(2).getTimestamp());
+
+        Map<String, StromzaehlerDaten> stromzaehlerDaten = parser.parseXmlToStromzaehlerDaten(new ByteArrayInputStream(bytes));
+        assertEquals(Map.of(valueTimeStamp, 7.2), absoluteValues(stromzaehlerDaten.get("99000001")));
+        assertEquals(Map.of(periodEnd, 100.5), absoluteValues(stromzaehlerDaten.get("ID742")));
+        assertEquals(Map.of(periodEnd, 20.0), absoluteValues(stromzaehlerDaten.get("ID735")));
+
+        List<EnergySensorData> sensorData = parser.processFilesToSensorData(List.of(
+                new MockMultipartFile("files", "esl.xml", "application/xml", bytes)));
+        Map<String, List<EnergySensorData.DataPoint>> dataPoints = new TreeMap<>();
+        for (EnergySensorData data : sensorData) {
+            dataPoints.put(data.getSensorId(), data.getData());
+        }
+        String periodEndSeconds = String.valueOf(periodEnd.toEpochSecond(ZoneOffset.UTC));
+        assertEquals(List.of(new EnergySensorData.DataPoint(periodEndSeconds, 100.5)), dataPoints.get("ID742"));
+        assertEquals(List.of(new EnergySensorData.DataPoint(periodEndSeconds, 20.0)), dataPoints.get("ID735"));
+        assertEquals(List.of(
+                new EnergySensorData.DataPoint(String.valueOf(valueTimeStamp.toEpochSecond(ZoneOffset.UTC)), 7.2),
+                new EnergySensorData.DataPoint(periodEndSeconds, 20.0)), dataPoints.get("99000001"));
+
+        System.out.println("[DEBUG_LOG] Sensor data of ESL file with invalid rows: " + dataPoints);
+    }
+
+    @Test
+    public void testEslCombinedValuesUseConfiguredMeterMapping() throws Exception {
+        ClassPathResource resource = new ClassPathResource("data/EdmRegisterWertExport_20190903_eslevu_20190903090936.xml");
+
+        // Map meter 38157930 (electricity) to its own sensors, meter 5442313 has no tariff registers
+        MeterRegistry meterRegistry = new MeterRegistry();
+        ReflectionTestUtils.setField(meterRegistry, "configuredMappings", "38157930:ID900:ID901");
+        meterRegistry.registerConfiguredMappings();
+        XmlParserServiceImpl parser = new XmlParserServiceImpl(Runnable::run, ForkJoinPool.commonPool(), meterRegistry);
+
+        // Combine the Hochtarif and Niedertarif values of the meter into its mapped sensors
+        Map<String, String> consumptionSensors = Map.of("38157930", "ID900");
+        Map<String, String> productionSensors = Map.of("38157930", "ID901");
+        Map<String, TreeMap<LocalDateTime, Double>> expectedValues = new TreeMap<>();
+        for (EnergyData energyData : parseEslWithDom(parseDom(resource.getInputStream()))) {
+            for (Measurement measurement : energyData.getMeasurements()) {
+                String sensorId = switch (measurement.getIdentifier()) {
+                    case "1-1:1.8.1", "1-1:1.8.2" -> consumptionSensors.get(energyData.getMeterId());
+                    case "1-1:2.8.1", "1-1:2.8.2" -> productionSensors.get(energyData.getMeterId());
+                    default -> null;
+                };
+                if (sensorId != null) {
+                    expectedValues.computeIfAbsent(sensorId, k -> new TreeMap<>())
+                            .merge(measurement.getTimestamp(), measurement.getMyvalue(), Double::sum);
+                }
+            }
+        }
+        assertEquals(Set.of("ID900", "ID901"), expectedValues.keySet());
+
+        Map<String, StromzaehlerDaten> result = parser.parseXmlToStromzaehlerDaten(resource.getInputStream());
+        for (String sensorId : expectedValues.keySet()) {
+            assertEquals(expectedValues.get(sensorId), absoluteValues(result.get(sensorId)), "Values of " + sensorId);
+        }
+
+        // No values of the mapped meter are added to the default sensors
+        assertFalse(result.containsKey("ID742"), "Default consumption sensor should not have values");
+        assertFalse(result.containsKey("ID735"), "Default production sensor should not have values");
+
+        System.out.println("[DEBUG_LOG] Combined ESL values per sensor: " + expectedValues.keySet());
+    }
+
+    @Test
+    public void testUnknownFormatIsRejectedAfterRootElement() {
+        // Root element followed by a large body that should never be read
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?><UnknownData>");
+        for (int i = 0; i < 100_000; i++) {
+            xml.append("<Value>").append(i).append("</Value>");
+        }
+        xml.append("</UnknownData>");
+        byte[] bytes = xml.toString().getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayInputStream content = new ByteArrayInputStream(bytes);
+        InputStream inputStream = new FilterInputStream(content) {
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> xmlParserService.parseXml(inputStream));
+        assertTrue(exception.getMessage().contains("UnknownData"));
+
+        // Only the header has been read from the stream
+        assertTrue(content.available() >= bytes.length - XmlFormatDetector.MAX_HEADER_SIZE);
+
+        System.out.println("[DEBUG_LOG] Unknown format rejected after reading "
+                + (bytes.length - content.available()) + " of " + bytes.length + " bytes");
+    }
+
+    @Test
+    public void testParallelProcessMultipleFilesMatchesSequential() throws IOException {
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources("classpath:data/*.xml");
+
+        // Parse the same files on the calling thread only and on the ingest executor
+        XmlParserServiceImpl sequentialParser = new XmlParserServiceImpl(Runnable::run, ForkJoinPool.commonPool(), new MeterRegistry());
+        Map<String, StromzaehlerDaten> sequentialResult = sequentialParser.processMultipleFiles(openAll(resources));
+        Map<String, StromzaehlerDaten> parallelResult = xmlParserService.processMultipleFiles(openAll(resources));
+
+        assertFalse(parallelResult.isEmpty());
+        assertEquals(sequentialResult.keySet(), parallelResult.keySet());
+        for (String meterId : sequentialResult.keySet()) {
+            assertEquals(sequentialResult.get(meterId).getAllMesswerte(), parallelResult.get(meterId).getAllMesswerte(),
+                    "Measurements of meter " + meterId + " should not depend on the parse order");
+        }
+
+        System.out.println("[DEBUG_LOG] Parallel and sequential processing of " + resources.length
+                + " files produced " + parallelResult.size() + " meters");
+    }
+
+    @Test
+    public void testIncrementalRelativeValuesMatchFullCalculation() throws IOException {
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources("classpath:data/*.xml");
+        Map<String, StromzaehlerDaten> result = xmlParserService.processMultipleFiles(openAll(resources));
+        assertFalse(result.isEmpty());
+
+        // Every relative value is the difference to the previous measurement of the same type
+        int checked = 0;
+        for (StromzaehlerDaten stromzaehlerDaten : result.values()) {
+            Map<EnergyData.DataType, Double> previousByType = new EnumMap<>(EnergyData.DataType.class);
+            for (int i = 0; i < stromzaehlerDaten.size(); i++) {
+                EnergyData.DataType type = stromzaehlerDaten.typeAt(i);
+                Double previous = previousByType.put(type, stromzaehlerDaten.absoluteValueAt(i));
+                double expected = previous == null ? 0.0 : stromzaehlerDaten.absoluteValueAt(i) - previous;
+                assertEquals(expected, stromzaehlerDaten.relativeValueAt(i),
+                        "Relative value of meter " + stromzaehlerDaten.getMeterId() + " at " + stromzaehlerDaten.timestampAt(i));
+                checked++;
+            }
+        }
+
+        System.out.println("[DEBUG_LOG] Checked " + checked + " relative values of " + result.size() + " meters");
+    }
+
+    @Test
+    public void testParallelReconstructionMatchesSequential() throws IOException {
+        List<MultipartFile> files = new ArrayList<>();
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources("classpath:data/*.xml")) {
+            files.add(new MockMultipartFile("files", resource.getFilename(), "application/xml", resource.getContentAsByteArray()));
+        }
+
+        List<EnergySensorData> sequentialResult;
+        List<EnergySensorData> parallelResult;
+        try {
+            ReflectionTestUtils.setField(xmlParserServiceImpl, "parallelReconstruction", false);
+            sequentialResult = xmlParserService.processFilesToSensorData(files);
+
+            ReflectionTestUtils.setField(xmlParserServiceImpl, "parallelReconstruction", true);
+            parallelResult = xmlParserService.processFilesToSensorData(files);
+        } finally {
+            ReflectionTestUtils.setField(xmlParserServiceImpl, "parallelReconstruction", false);
+        }
+
+        assertFalse(parallelResult.isEmpty());
+        assertEquals(sequentialResult, parallelResult);
+
+        System.out.println("[DEBUG_LOG] Parallel reconstruction produced " + parallelResult.size() + " sensors");
+    }
+
+    @Test
+    public void testSensorDataContainsEveryMeter() throws IOException {
+        List<MultipartFile> files = new ArrayList<>();
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources("classpath:data/EdmRegisterWertExport_*.xml")) {
+            files.add(new MockMultipartFile("files", resource.getFilename(), "application/xml", resource.getContentAsByteArray()));
+        }
+
+        List<EnergySensorData> result = xmlParserService.processFilesToSensorData(files);
+
+        // Both ESL meters get their own series, in addition to the default consumption and production sensors
+        List<String> sensorIds = new ArrayList<>();
+        for (EnergySensorData sensorData : result) {
+            sensorIds.add(sensorData.getSensorId());
+        }
+        assertTrue(sensorIds.contains("38157930"), "Meter 38157930 should have sensor data");
+        assertTrue(sensorIds.contains("5442313"), "Meter 5442313 should have sensor data");
+        assertTrue(sensorIds.contains("ID742"), "Consumption sensor ID742 should have sensor data");
+
+        System.out.println("[DEBUG_LOG] Sensor IDs: " + sensorIds);
+    }
+
+    private Element parseDom(InputStream inputStream) throws Exception {
+        try (inputStream) {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(inputStream).getDocumentElement();
+        }
+    }
+
+    /**
+     * Reference ESL parser on the DOM: one EnergyData per meter and time period, every
+     * value row at its valueTimeStamp if present, otherwise at the end of the time period
+     */
+    private List<EnergyData> parseEslWithDom(Element root) {
+        List<EnergyData> result = new ArrayList<>();
+        NodeList meters = root.getElementsByTagName("Meter");
+        for (int i = 0; i < meters.getLength(); i++) {
+            Element meter = (Element) meters.item(i);
+            NodeList timePeriods = meter.getElementsByTagName("TimePeriod");
+            for (int j = 0; j < timePeriods.getLength(); j++) {
+                Element timePeriod = (Element) timePeriods.item(j);
+                LocalDateTime end = LocalDateTime.parse(timePeriod.getAttribute("end"));
+                EnergyData energyData = EnergyData.builder()
+                        .meterId(meter.getAttribute("factoryNo"))
+                        .timestamp(end)
+                        .build();
+
+                NodeList valueRows = timePeriod.getElementsByTagName("ValueRow");
+                for (int k = 0; k < valueRows.getLength(); k++) {
+                    Element valueRow = (Element) valueRows.item(k);
+                    energyData.addMeasurement(Measurement.builder()
+                            .identifier(valueRow.getAttribute("obis"))
+                            .myvalue(Double.parseDouble(valueRow.getAttribute("value")))
+                            .timestamp(valueRow.hasAttribute("valueTimeStamp")
+                                    ? LocalDateTime.parse(valueRow.getAttribute("valueTimeStamp")) : end)
+                            .build());
+                }
+                result.add(energyData);
+            }
+        }
+        return result;
+    }
+
+    private TreeMap<LocalDateTime, Double> absoluteValues(StromzaehlerDaten stromzaehlerDaten) {
+        TreeMap<LocalDateTime, Double> values = new TreeMap<>();
+        for (int i = 0; i < stromzaehlerDaten.size(); i++) {
+            values.put(stromzaehlerDaten.timestampAt(i), stromzaehlerDaten.absoluteValueAt(i));
+        }
+        return values;
+    }
+
+    private List<InputStream> openAll(Resource[] resources) throws IOException {
+        List<InputStream> inputStreams = new ArrayList<>();
+        for (Resource resource : resources) {
+            inputStreams.add(resource.getInputStream());
+        }
+        return inputStreams;
+    }
 }
@@ -0,0 +1,38 @@
+package ch.bzz.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SeriesTimestampsTest {
+
+    @Test
+    public void testSortIsStable() {
+        Random random = new Random(42);
+        for (int size : new int[]{0, 1, 2, 31, 32, 33, 100, 1000, 4097}) {
+            long[] timestamps = new long[size + 3];
+            double[] values = new double[size + 3];
+            for (int i = 0; i < size; i++) {
+                // Few distinct timestamps, so many points share one; the value is the input position
+                timestamps[i] = random.nextInt(Math.max(size / 4, 1)) * 900_000L;
+                values[i] = i;
+            }
+            timestamps[size] = Long.MIN_VALUE;
+
+            SeriesTimestamps.sort(timestamps, values, size);
+
+            for (int i = 1; i < size; i++) {
+                assertTrue(timestamps[i - 1] <= timestamps[i]);
+                if (timestamps[i - 1] == timestamps[i]) {
+                    assertTrue(values[i - 1] < values[i]);
+                }
+            }
+            // Elements after size are not touched
+            assertEquals(Long.MIN_VALUE, timestamps[size]);
+        }
+        System.out.println("[DEBUG_LOG] Sorted series of up to 4097 points");
+    }
+}
@@ -0,0 +1,102 @@
+package ch.bzz.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SortedSeriesTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    @Test
+    public void testPutKeepsOrderAndReplaces() {
+        SortedSeries series = new SortedSeries(1);
+        series.put(START.plusHours(2), 3);
+        series.put(START, 1);
+        series.put(START.plusHours(1), 2);
+        series.put(START, 10);
+
+        assertEquals(3, series.size());
+        assertEquals(START, series.timestampAt(0));
+        assertEquals(10.0, series.valueAt(0));
+        assertEquals(START.plusHours(2), series.timestampAt(2));
+
+        // putIfAbsent keeps the existing value
+        assertEquals(2.0, series.putIfAbsent(START.plusHours(1), 20));
+        assertEquals(5.0, series.putIfAbsent(START.plusHours(3), 5));
+        assertEquals(4, series.size());
+    }
+
+    @Test
+    public void testFloorAndCeiling() {
+        SortedSeries series = new SortedSeries();
+        series.put(START, 1);
+        series.put(START.plusDays(1), 2);
+
+        assertEquals(-1, series.floorIndex(START.minusMinutes(1)));
+        assertEquals(0, series.floorIndex(START));
+        assertEquals(0, series.floorIndex(START.plusHours(12)));
+        assertEquals(1, series.ceilingIndex(START.plusHours(12)));
+        assertEquals(1, series.floorIndex(START.plusDays(2)));
+        assertEquals(-1, series.ceilingIndex(START.plusDays(2)));
+    }
+
+    @Test
+    public void testPutAllMergesSortedSeries() {
+        SortedSeries series = new SortedSeries();
+        series.put(START, 1);
+        series.put(START.plusMinutes(30), 3);
+        series.put(START.plusMinutes(60), 5);
+
+        SortedSeries other = new SortedSeries();
+        other.put(START.plusMinutes(15), 2);
+        other.put(START.plusMinutes(30), 30);
+        other.put(START.plusMinutes(75), 6);
+        series.putAll(other);
+        System.out.println("[DEBUG_LOG] Merged series has " + series.size() + " points");
+
+        double[] expected = {1, 2, 30, 5, 6};
+        assertEquals(expected.length, series.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], series.valueAt(i));
+        }
+        assertEquals(START.plusMinutes(75), series.timestampAt(4));
+    }
+
+    @Test
+    public void testColumnsStayParallelToPoints() {
+        // A column of labels, kept parallel to the points
+        String[][] labels = {new String[1]};
+        SortedSeries series = new SortedSeries(1, new SortedSeries.Columns() {
+            @Override
+            public void resize(int capacity) {
+                labels[0] = Arrays.copyOf(labels[0], capacity);
+            }
+
+            @Override
+            public void move(int from, int to, int length) {
+                System.arraycopy(labels[0], from, labels[0], to, length);
+            }
+        });
+        int index = series.put(START.plusMinutes(30), 3);
+        labels[0][index] = "c";
+        index = series.put(START, 1);
+        labels[0][index] = "a";
+        index = series.put(START.plusMinutes(60), 5);
+        labels[0][index] = "e";
+
+        SortedSeries other = new SortedSeries();
+        other.put(START.plusMinutes(15), 2);
+        other.put(START.plusMinutes(60), 50);
+        String[] otherLabels = {"b", "E"};
+        assertEquals(1, series.putAll(other, (otherIndex, mergedIndex) -> labels[0][mergedIndex] = otherLabels[otherIndex]));
+
+        assertEquals(4, series.size());
+        assertArrayEquals(new String[]{"a", "b", "c", "E"}, Arrays.copyOf(labels[0], series.size()));
+        assertEquals(50.0, series.valueAt(3));
+    }
+}